@@ -0,0 +1,139 @@
+/*
+***************************************************************************
+NTP License
+https://opensource.org/licenses/NTP
+      USC/ISI MACE Multi-Annotator Competence Estimation
+      USC Information Sciences Institute
+      4676 Admiralty Way
+      Marina del Rey, CA 90292-6695
+      USA
+      Original Version: Natural Language Group, April 2013
+      Current Version:  Natural Language Group, April 2013
+  Copyright (c) 2013 by the University of Southern California
+  All rights reserved.
+  Permission to use, copy, modify, and distribute this software and its
+  documentation in source and binary forms for any purpose and without
+  fee is hereby granted, provided that both the above copyright notice
+  and this permission notice appear in all copies, and that any
+  documentation, advertising materials, and other materials related to
+  such distribution and use acknowledge that the software was developed
+  in part by the University of Southern California, Information
+  Sciences Institute.  The name of the University may not be used to
+  endorse or promote products derived from this software without
+  specific prior written permission.
+  THE UNIVERSITY OF SOUTHERN CALIFORNIA makes no representations about
+  the suitability of this software for any purpose.  THIS SOFTWARE IS
+  PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED WARRANTIES,
+  INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF
+  MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+  Other copyrights might apply to parts of this software and are so
+  noted when applicable.
+***************************************************************************
+*/
+package de.tudarmstadt.ukp.argumentation.emnlp2016.data.mace;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Read-only view of a binary annotation file: a sequence of (instance, annotator, label)
+ * triples of big-endian ints, sorted by instance. The file is memory-mapped in segments of
+ * whole triples, so it can be larger than 2GB and is paged in by the operating system instead
+ * of being held on the heap.
+ */
+class AnnotationFile
+{
+    // bytes per triple
+    static final int TRIPLE_SIZE = 12;
+
+    // largest mapping that holds whole triples
+    private static final long SEGMENT_SIZE = (Integer.MAX_VALUE / TRIPLE_SIZE) * (long) TRIPLE_SIZE;
+
+    private final MappedByteBuffer[] segments;
+
+    final long numAnnotations;
+
+    AnnotationFile(File file)
+            throws IOException
+    {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            long size = channel.size();
+            if (size % TRIPLE_SIZE != 0) {
+                throw new IOException("size of annotation file " + file + " is not a multiple of "
+                        + TRIPLE_SIZE + " bytes");
+            }
+
+            numAnnotations = size / TRIPLE_SIZE;
+            segments = new MappedByteBuffer[(int) ((size + SEGMENT_SIZE - 1) / SEGMENT_SIZE)];
+            for (int i = 0; i < segments.length; i++) {
+                long position = i * SEGMENT_SIZE;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                        Math.min(SEGMENT_SIZE, size - position));
+            }
+        }
+        finally {
+            // the mappings stay valid after the channel is closed
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * @return a new cursor before the first triple; each cursor has its own position, so
+     * several models can stream the file at the same time
+     */
+    Cursor cursor()
+    {
+        return new Cursor();
+    }
+
+    class Cursor
+    {
+        private int segment = -1;
+        private ByteBuffer buffer;
+
+        private int instance;
+        private int annotator;
+        private int label;
+
+        /**
+         * move to the next triple
+         *
+         * @return false if there are no more triples
+         */
+        boolean next()
+        {
+            while (buffer == null || !buffer.hasRemaining()) {
+                if (segment + 1 == segments.length) {
+                    return false;
+                }
+                buffer = segments[++segment].duplicate();
+            }
+
+            instance = buffer.getInt();
+            annotator = buffer.getInt();
+            label = buffer.getInt();
+            return true;
+        }
+
+        int getInstance()
+        {
+            return instance;
+        }
+
+        int getAnnotator()
+        {
+            return annotator;
+        }
+
+        int getLabel()
+        {
+            return label;
+        }
+    }
+}
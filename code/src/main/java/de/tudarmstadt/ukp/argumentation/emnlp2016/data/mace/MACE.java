@@ -32,11 +32,16 @@ https://opensource.org/licenses/NTP
 */
 package de.tudarmstadt.ukp.argumentation.emnlp2016.data.mace;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * MACE: Multi-Annotator Competence Estimation
@@ -51,11 +56,11 @@ public class MACE
     public static final String VERSION = "0.2";
 
     // defaults
-    private static final int DEFAULT_RR = 10;
-    private static final int DEFAULT_ITERATIONS = 50;
+    static final int DEFAULT_RR = 10;
+    static final int DEFAULT_ITERATIONS = 50;
     private static final double DEFAULT_NOISE = 0.5;
-    private static final double DEFAULT_ALPHA = 0.5;
-    private static final double DEFAULT_BETA = 0.5;
+    static final double DEFAULT_ALPHA = 0.5;
+    static final double DEFAULT_BETA = 0.5;
     private static final double[] DIGAMMA_COEFFS
             = {
             .30459198558715155634315638246624251,
@@ -98,43 +103,87 @@ public class MACE
      */
     static double NEGATIVE_DIGAMMA_1 = 0.5772156649015328606065120900824024;
 
+    /**
+     * lower bound of the asymptotic series in the array digamma function
+     */
+    private static final int DIGAMMA_ASYMPTOTIC_MIN = 10;
+
     // fields
     public int numInstances;
     public int numAnnotators;
     public int numLabels;
 
-    // training data
-    // [d][ai]
-    public int[][] whoLabeled;
-    // [d][ai]
-    public int[][] labels;
+    // training data in CSR layout
+    // [d] annotations of instance d are at [instanceOffsets[d], instanceOffsets[d + 1])
+    int[] instanceOffsets;
+    // [k]
+    int[] annotators;
+    // [k]
+    int[] annotationLabels;
+
+    // training data streamed from a binary file instead (null if in memory)
+    AnnotationFile annotationFile;
 
-    // parameters
+    // parameters of the best model, flat row-major (see MACEModel)
     // [a][2]
-    public double[][] thetas;
-    // [d][l]
-    public double[][] strategies;
+    private double[] thetas;
+    // [a][l]
+    private double[] strategies;
 
     // expected counts
     // [d][l]
-    public double[][] goldLabelMarginals;
-    // [a][l]
-    public double[][] strategyExpectedCounts;
-    // [a][2]
-    public double[][] knowingExpectedCounts;
-
-    // priors
-    public double[][] thetaPriors;    // this controls how many of the annotators are actually good
-
-    public double[][] strategyPriors;    // for now, these are 1.0
+    private double[] goldLabelMarginals;
+    private PosteriorIndex posteriorIndex;
 
     double logMarginalLikelhood;
 
+    // [a] names of the annotators, null = column numbers
+    private List<String> annotatorIds;
+
     //hash stuff
     public Map<String, Integer> string2Int;
     public List<String> int2String;
     public int hashCounter;
 
+    // parallel E-step
+    private int numThreads = 1;
+    private boolean deterministic = false;
+    private ForkJoinPool forkJoinPool;
+
+    // kernel shaped for auto-vectorization
+    private boolean vectorized = false;
+
+    // parallel restarts
+    private int restartThreads = 1;
+    private Long seed;
+
+    // early stopping and pruning of restarts
+    private double tolerance = 0.0;
+    private int pruneAfter = 0;
+    private double pruneMargin = 0.0;
+    private double bestFinishedLogMarginalLikelihood;
+    private List<RestartStatistics> restartStatistics = new ArrayList<>();
+
+    // warm start
+    private MACEState initialState;
+
+    // stochastic variational inference
+    private int batchSize = 0;
+    private double tau = 1.0;
+    private double kappa = 0.7;
+
+    // evaluation on held-out instances
+    private double heldOutFraction = 0.0;
+    private double heldOutLogLikelihood = Double.NaN;
+
+    // bootstrap intervals of the competences
+    private int bootstrapResamples = 0;
+    private int bootstrapIterations = DEFAULT_ITERATIONS;
+    private double bootstrapConfidence = 0.95;
+    private int bootstrapThreads = Runtime.getRuntime().availableProcessors();
+    // [a][2] lower and upper bound
+    private double[][] competenceIntervals;
+
     /**
      * Constructor
      *
@@ -144,12 +193,6 @@ public class MACE
     public MACE(String csvFile)
             throws IOException
     {
-
-        numInstances = fileLineCount(csvFile);
-
-        labels = new int[numInstances][];
-        whoLabeled = new int[numInstances][];
-
         // hash stuff
         string2Int = new HashMap<>();
         int2String = new ArrayList<>();
@@ -161,10 +204,203 @@ public class MACE
         //this.numAnnotators = annotatorNumber;
         this.numLabels = int2String.size();
 
-        this.goldLabelMarginals = new double[numInstances][numLabels];
-        this.strategyExpectedCounts = new double[numAnnotators][numLabels];
-        this.knowingExpectedCounts = new double[numAnnotators][2];
+    }
+
+    /**
+     * Constructor for data that do not fit in memory: the CSV file is converted into a binary
+     * file of (instance, annotator, label) triples, which is memory-mapped and streamed in each
+     * E-step. Only parameters and marginals are kept in memory. The E-step is sequential.
+     *
+     * @param csvFile        comma-separated file, one item per line, each value one annotation
+     * @param annotationFile binary file to create, overwritten if it exists
+     * @throws IOException
+     */
+    public MACE(String csvFile, File annotationFile)
+            throws IOException
+    {
+        // hash stuff
+        string2Int = new HashMap<>();
+        int2String = new ArrayList<>();
+        hashCounter = 0;
+
+        // convert CSV file into triples
+        BufferedReader bufferedReader = new BufferedReader(new FileReader(csvFile));
+        DataOutputStream tripleOutput = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(annotationFile)));
+        try {
+            this.readFileData(bufferedReader, tripleOutput);
+        }
+        finally {
+            tripleOutput.close();
+            bufferedReader.close();
+        }
+
+        this.annotationFile = new AnnotationFile(annotationFile);
+        this.numLabels = int2String.size();
+    }
+
+    /**
+     * Constructor for annotations held in memory
+     *
+     * @param annotations item x annotator matrix, one row per item; null or empty values are
+     *                    missing annotations
+     */
+    public MACE(String[][] annotations)
+    {
+        this(annotations, null);
+    }
+
+    /**
+     * Constructor for annotations held in memory
+     *
+     * @param annotations  item x annotator matrix, one row per item; null or empty values are
+     *                     missing annotations
+     * @param annotatorIds name of the annotator of each column; used to match annotators with
+     *                     a saved {@link MACEState}
+     */
+    public MACE(String[][] annotations, List<String> annotatorIds)
+    {
+        this.annotatorIds = annotatorIds;
+
+        // hash stuff
+        string2Int = new HashMap<>();
+        int2String = new ArrayList<>();
+        hashCounter = 0;
+
+        numInstances = annotations.length;
+        numAnnotators = numInstances > 0 ? annotations[0].length : 0;
+        if (annotatorIds != null && annotatorIds.size() != numAnnotators) {
+            throw new IllegalArgumentException("number of annotator names (" + annotatorIds.size()
+                    + ") does not match number of annotators (" + numAnnotators + ")");
+        }
+
+        int numAnnotations = 0;
+        for (int d = 0; d < numInstances; ++d) {
+            if (annotations[d].length != numAnnotators) {
+                throw new IllegalArgumentException("number of annotations in row " + d
+                        + " differs from previous row!");
+            }
+            for (String value : annotations[d]) {
+                if (value != null && !value.isEmpty()) {
+                    numAnnotations++;
+                }
+            }
+        }
+
+        // CSR arrays
+        instanceOffsets = new int[numInstances + 1];
+        annotators = new int[numAnnotations];
+        annotationLabels = new int[numAnnotations];
+
+        int k = 0;
+        for (int d = 0; d < numInstances; ++d) {
+            instanceOffsets[d] = k;
+            for (int a = 0; a < numAnnotators; ++a) {
+                String value = annotations[d][a];
+                if (value != null && !value.isEmpty()) {
+                    annotators[k] = a;
+                    annotationLabels[k] = hashLabel(value);
+                    k++;
+                }
+            }
+        }
+        instanceOffsets[numInstances] = k;
+
+        this.numLabels = int2String.size();
+    }
+
+    /**
+     * Constructor for annotations already in compressed row form, e.g. from an annotation store
+     * that interned annotators and labels; no matrix is built. For the same data, the result is
+     * the same as for {@link #MACE(String[][], List)} if the labels are numbered in the order of
+     * their first appearance and the annotators of each instance are in ascending order.
+     *
+     * @param instanceOffsets  annotations of instance d are at [instanceOffsets[d],
+     *                         instanceOffsets[d + 1]); numInstances + 1 entries
+     * @param annotators       annotator of each annotation
+     * @param annotationLabels label id of each annotation
+     * @param labels           label of each id
+     * @param annotatorIds     name of each annotator
+     */
+    public MACE(int[] instanceOffsets, int[] annotators, int[] annotationLabels,
+            List<String> labels, List<String> annotatorIds)
+    {
+        if (instanceOffsets.length == 0 || instanceOffsets[0] != 0
+                || instanceOffsets[instanceOffsets.length - 1] != annotators.length
+                || annotators.length != annotationLabels.length) {
+            throw new IllegalArgumentException("inconsistent instance offsets and annotations");
+        }
+
+        this.annotatorIds = annotatorIds;
+
+        string2Int = new HashMap<>();
+        int2String = new ArrayList<>();
+        hashCounter = 0;
+        for (String label : labels) {
+            if (hashLabel(label) != int2String.size() - 1) {
+                throw new IllegalArgumentException("duplicate label " + label);
+            }
+        }
+
+        numInstances = instanceOffsets.length - 1;
+        numAnnotators = annotatorIds.size();
 
+        for (int d = 0; d < numInstances; ++d) {
+            if (instanceOffsets[d] > instanceOffsets[d + 1]) {
+                throw new IllegalArgumentException("instance offsets not ascending at " + d);
+            }
+        }
+        for (int k = 0; k < annotators.length; ++k) {
+            if (annotators[k] < 0 || annotators[k] >= numAnnotators) {
+                throw new IllegalArgumentException("annotator out of range: " + annotators[k]);
+            }
+            if (annotationLabels[k] < 0 || annotationLabels[k] >= int2String.size()) {
+                throw new IllegalArgumentException("label out of range: " + annotationLabels[k]);
+            }
+        }
+
+        this.instanceOffsets = instanceOffsets.clone();
+        this.annotators = annotators.clone();
+        this.annotationLabels = annotationLabels.clone();
+
+        this.numLabels = int2String.size();
+    }
+
+    /**
+     * Constructor for a subset of the instances of another instance; the label tables are
+     * shared
+     *
+     * @param data      all instances
+     * @param instances instances to keep, in this order
+     */
+    private MACE(MACE data, int[] instances)
+    {
+        string2Int = data.string2Int;
+        int2String = data.int2String;
+        hashCounter = data.hashCounter;
+        annotatorIds = data.annotatorIds;
+
+        numInstances = instances.length;
+        numAnnotators = data.numAnnotators;
+        numLabels = data.numLabels;
+
+        // CSR arrays
+        instanceOffsets = new int[numInstances + 1];
+        for (int i = 0; i < numInstances; ++i) {
+            int d = instances[i];
+            instanceOffsets[i + 1] = instanceOffsets[i] + data.instanceOffsets[d + 1]
+                    - data.instanceOffsets[d];
+        }
+        annotators = new int[instanceOffsets[numInstances]];
+        annotationLabels = new int[instanceOffsets[numInstances]];
+        for (int i = 0; i < numInstances; ++i) {
+            int d = instances[i];
+            int length = instanceOffsets[i + 1] - instanceOffsets[i];
+            System.arraycopy(data.annotators, data.instanceOffsets[d], annotators,
+                    instanceOffsets[i], length);
+            System.arraycopy(data.annotationLabels, data.instanceOffsets[d], annotationLabels,
+                    instanceOffsets[i], length);
+        }
     }
 
     /**
@@ -256,300 +492,1127 @@ public class MACE
     }
 
     /**
-     * initialize model parameters randomly
+     * Digamma function of each element of x[from, to), written to the same positions of result
+     * (which may be x).
+     * <p>
+     * Positive values are shifted by a fixed number of steps of the recurrence
+     * &Psi;(x) = &Psi;(x + 1) - 1/x until they are at least
+     * {@value #DIGAMMA_ASYMPTOTIC_MIN}, and then evaluated with the asymptotic series. All
+     * elements go through the same branch-free arithmetic, so the JIT can vectorize the loop;
+     * the results agree with {@link #digamma(double)} to about 13 digits. Other values are
+     * passed to {@link #digamma(double)}.
+     *
+     * @param x      values
+     * @param result digamma of the values
+     * @param from   first element
+     * @param to     end (exclusive)
      */
-    public void initialize(double initNoise)
+    public static void digamma(double[] x, double[] result, int from, int to)
     {
-        Random rand = new Random();
-        this.thetas = new double[numAnnotators][2];
-        this.strategies = new double[numAnnotators][numLabels];
-        for (int a = 0; a < numAnnotators; ++a) {
-            Arrays.fill(thetas[a], 1.0);
-            Arrays.fill(strategies[a], 1.0);
-            thetas[a][0] += initNoise * rand.nextDouble();
-            thetas[a][1] += initNoise * rand.nextDouble();
-            for (int l = 0; l < numLabels; ++l) {
-                strategies[a][l] += initNoise * rand.nextDouble();
+        for (int i = from; i < to; i++) {
+            double value = x[i];
+            if (!(value > 0.0)) {
+                result[i] = digamma(value);
+                continue;
             }
+
+            double accum = 0.0;
+            for (int k = 0; k < DIGAMMA_ASYMPTOTIC_MIN; k++) {
+                double shift = value < DIGAMMA_ASYMPTOTIC_MIN ? 1.0 : 0.0;
+                accum -= shift / value;
+                value += shift;
+            }
+
+            double inverse = 1.0 / value;
+            double inverse2 = inverse * inverse;
+            double series = inverse2 * (-1.0 / 12 + inverse2 * (1.0 / 120 + inverse2 * (
+                    -1.0 / 252 + inverse2 * (1.0 / 240 + inverse2 * (-1.0 / 132 + inverse2 * (
+                            691.0 / 32760 + inverse2 * (-1.0 / 12)))))));
+
+            result[i] = accum + Math.log(value) - 0.5 * inverse + series;
         }
-        normalizeInPlace(thetas, 0.0);
-        normalizeInPlace(strategies, 0.0);
+    }
 
-        //System.out.println(thetas[0][0] + " " + thetas[0][1]);
+    /**
+     * set the number of threads used by the E-step; with more than one thread, instances are
+     * processed in chunks on a fork/join pool
+     *
+     * @param numThreads    number of threads (1 = sequential)
+     * @param deterministic if true, the parallel E-step sums up the expected counts in the same
+     *                      order as the sequential one, so the output is identical bit for bit;
+     *                      otherwise each thread block has its own accumulators, which are merged
+     *                      at the end (faster, but rounding may differ from the sequential run)
+     */
+    public void setParallelism(int numThreads, boolean deterministic)
+    {
+        if (numThreads < 1) {
+            throw new IllegalArgumentException("number of threads less than 1");
+        }
+
+        this.numThreads = numThreads;
+        this.deterministic = deterministic;
+
+        if (forkJoinPool != null) {
+            forkJoinPool.shutdown();
+        }
+        forkJoinPool = numThreads > 1 ? new ForkJoinPool(numThreads) : null;
+    }
+
+    /**
+     * switch between the scalar kernel (default) and a kernel whose inner loops are dense and
+     * branch-free, so the JIT compiler can vectorize them: the expected counts of an
+     * annotation are computed without a loop over the labels, the variational M-step evaluates
+     * the digamma function over whole arrays, and normalization multiplies with reciprocals.
+     * Faster for many labels, but the results differ from the scalar kernel in the last digits.
+     *
+     * @param vectorized true for the vectorizable kernel
+     */
+    public void setVectorized(boolean vectorized)
+    {
+        this.vectorized = vectorized;
     }
 
     /**
-     * initialize and set prior matrices
+     * set the number of random restarts that are trained at the same time; each restart has
+     * its own model, so this only needs memory for {@code restartThreads} models
+     *
+     * @param restartThreads number of threads (1 = one restart after another)
      */
-    public void initialize(double initNoise, double alpha, double beta)
+    public void setRestartThreads(int restartThreads)
     {
-        this.initialize(initNoise);
-        this.thetaPriors = new double[numAnnotators][2];
-        this.strategyPriors = new double[numAnnotators][numLabels];
-        for (int a = 0; a < numAnnotators; ++a) {
-            thetaPriors[a][0] = alpha;
-            thetaPriors[a][1] = beta;
-            Arrays.fill(strategyPriors[a], 10.0);
+        if (restartThreads < 1) {
+            throw new IllegalArgumentException("number of restart threads less than 1");
+        }
+
+        this.restartThreads = restartThreads;
+    }
+
+    /**
+     * fix the random seed; each restart gets its own generator seeded from this one, so the
+     * result is reproducible regardless of the number of threads
+     *
+     * @param seed seed
+     */
+    public void setSeed(long seed)
+    {
+        this.seed = seed;
+    }
+
+    /**
+     * stop a restart early once the log marginal likelihood stops moving
+     *
+     * @param tolerance relative change of the log marginal likelihood between two iterations
+     *                  below which the restart is considered converged (0.0 = always run all
+     *                  iterations)
+     */
+    public void setTolerance(double tolerance)
+    {
+        if (tolerance < 0.0) {
+            throw new IllegalArgumentException("tolerance less than 0.0");
         }
+
+        this.tolerance = tolerance;
     }
 
     /**
-     * compute expected counts when control items are provided
+     * drop restarts that are unlikely to win: after {@code pruneAfter} iterations, a restart
+     * whose log marginal likelihood is lower than the best finished restart minus
+     * {@code pruneMargin} is stopped and not considered for the final model. With parallel
+     * restarts, what is pruned depends on which restarts finish first.
+     *
+     * @param pruneAfter  number of iterations before pruning starts (0 = no pruning)
+     * @param pruneMargin margin in log marginal likelihood
      */
-    void EStep(Map<Integer, Integer> controls)
+    public void setPruning(int pruneAfter, double pruneMargin)
     {
+        if (pruneAfter < 0) {
+            throw new IllegalArgumentException("pruneAfter less than 0");
+        }
+        if (pruneMargin < 0.0) {
+            throw new IllegalArgumentException("pruneMargin less than 0.0");
+        }
+
+        this.pruneAfter = pruneAfter;
+        this.pruneMargin = pruneMargin;
+    }
 
-        // reset counts
+    /**
+     * switch to stochastic variational inference: each iteration is a pass over the instances
+     * in random mini-batches; after each mini-batch, the posteriors of the annotators are moved
+     * towards the mini-batch estimate with step size (t + tau)^-kappa, t being the number of
+     * updates so far. Implies variational training. Mini-batches are processed sequentially.
+     *
+     * @param batchSize number of instances per mini-batch (0 = batch EM)
+     * @param tau       delay, down-weights the first updates (&gt; 0.0)
+     * @param kappa     forgetting rate (0.5-1.0)
+     */
+    public void setStochastic(int batchSize, double tau, double kappa)
+    {
+        if (batchSize < 0) {
+            throw new IllegalArgumentException("batch size less than 0");
+        }
+        // the first step size is tau^-kappa, which is infinite for tau = 0
+        if (tau <= 0.0) {
+            throw new IllegalArgumentException("tau not greater than 0.0");
+        }
+        if (kappa <= 0.5 || kappa > 1.0) {
+            throw new IllegalArgumentException("kappa not in (0.5, 1.0]");
+        }
 
+        this.batchSize = batchSize;
+        this.tau = tau;
+        this.kappa = kappa;
+    }
+
+    /**
+     * hold out a random fraction of the instances from training and report the log marginal
+     * likelihood of their annotations under the trained model; predictions are still made for
+     * all instances
+     *
+     * @param heldOutFraction fraction of instances (0.0 = none)
+     */
+    public void setHeldOut(double heldOutFraction)
+    {
+        if (heldOutFraction < 0.0 || heldOutFraction >= 1.0) {
+            throw new IllegalArgumentException("held-out fraction not in [0.0, 1.0)");
+        }
+
+        this.heldOutFraction = heldOutFraction;
+    }
+
+    /**
+     * after training, refit the model on bootstrap resamples of the instances to get a
+     * confidence interval of each competence. The refits start from the trained parameters
+     * and run on a fork/join pool (see {@link #setBootstrapThreads(int)}); a resample is a list
+     * of instance numbers, so the annotations are never copied.
+     *
+     * @param resamples  number of resamples (0 = no bootstrap)
+     * @param iterations number of EM iterations per refit
+     * @param confidence confidence level of the percentile intervals, e.g. 0.95
+     */
+    public void setBootstrap(int resamples, int iterations, double confidence)
+    {
+        if (resamples < 0) {
+            throw new IllegalArgumentException("number of resamples less than 0");
+        }
+        if (iterations < 1) {
+            throw new IllegalArgumentException("number of bootstrap iterations less than 1");
+        }
+        if (confidence <= 0.0 || confidence >= 1.0) {
+            throw new IllegalArgumentException("confidence not in (0.0, 1.0)");
+        }
+
+        this.bootstrapResamples = resamples;
+        this.bootstrapIterations = iterations;
+        this.bootstrapConfidence = confidence;
+    }
+
+    /**
+     * set the number of bootstrap refits that run at the same time; each refit has its own
+     * model, so this needs memory for {@code bootstrapThreads} models
+     *
+     * @param bootstrapThreads number of threads (default: number of available processors)
+     */
+    public void setBootstrapThreads(int bootstrapThreads)
+    {
+        if (bootstrapThreads < 1) {
+            throw new IllegalArgumentException("number of bootstrap threads less than 1");
+        }
+
+        this.bootstrapThreads = bootstrapThreads;
+    }
+
+    /**
+     * @return [a][2] lower and upper bound of the competence of each annotator from the last
+     * run, NaN for annotators with too few resamples; null if no bootstrap was run
+     */
+    public double[][] getCompetenceIntervals()
+    {
+        if (competenceIntervals == null) {
+            return null;
+        }
+
+        double[][] result = new double[competenceIntervals.length][];
+        for (int a = 0; a < result.length; ++a) {
+            result[a] = competenceIntervals[a].clone();
+        }
+        return result;
+    }
+
+    /**
+     * @return log marginal likelihood of the held-out instances of the last run, NaN if none
+     * were held out
+     */
+    public double getHeldOutLogLikelihood()
+    {
+        return heldOutLogLikelihood;
+    }
+
+    /**
+     * @return statistics of all restarts of the last run, ordered by restart number
+     */
+    public List<RestartStatistics> getRestartStatistics()
+    {
+        return restartStatistics;
+    }
+
+    /**
+     * @return [a][2] probability of guessing (0) and of knowing (1) for each annotator
+     */
+    public double[][] getThetas()
+    {
+        return toMatrix(thetas, 2);
+    }
+
+    /**
+     * @return [a][l] probability of each label when an annotator is guessing
+     */
+    public double[][] getStrategies()
+    {
+        return toMatrix(strategies, numLabels);
+    }
+
+    /**
+     * @return [d][l] posterior of the gold label of each instance (unnormalized)
+     */
+    public double[][] getGoldLabelMarginals()
+    {
+        return toMatrix(goldLabelMarginals, numLabels);
+    }
+
+    /**
+     * @param a annotator
+     * @return probability that the annotator knows the answer rather than guessing
+     */
+    public double getCompetence(int a)
+    {
+        return thetas[2 * a + 1];
+    }
+
+    /**
+     * train the model on the data of this instance
+     *
+     * @param options training settings
+     * @return predictions, competences and posteriors of the best restart
+     */
+    public MACEResult run(MACEOptions options)
+    {
+        int[] controls = getControlArray(options.getControls());
+        double smoothing = options.getSmoothing() != null ?
+                options.getSmoothing() :
+                0.01 / (double) numLabels;
+
+        setParallelism(options.getThreads(), options.isDeterministic());
+        try {
+            setVectorized(options.isVectorized());
+            setRestartThreads(options.getRestartThreads());
+            this.seed = options.getSeed();
+            setTolerance(options.getTolerance());
+            setPruning(options.getPruneAfter(), options.getPruneMargin());
+            setStochastic(options.getBatchSize(), options.getTau(), options.getKappa());
+            setHeldOut(options.getHeldOut());
+            setBootstrap(options.getBootstrapResamples(), options.getBootstrapIterations(),
+                    options.getBootstrapConfidence());
+            setBootstrapThreads(options.getBootstrapThreads());
+            initialState = options.getInitialState();
+            run(options.getIterations(), smoothing,
+                    initialState != null ? 1 : options.getRestarts(), options.getAlpha(),
+                    options.getBeta(), options.isVariational(), controls);
+        }
+        finally {
+            // release the threads of the E-step
+            setParallelism(1, false);
+            initialState = null;
+        }
+
+        double[] competences = new double[numAnnotators];
+        for (int a = 0; a < numAnnotators; a++) {
+            competences[a] = getCompetence(a);
+        }
+
+        // posterior of the gold labels
+        double[][] marginals = getGoldLabelMarginals();
+        for (double[] row : marginals) {
+            double norm = 0.0;
+            for (double value : row) {
+                norm += value;
+            }
+            for (int l = 0; l < row.length; l++) {
+                row[l] = norm > 0.0 ? row[l] / norm : 0.0;
+            }
+        }
+
+        List<String> labels = new ArrayList<>(int2String.subList(0, numLabels));
+        MACEState state = new MACEState(getAnnotatorIds(), labels, getThetas(), getStrategies());
+
+        return new MACEResult(labels, decode(options.getThreshold()), competences, marginals,
+                posteriorIndex, getCompetenceIntervals(), logMarginalLikelhood,
+                heldOutLogLikelihood, restartStatistics, state);
+    }
+
+    /**
+     * @return names of the annotators; column numbers if no names were given
+     */
+    public List<String> getAnnotatorIds()
+    {
+        if (annotatorIds != null) {
+            return new ArrayList<>(annotatorIds);
+        }
+
+        List<String> result = new ArrayList<>(numAnnotators);
+        for (int a = 0; a < numAnnotators; a++) {
+            result.add(String.valueOf(a));
+        }
+        return result;
+    }
+
+    /**
+     * initialize the model from {@link #initialState}; annotators and labels that are not in
+     * the state get the mean of the prior and a uniform strategy
+     */
+    private void initializeFromState(MACEModel model, double alpha, double beta,
+            boolean variational)
+    {
+        Map<String, Integer> stateAnnotators = new HashMap<>();
+        List<String> stateAnnotatorIds = initialState.getAnnotators();
+        for (int i = 0; i < stateAnnotatorIds.size(); i++) {
+            stateAnnotators.put(stateAnnotatorIds.get(i), i);
+        }
+        Map<String, Integer> stateLabels = new HashMap<>();
+        for (int i = 0; i < initialState.getLabels().size(); i++) {
+            stateLabels.put(initialState.getLabels().get(i), i);
+        }
+
+        List<String> ids = getAnnotatorIds();
+        double[] initialThetas = new double[numAnnotators * 2];
+        double[] initialStrategies = new double[numAnnotators * numLabels];
+        for (int a = 0; a < numAnnotators; a++) {
+            Integer stateAnnotator = stateAnnotators.get(ids.get(a));
+            int row = a * numLabels;
+
+            if (stateAnnotator == null) {
+                initialThetas[2 * a] = alpha / (alpha + beta);
+                initialThetas[2 * a + 1] = beta / (alpha + beta);
+                Arrays.fill(initialStrategies, row, row + numLabels, 1.0 / numLabels);
+            }
+            else {
+                initialThetas[2 * a] = initialState.getThetas()[stateAnnotator][0];
+                initialThetas[2 * a + 1] = initialState.getThetas()[stateAnnotator][1];
+                for (int l = 0; l < numLabels; l++) {
+                    Integer stateLabel = stateLabels.get(int2String.get(l));
+                    initialStrategies[row + l] = stateLabel != null ?
+                            initialState.getStrategies()[stateAnnotator][stateLabel] :
+                            1.0 / numLabels;
+                }
+            }
+        }
+        // new labels change the row sums
+        normalizeInPlace(initialStrategies, numLabels, 0.0);
+
+        model.initialize(initialThetas, initialStrategies);
+        if (variational) {
+            model.setPriors(alpha, beta);
+        }
+    }
+
+    /**
+     * copy a flat row-major array into a matrix
+     */
+    private static double[][] toMatrix(double[] flat, int columns)
+    {
+        double[][] result = new double[flat.length / columns][];
+        for (int i = 0; i < result.length; ++i) {
+            result[i] = Arrays.copyOfRange(flat, i * columns, (i + 1) * columns);
+        }
+        return result;
+    }
+
+    /**
+     * find best answer under the current model, ignore instance above threshold
+     *
+     * @return answer vector
+     */
+    private String[] decode(double threshold)
+    {
+        boolean[] certain = posteriorIndex.getCertainMask(threshold);
+
+        String[] result = new String[numInstances];
         for (int d = 0; d < numInstances; ++d) {
-            for (int l = 0; l < numLabels; ++l) {
-                goldLabelMarginals[d][l] = 0.0;
+            // ignore instances above threshold
+            if (certain[d])
+                result[d] = int2String.get(posteriorIndex.getBestLabel(d));
+            else
+                result[d] = "";
+        }
+
+        return result;
+    }
+
+    /**
+     * @return entropy, top-label margin and best label of each instance under the trained
+     * model, indexed for uncertainty queries
+     */
+    public PosteriorIndex getPosteriorIndex()
+    {
+        return posteriorIndex;
+    }
+
+    /**
+     * run EM with the specified parameters
+     *
+     * @param beta         beta
+     * @param numIters:    number of iterations
+     * @param smoothing:   smoothing added to expected counts before normalizing
+     * @param numRestarts: number of restarts
+     * @param controls:    control label of each instance, -1 if there is none
+     */
+    private void run(final int numIters, final double smoothing, int numRestarts,
+            final double alpha, final double beta, final boolean variational,
+            final int[] controls)
+    {
+        System.out.println("Running training with the following settings:");
+        System.out.println("\t" + numIters + " iterations");
+        System.out.println("\t" + numRestarts + " restarts");
+        System.out.println("\tsmoothing = " + smoothing);
+        if (variational) {
+            System.out.println("\talpha = " + alpha);
+            System.out.println("\tbeta = " + beta);
+        }
+        if (batchSize > 0) {
+            System.out.println("\tstochastic: batch size = " + batchSize + ", tau = " + tau
+                    + ", kappa = " + kappa);
+        }
+        if (bootstrapResamples > 0) {
+            System.out.println("\tbootstrap: " + bootstrapResamples + " resamples, "
+                    + bootstrapIterations + " iterations each");
+        }
+        if ((batchSize > 0 || heldOutFraction > 0.0 || bootstrapResamples > 0)
+                && annotationFile != null) {
+            throw new IllegalArgumentException(
+                    "stochastic training, held-out instances and bootstrap need the data in memory");
+        }
+
+        // draw the seeds of all restarts up front, so they do not depend on the scheduling
+        Random seedGenerator = seed != null ? new Random(seed) : new Random();
+        long[] seeds = new long[numRestarts];
+        for (int rr = 0; rr < numRestarts; rr++) {
+            seeds[rr] = seedGenerator.nextLong();
+        }
+
+        // hold out instances for evaluation
+        MACE heldOutData = null;
+        MACE trainingData = this;
+        int[] trainingControls = controls;
+        heldOutLogLikelihood = Double.NaN;
+        if (heldOutFraction > 0.0) {
+            int[] order = new int[numInstances];
+            for (int d = 0; d < numInstances; d++) {
+                order[d] = d;
+            }
+            shuffle(order, seedGenerator);
+            int numHeldOut = (int) Math.round(heldOutFraction * numInstances);
+            int[] heldOutInstances = Arrays.copyOfRange(order, 0, numHeldOut);
+            int[] trainingInstances = Arrays.copyOfRange(order, numHeldOut, numInstances);
+            Arrays.sort(heldOutInstances);
+            Arrays.sort(trainingInstances);
+
+            heldOutData = new MACE(this, heldOutInstances);
+            trainingData = new MACE(this, trainingInstances);
+            trainingControls = new int[trainingInstances.length];
+            for (int i = 0; i < trainingInstances.length; i++) {
+                trainingControls[i] = controls[trainingInstances[i]];
+            }
+            System.out.println("\t" + numHeldOut + " instances held out");
+        }
+        final MACE restartTrainingData = trainingData;
+        final MACE restartHeldOutData = heldOutData;
+        final int[] restartControls = trainingControls;
+
+        MACEModel bestModel = null;
+        int rrBestModelOccurredAt = 0;
+        bestFinishedLogMarginalLikelihood = Double.NEGATIVE_INFINITY;
+        final RestartStatistics[] statistics = new RestartStatistics[numRestarts];
+
+        double start = System.currentTimeMillis();
+        if (restartThreads == 1 || numRestarts == 1) {
+            for (int rr = 0; rr < numRestarts; rr++) {
+                MACEModel model = trainRestart(rr, seeds[rr], restartTrainingData,
+                        restartHeldOutData, restartControls, numIters, smoothing, alpha, beta,
+                        variational, statistics);
+
+                if (statistics[rr].getStatus() == RestartStatus.PRUNED) {
+                    continue;
+                }
+
+                if (bestModel == null
+                        || model.logMarginalLikelhood > bestModel.logMarginalLikelhood) {
+                    rrBestModelOccurredAt = rr + 1;
+                    bestModel = model;
+                }
+            }
+        }
+        else {
+            ExecutorService executor = Executors
+                    .newFixedThreadPool(Math.min(restartThreads, numRestarts));
+            try {
+                CompletionService<MACEModel> completionService = new ExecutorCompletionService<>(
+                        executor);
+                final Map<Future<MACEModel>, Integer> restartNumbers = new HashMap<>();
+                for (int rr = 0; rr < numRestarts; rr++) {
+                    final int restart = rr;
+                    final long restartSeed = seeds[rr];
+                    Future<MACEModel> future = completionService.submit(new Callable<MACEModel>()
+                    {
+                        @Override
+                        public MACEModel call()
+                        {
+                            return trainRestart(restart, restartSeed, restartTrainingData,
+                                    restartHeldOutData, restartControls, numIters, smoothing,
+                                    alpha, beta, variational, statistics);
+                        }
+                    });
+                    restartNumbers.put(future, rr);
+                }
+
+                // keep the best model only; ties go to the earlier restart as in a sequential run
+                for (int i = 0; i < numRestarts; i++) {
+                    Future<MACEModel> future = completionService.take();
+                    MACEModel model = future.get();
+                    // forget the finished restart, so that only the best model stays reachable
+                    int rr = restartNumbers.remove(future);
+
+                    if (statistics[rr].getStatus() == RestartStatus.PRUNED) {
+                        continue;
+                    }
+
+                    if (bestModel == null
+                            || model.logMarginalLikelhood > bestModel.logMarginalLikelhood
+                            || (model.logMarginalLikelhood == bestModel.logMarginalLikelhood
+                            && rr + 1 < rrBestModelOccurredAt)) {
+                        rrBestModelOccurredAt = rr + 1;
+                        bestModel = model;
+                    }
+                }
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+            catch (ExecutionException e) {
+                throw new RuntimeException(e.getCause());
+            }
+            finally {
+                executor.shutdownNow();
+            }
+        }
+
+        System.out.println(
+                "\nTraining completed in " + ((System.currentTimeMillis() - start) / 1000) + "sec");
+        System.out.println("Best model came from random restart number " + rrBestModelOccurredAt
+                + " (log marginal likelihood: " + bestModel.logMarginalLikelhood + ")");
+
+        restartStatistics = Arrays.asList(statistics);
+        printRestartStatistics();
+
+        if (heldOutData != null) {
+            heldOutLogLikelihood = evaluate(new MACEModel(heldOutData, null, null, 1, false, vectorized),
+                    bestModel);
+            System.out.println("Held-out log marginal likelihood: " + heldOutLogLikelihood);
+
+            // the model needs the marginals of all instances
+            MACEModel model = new MACEModel(this, null, forkJoinPool, numThreads, deterministic,
+                    vectorized);
+            model.initialize(bestModel.thetas, bestModel.strategies);
+            bestModel = model;
+        }
+
+        // run E-step to get marginals of latest model
+        bestModel.EStep(controls);
+
+        thetas = bestModel.thetas;
+        strategies = bestModel.strategies;
+        goldLabelMarginals = bestModel.goldLabelMarginals;
+        posteriorIndex = new PosteriorIndex(goldLabelMarginals, numInstances, numLabels);
+        logMarginalLikelhood = bestModel.logMarginalLikelhood;
+
+        competenceIntervals = null;
+        if (bootstrapResamples > 0) {
+            long[] bootstrapSeeds = new long[bootstrapResamples];
+            for (int b = 0; b < bootstrapResamples; b++) {
+                bootstrapSeeds[b] = seedGenerator.nextLong();
             }
+            competenceIntervals = bootstrap(bootstrapSeeds, controls, smoothing, alpha, beta,
+                    variational);
+        }
+    }
+
+    /**
+     * refit the trained model on bootstrap resamples and compute percentile intervals of the
+     * competences
+     *
+     * @param seeds    seed of each resample
+     * @param controls control label of each instance, -1 if there is none
+     * @return [a][2] lower and upper bound
+     */
+    private double[][] bootstrap(long[] seeds, int[] controls, double smoothing, double alpha,
+            double beta, boolean variational)
+    {
+        long start = System.currentTimeMillis();
+
+        // [b][a] competences of each refit, NaN if the annotator was not in the resample
+        double[][] samples = new double[seeds.length][];
+        ForkJoinPool pool = new ForkJoinPool(Math.min(bootstrapThreads, seeds.length));
+        try {
+            pool.invoke(new BootstrapTask(seeds, controls, smoothing, alpha, beta, variational,
+                    samples, 0, seeds.length));
+        }
+        finally {
+            pool.shutdown();
         }
+
+        // nearest-rank percentiles over the resamples that contain the annotator
+        double tail = (1.0 - bootstrapConfidence) / 2.0;
+        double[][] result = new double[numAnnotators][];
+        double[] values = new double[seeds.length];
         for (int a = 0; a < numAnnotators; ++a) {
-            knowingExpectedCounts[a][0] = 0.0;
-            knowingExpectedCounts[a][1] = 0.0;
-            for (int l = 0; l < numLabels; ++l) {
-                strategyExpectedCounts[a][l] = 0.0;
+            int n = 0;
+            for (double[] sample : samples) {
+                if (!Double.isNaN(sample[a])) {
+                    values[n++] = sample[a];
+                }
             }
+
+            if (n < 2) {
+                result[a] = new double[] { Double.NaN, Double.NaN };
+                continue;
+            }
+
+            Arrays.sort(values, 0, n);
+            int lower = (int) Math.floor(tail * (n - 1));
+            int upper = (int) Math.ceil((1.0 - tail) * (n - 1));
+            result[a] = new double[] { values[lower], values[upper] };
         }
 
-        // compute marginals
+        System.out.println("Bootstrap of " + seeds.length + " resamples completed in "
+                + ((System.currentTimeMillis() - start) / 1000.0) + "sec");
+
+        return result;
+    }
+
+    /**
+     * refits a range of resamples; splits in halves until a single resample is left, so idle
+     * workers steal the remaining halves
+     */
+    @SuppressWarnings("serial")
+    private class BootstrapTask
+            extends RecursiveAction
+    {
+        private final long[] seeds;
+        private final int[] controls;
+        private final double smoothing;
+        private final double alpha;
+        private final double beta;
+        private final boolean variational;
+        private final double[][] samples;
+        private final int from;
+        private final int to;
+
+        BootstrapTask(long[] seeds, int[] controls, double smoothing, double alpha,
+                double beta, boolean variational, double[][] samples, int from, int to)
+        {
+            this.seeds = seeds;
+            this.controls = controls;
+            this.smoothing = smoothing;
+            this.alpha = alpha;
+            this.beta = beta;
+            this.variational = variational;
+            this.samples = samples;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new BootstrapTask(seeds, controls, smoothing, alpha, beta, variational,
+                        samples, from, middle),
+                        new BootstrapTask(seeds, controls, smoothing, alpha, beta, variational,
+                                samples, middle, to));
+                return;
+            }
+
+            if (from < to) {
+                samples[from] = refit(seeds[from]);
+            }
+        }
+
+        /**
+         * @return competence of each annotator after training on one resample
+         */
+        private double[] refit(long seed)
+        {
+            // draw the instances with replacement; sorted for locality
+            Random random = new Random(seed);
+            int[] resample = new int[numInstances];
+            for (int i = 0; i < numInstances; ++i) {
+                resample[i] = random.nextInt(numInstances);
+            }
+            Arrays.sort(resample);
+
+            MACEModel model = new MACEModel(MACE.this, random, null, 1, false, vectorized);
+            model.initialize(thetas, strategies);
+            if (variational) {
+                model.setPriors(alpha, beta);
+            }
+
+            model.EStep(controls, resample, 0, numInstances);
+            for (int t = 0; t < bootstrapIterations; t++) {
+                double previousLogMarginalLikelihood = model.logMarginalLikelhood;
+
+                if (variational)
+                    model.variationalMStep();
+                else
+                    model.MStep(smoothing);
+                model.EStep(controls, resample, 0, numInstances);
+
+                if (tolerance > 0.0 && Math.abs(model.logMarginalLikelhood
+                        - previousLogMarginalLikelihood) <= tolerance * Math
+                        .abs(previousLogMarginalLikelihood)) {
+                    break;
+                }
+            }
+
+            // annotators without annotations in the resample keep the initial values
+            boolean[] present = new boolean[numAnnotators];
+            for (int d : resample) {
+                for (int k = instanceOffsets[d]; k < instanceOffsets[d + 1]; ++k) {
+                    present[annotators[k]] = true;
+                }
+            }
+
+            double[] result = new double[numAnnotators];
+            for (int a = 0; a < numAnnotators; ++a) {
+                result[a] = present[a] ? model.thetas[2 * a + 1] : Double.NaN;
+            }
+            return result;
+        }
+    }
+
+    /**
+     * train a single restart with batch EM or stochastic variational inference
+     *
+     * @param rr           restart number (for logging)
+     * @param seed         seed of the random initialization
+     * @param trainingData instances to train on
+     * @param heldOutData  held-out instances or null
+     * @param statistics   receives the statistics of this restart at position rr
+     * @return trained model
+     */
+    private MACEModel trainRestart(int rr, long seed, MACE trainingData, MACE heldOutData,
+            int[] controls, int numIters, double smoothing, double alpha, double beta,
+            boolean variational, RestartStatistics[] statistics)
+    {
+        if (batchSize > 0) {
+            return runStochasticRestart(rr, seed, trainingData, heldOutData, controls, numIters,
+                    alpha, beta, statistics);
+        }
+
+        return runRestart(rr, seed, trainingData, controls, numIters, smoothing, alpha, beta,
+                variational, statistics);
+    }
+
+    /**
+     * train a single restart from a random initialization
+     *
+     * @param rr           restart number (for logging)
+     * @param seed         seed of the random initialization
+     * @param trainingData instances to train on
+     * @param statistics   receives the statistics of this restart at position rr
+     * @return trained model
+     */
+    private MACEModel runRestart(int rr, long seed, MACE trainingData, int[] controls,
+            int numIters, double smoothing, double alpha, double beta, boolean variational,
+            RestartStatistics[] statistics)
+    {
+        long restartStart = System.currentTimeMillis();
+
+        MACEModel model = new MACEModel(trainingData, new Random(seed), forkJoinPool, numThreads,
+                deterministic, vectorized);
+
+        // initialize
+        if (initialState != null)
+            initializeFromState(model, alpha, beta, variational);
+        else if (variational)
+            model.initialize(DEFAULT_NOISE, alpha, beta);
+        else
+            model.initialize(DEFAULT_NOISE);
+
+        // run first E-Step to get counts
+        model.EStep(controls);
+        double initialLogMarginalLikelihood = model.logMarginalLikelhood;
+
+        // iterate
+        RestartStatus status = RestartStatus.COMPLETED;
+        int t = 0;
+        while (t < numIters) {
+            double previousLogMarginalLikelihood = model.logMarginalLikelhood;
+
+            if (variational)
+                model.variationalMStep();
+            else
+                model.MStep(smoothing);
+            model.EStep(controls);
+            t++;
+
+            if (tolerance > 0.0 && Math.abs(model.logMarginalLikelhood - previousLogMarginalLikelihood)
+                    <= tolerance * Math.abs(previousLogMarginalLikelihood)) {
+                status = RestartStatus.CONVERGED;
+                break;
+            }
+
+            if (pruneAfter > 0 && t >= pruneAfter && model.logMarginalLikelhood
+                    < getBestFinishedLogMarginalLikelihood() - pruneMargin) {
+                status = RestartStatus.PRUNED;
+                break;
+            }
+        }
+
+        finishRestart(rr, model, t, status, restartStart,
+                "initial log marginal likelihood = " + initialLogMarginalLikelihood + "\n",
+                statistics);
+
+        return model;
+    }
+
+    /**
+     * train a single restart with stochastic variational inference; each iteration is one
+     * pass over the shuffled training instances
+     *
+     * @param rr           restart number (for logging)
+     * @param seed         seed of the random initialization and the mini-batches
+     * @param trainingData instances to train on
+     * @param heldOutData  held-out instances, evaluated after each pass, or null
+     * @param numPasses    number of passes
+     * @param statistics   receives the statistics of this restart at position rr
+     * @return trained model
+     */
+    private MACEModel runStochasticRestart(int rr, long seed, MACE trainingData,
+            MACE heldOutData, int[] controls, int numPasses, double alpha, double beta,
+            RestartStatistics[] statistics)
+    {
+        long restartStart = System.currentTimeMillis();
 
-        logMarginalLikelhood = 0.0;
+        Random random = new Random(seed);
+        MACEModel model = new MACEModel(trainingData, random, forkJoinPool, numThreads,
+                deterministic, vectorized);
 
-        for (int d = 0; d < numInstances; ++d) {
-            double instanceMarginal = 0.0;
+        // initialize
+        if (initialState != null)
+            initializeFromState(model, alpha, beta, true);
+        else
+            model.initialize(DEFAULT_NOISE, alpha, beta);
 
-            for (int l = 0; l < numLabels; ++l) {
-                double goldLabelMarginal = (1.0 / numLabels);
-                for (int ai = 0; ai < labels[d].length; ++ai) {
-                    int a = whoLabeled[d][ai];
+        MACEModel heldOutModel = heldOutData != null ?
+                new MACEModel(heldOutData, null, null, 1, false, vectorized) :
+                null;
 
-                    goldLabelMarginal *=
-                            thetas[a][0] * strategies[a][labels[d][ai]] + (l == labels[d][ai] ?
-                                    thetas[a][1] :
-                                    0.0);
-                }
+        int numTrainingInstances = trainingData.numInstances;
+        int[] order = new int[numTrainingInstances];
+        for (int d = 0; d < numTrainingInstances; d++) {
+            order[d] = d;
+        }
 
-                if (!controls.containsKey(d) || (controls.containsKey(d) && l == controls.get(d))) {
-                    instanceMarginal += goldLabelMarginal;
-                    goldLabelMarginals[d][l] = goldLabelMarginal;
-                }
+        // iterate
+        StringBuilder passes = new StringBuilder();
+        RestartStatus status = RestartStatus.COMPLETED;
+        double previousLogMarginalLikelihood = Double.NaN;
+        long updates = 0;
+        int t = 0;
+        while (t < numPasses) {
+            shuffle(order, random);
+
+            // sum of the mini-batch likelihoods, each under the parameters at that time
+            double logMarginalLikelihood = 0.0;
+            for (int from = 0; from < numTrainingInstances; from += batchSize) {
+                int to = Math.min(from + batchSize, numTrainingInstances);
+
+                model.EStep(controls, order, from, to);
+                logMarginalLikelihood += model.logMarginalLikelhood;
+                model.stochasticVariationalMStep(Math.pow(updates + tau, -kappa),
+                        (double) numTrainingInstances / (to - from));
+                updates++;
             }
+            t++;
 
-            logMarginalLikelhood += Math.log(instanceMarginal);
-
-            for (int ai = 0; ai < labels[d].length; ++ai) {
-                int a = whoLabeled[d][ai];
-                double strategyMarginal = 0.0;
+            passes.append("pass ").append(t).append(": log marginal likelihood = ")
+                    .append(logMarginalLikelihood);
+            if (heldOutModel != null) {
+                passes.append(", held-out = ").append(evaluate(heldOutModel, model));
+            }
+            passes.append("\n");
 
-                if (controls.containsKey(d)) {
-                    if (labels[d][ai] == controls.get(d)) {
-                        {
-                            int l = controls.get(d);
-                            strategyMarginal += goldLabelMarginals[d][l] / (
-                                    thetas[a][0] * strategies[a][labels[d][ai]] + (
-                                            l == labels[d][ai] ? thetas[a][1] : 0.0));
-                        }
-                        strategyMarginal *= thetas[a][0] * strategies[a][labels[d][ai]];
-                        strategyExpectedCounts[a][labels[d][ai]] +=
-                                strategyMarginal / instanceMarginal;
-                        knowingExpectedCounts[a][0] += strategyMarginal / instanceMarginal;
-                        knowingExpectedCounts[a][1] +=
-                                (goldLabelMarginals[d][labels[d][ai]] * thetas[a][1] / (
-                                        thetas[a][0] * strategies[a][labels[d][ai]] + thetas[a][1]))
-                                        / instanceMarginal;
-                    }
-                    else {
-                        strategyExpectedCounts[a][labels[d][ai]] += 1.0;
-                        knowingExpectedCounts[a][0] += 1.0;
-                    }
-                }
-                else {
-                    for (int l = 0; l < numLabels; ++l) {
-                        strategyMarginal += goldLabelMarginals[d][l] / (
-                                thetas[a][0] * strategies[a][labels[d][ai]] + (l == labels[d][ai] ?
-                                        thetas[a][1] :
-                                        0.0));
-                    }
-                    strategyMarginal *= thetas[a][0] * strategies[a][labels[d][ai]];
-                    strategyExpectedCounts[a][labels[d][ai]] += strategyMarginal / instanceMarginal;
-                    knowingExpectedCounts[a][0] += strategyMarginal / instanceMarginal;
-                    knowingExpectedCounts[a][1] +=
-                            (goldLabelMarginals[d][labels[d][ai]] * thetas[a][1] / (
-                                    thetas[a][0] * strategies[a][labels[d][ai]] + thetas[a][1]))
-                                    / instanceMarginal;
-                }
+            if (tolerance > 0.0 && t > 1
+                    && Math.abs(logMarginalLikelihood - previousLogMarginalLikelihood)
+                    <= tolerance * Math.abs(previousLogMarginalLikelihood)) {
+                status = RestartStatus.CONVERGED;
+                break;
             }
+            previousLogMarginalLikelihood = logMarginalLikelihood;
         }
 
+        // likelihood of the final parameters, comparable with batch EM
+        model.EStep(controls);
+
+        finishRestart(rr, model, t, status, restartStart, passes.toString(), statistics);
+
+        return model;
     }
 
     /**
-     * normalize expected counts
+     * record statistics and print the log of a finished restart
+     *
+     * @param details lines printed before the final log marginal likelihood
      */
-    void MStep(double smoothing)
+    private void finishRestart(int rr, MACEModel model, int t, RestartStatus status,
+            long restartStart, String details, RestartStatistics[] statistics)
     {
-        thetas = normalize(knowingExpectedCounts, smoothing);
-        strategies = normalize(strategyExpectedCounts, smoothing);
+        if (status != RestartStatus.PRUNED) {
+            updateBestFinishedLogMarginalLikelihood(model.logMarginalLikelhood);
+        }
+
+        statistics[rr] = new RestartStatistics(rr + 1, t, System.currentTimeMillis() - restartStart,
+                status, model.logMarginalLikelhood);
+
+        // a single call, so the lines of parallel restarts do not interleave
+        System.out.println("\n============\nRestart " + (rr + 1) + "\n============\n"
+                + details
+                + "final log marginal likelihood = " + model.logMarginalLikelhood
+                + (status != RestartStatus.COMPLETED ?
+                " (" + status.toString().toLowerCase() + " after " + t + " iterations)" :
+                ""));
     }
 
     /**
-     * normalize using priors
+     * @param heldOutModel model of the held-out instances, its parameters are overwritten
+     * @param model        trained model
+     * @return log marginal likelihood of the held-out instances under the trained model
      */
-    private void variationalMStep()
+    private static double evaluate(MACEModel heldOutModel, MACEModel model)
     {
-        thetas = variationalNormalize(knowingExpectedCounts, thetaPriors);
-        strategies = variationalNormalize(strategyExpectedCounts, strategyPriors);
+        int[] noControls = new int[heldOutModel.numInstances];
+        Arrays.fill(noControls, -1);
+
+        heldOutModel.initialize(model.thetas, model.strategies);
+        heldOutModel.EStep(noControls);
+        return heldOutModel.logMarginalLikelhood;
     }
 
     /**
-     * find best answer under the current model, ignore instance above threshold
-     *
-     * @return answer vector
+     * Fisher-Yates shuffle
      */
-    private String[] decode(double threshold)
+    private static void shuffle(int[] array, Random random)
     {
-        // get entropies
-        double[] entropies = getLabelEntropies();
-        double entropyThreshold = getEntropyForThreshold(threshold);
-
-        String[] result = new String[numInstances];
-        for (int d = 0; d < numInstances; ++d) {
-            double bestProb = Double.NEGATIVE_INFINITY;
-            int bestLabel = -1;
-
-            // ignore instances above threshold
-            if (entropies[d] <= entropyThreshold) {
-                for (int l = 0; l < numLabels; ++l) {
-
-                    if (goldLabelMarginals[d][l] > bestProb) {
-                        bestProb = goldLabelMarginals[d][l];
-                        bestLabel = l;
-                    }
-                }
-                result[d] = int2String.get(bestLabel);
-            }
-            else
-                result[d] = "";
+        for (int i = array.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int swap = array[i];
+            array[i] = array[j];
+            array[j] = swap;
         }
+    }
 
-        return result;
+    private synchronized double getBestFinishedLogMarginalLikelihood()
+    {
+        return bestFinishedLogMarginalLikelihood;
+    }
+
+    private synchronized void updateBestFinishedLogMarginalLikelihood(double logMarginalLikelihood)
+    {
+        bestFinishedLogMarginalLikelihood = Math
+                .max(bestFinishedLogMarginalLikelihood, logMarginalLikelihood);
     }
 
     /**
-     * @return the entropies of each instance
+     * print iterations and wall time of each restart
      */
-    private double[] getLabelEntropies()
+    private void printRestartStatistics()
     {
-        double[] result = new double[numInstances];
-
-        for (int d = 0; d < numInstances; ++d) {
-            double norm = 0.0;
-            double entropy = 0.0;
-            for (int l = 0; l < numLabels; ++l) {
-                norm += goldLabelMarginals[d][l];
-            }
-            for (int l = 0; l < numLabels; ++l) {
-                double p = goldLabelMarginals[d][l] / norm;
-                if (p > 0.0) {
-                    entropy += -p * Math.log(p);
-                }
-            }
-            result[d] = entropy;
+        int totalIterations = 0;
+        System.out.println("\nrestart\titerations\ttime [ms]\tstatus\tlog marginal likelihood");
+        for (RestartStatistics restart : restartStatistics) {
+            totalIterations += restart.getIterations();
+            System.out.println(restart.getRestart() + "\t" + restart.getIterations() + "\t"
+                    + restart.getTimeMillis() + "\t" + restart.getStatus().toString().toLowerCase()
+                    + "\t" + restart.getLogMarginalLikelihood());
         }
+        System.out.println("Total " + totalIterations + " iterations");
+    }
 
-        return result;
+    /**
+     * how a restart ended
+     */
+    public enum RestartStatus
+    {
+        /**
+         * ran all iterations
+         */
+        COMPLETED,
+        /**
+         * the log marginal likelihood changed less than the tolerance
+         */
+        CONVERGED,
+        /**
+         * trailed the best finished restart
+         */
+        PRUNED
     }
 
     /**
-     * run EM with the specified parameters
-     *
-     * @param beta         beta
-     * @param numIters:    number of iterations
-     * @param smoothing:   smoothing added to expected counts before normalizing
-     * @param numRestarts: number of restarts
-     * @throws IOException exception
+     * iterations, wall time, and outcome of a single restart
      */
-    private void run(int numIters, double smoothing, int numRestarts, double alpha, double beta,
-            boolean variational, String controlsFile)
-            throws
-            IOException
+    public static class RestartStatistics
     {
-        Map<Integer, Integer> controls;
-        if (controlsFile != null) {
-            controls = this.readControls(controlsFile);
-        }
-        else {
-            controls = new HashMap<>();
+        private final int restart;
+        private final int iterations;
+        private final long timeMillis;
+        private final RestartStatus status;
+        private final double logMarginalLikelihood;
+
+        public RestartStatistics(int restart, int iterations, long timeMillis,
+                RestartStatus status, double logMarginalLikelihood)
+        {
+            this.restart = restart;
+            this.iterations = iterations;
+            this.timeMillis = timeMillis;
+            this.status = status;
+            this.logMarginalLikelihood = logMarginalLikelihood;
         }
 
-        double[][] bestThetas = new double[numAnnotators][2];
-        double[][] bestStrategies = new double[numAnnotators][numLabels];
-        double bestLogMarginalLikelihood = Double.NEGATIVE_INFINITY;
-        int rrBestModelOccurredAt = 0;
-
-        System.out.println("Running training with the following settings:");
-        System.out.println("\t" + numIters + " iterations");
-        System.out.println("\t" + numRestarts + " restarts");
-        System.out.println("\tsmoothing = " + smoothing);
-        if (variational) {
-            System.out.println("\talpha = " + alpha);
-            System.out.println("\tbeta = " + beta);
+        public int getRestart()
+        {
+            return restart;
         }
 
-        double start = System.currentTimeMillis();
-        for (int rr = 0; rr < numRestarts; rr++) {
-            System.out.println("\n============");
-            System.out.println("Restart " + (rr + 1));
-            System.out.println("============");
-
-            // initialize
-            if (variational)
-                initialize(DEFAULT_NOISE, alpha, beta);
-            else
-                initialize(DEFAULT_NOISE);
-
-            // run first E-Step to get counts
-            EStep(controls);
-            System.out.println("initial log marginal likelihood = " + logMarginalLikelhood);
-
-            // iterate
-            for (int t = 0; t < numIters; ++t) {
-                if (variational)
-                    variationalMStep();
-                else
-                    MStep(smoothing);
-                EStep(controls);
-                //System.out.println("iter "+t);
-                //System.out.println("log marginal likelihood "+logMarginalLikelhood);
-            }
-            System.out.println("final log marginal likelihood = " + logMarginalLikelhood);
-
-            // renormalize thetas
-            //normalizeInPlace(thetas, 0.0);
-            //normalizeInPlace(strategies, 0.0);
+        public int getIterations()
+        {
+            return iterations;
+        }
 
-            if (logMarginalLikelhood > bestLogMarginalLikelihood) {
-                //if (rr>0) System.out.println("NEW BEST MODEL!\n");
-                rrBestModelOccurredAt = rr + 1;
-                bestLogMarginalLikelihood = logMarginalLikelhood;
-                bestThetas = thetas.clone();
-                bestStrategies = strategies.clone();
-            }
+        public long getTimeMillis()
+        {
+            return timeMillis;
         }
-        System.out.println(
-                "\nTraining completed in " + ((System.currentTimeMillis() - start) / 1000) + "sec");
-        System.out.println("Best model came from random restart number " + rrBestModelOccurredAt
-                + " (log marginal likelihood: " + bestLogMarginalLikelihood + ")");
-        logMarginalLikelhood = bestLogMarginalLikelihood;
-        thetas = bestThetas;
-        strategies = bestStrategies;
 
-        // run E-step to get marginals of latest model
-        EStep(controls);
+        public RestartStatus getStatus()
+        {
+            return status;
+        }
 
+        public double getLogMarginalLikelihood()
+        {
+            return logMarginalLikelihood;
+        }
     }
 
     /**
@@ -617,6 +1680,133 @@ public class MACE
         }
     }
 
+    /**
+     * normalize a flat row-major matrix by row into an existing array
+     *
+     * @param columns number of columns
+     * @param result  normalized matrix, same size as mat
+     */
+    public static void normalize(double[] mat, int columns, double smoothing, double[] result)
+    {
+        for (int row = 0; row < mat.length; row += columns) {
+            double norm = 0.0;
+            for (int j = row; j < row + columns; ++j) {
+                norm += mat[j] + smoothing;
+            }
+            if (norm > 0.0) {
+                for (int j = row; j < row + columns; ++j) {
+                    result[j] = (mat[j] + smoothing) / norm;
+                }
+            }
+            else {
+                Arrays.fill(result, row, row + columns, 0.0);
+            }
+        }
+    }
+
+    /**
+     * same as {@link #normalize(double[], int, double, double[])}, but multiplies with the
+     * reciprocal of the row sum; the last bits may differ
+     */
+    public static void normalizeVectorized(double[] mat, int columns, double smoothing,
+            double[] result)
+    {
+        for (int row = 0; row < mat.length; row += columns) {
+            double norm = 0.0;
+            for (int j = row; j < row + columns; ++j) {
+                norm += mat[j] + smoothing;
+            }
+            if (norm > 0.0) {
+                double reciprocal = 1.0 / norm;
+                for (int j = row; j < row + columns; ++j) {
+                    result[j] = (mat[j] + smoothing) * reciprocal;
+                }
+            }
+            else {
+                Arrays.fill(result, row, row + columns, 0.0);
+            }
+        }
+    }
+
+    /**
+     * normalize a flat row-major matrix by row using hyperparameters, into an existing array
+     *
+     * @param hyperparameters flat matrix with the priors
+     * @param columns         number of columns
+     * @param result          normalized matrix, same size as mat
+     */
+    public static void variationalNormalize(double[] mat, double[] hyperparameters, int columns,
+            double[] result)
+    {
+        for (int row = 0; row < mat.length; row += columns) {
+            double norm = 0.0;
+            for (int j = row; j < row + columns; ++j) {
+                norm += mat[j] + hyperparameters[j];
+            }
+            norm = Math.exp(digamma(norm));
+            if (norm > 0.0) {
+                for (int j = row; j < row + columns; ++j) {
+                    result[j] = Math.exp(digamma((mat[j] + hyperparameters[j]))) / norm;
+                }
+            }
+            else {
+                Arrays.fill(result, row, row + columns, 0.0);
+            }
+        }
+    }
+
+    /**
+     * same as {@link #variationalNormalize(double[], double[], int, double[])}, but evaluates
+     * the digamma function over whole arrays (see {@link #digamma(double[], double[], int, int)})
+     *
+     * @param rowNorms scratch array with one element per row
+     */
+    public static void variationalNormalizeVectorized(double[] mat, double[] hyperparameters,
+            int columns, double[] result, double[] rowNorms)
+    {
+        int rows = mat.length / columns;
+        for (int j = 0; j < mat.length; ++j) {
+            result[j] = mat[j] + hyperparameters[j];
+        }
+        for (int i = 0; i < rows; ++i) {
+            double norm = 0.0;
+            for (int j = i * columns; j < (i + 1) * columns; ++j) {
+                norm += result[j];
+            }
+            rowNorms[i] = norm;
+        }
+
+        digamma(result, result, 0, mat.length);
+        digamma(rowNorms, rowNorms, 0, rows);
+
+        // exp(digamma(x)) / exp(digamma(norm)), without underflow of the denominator
+        for (int i = 0; i < rows; ++i) {
+            double norm = rowNorms[i];
+            for (int j = i * columns; j < (i + 1) * columns; ++j) {
+                result[j] = Math.exp(result[j] - norm);
+            }
+        }
+    }
+
+    /**
+     * normalize a flat row-major matrix by row, in place
+     *
+     * @param columns number of columns
+     */
+    public static void normalizeInPlace(double[] mat, int columns, double smoothing)
+    {
+        for (int row = 0; row < mat.length; row += columns) {
+            double norm = 0.0;
+            for (int j = row; j < row + columns; ++j) {
+                norm += mat[j] + smoothing;
+            }
+            for (int j = row; j < row + columns; ++j) {
+                if (norm > 0.0)
+                    mat[j] = (mat[j] + smoothing) / norm;
+            }
+        }
+    }
+
     /**
      * read in a file with control items
      *
@@ -662,6 +1852,78 @@ public class MACE
 
     }
 
+    /**
+     * read in a file with control items
+     *
+     * @return control label of each instance, -1 if there is none
+     * @throws IOException
+     */
+    private int[] readControlArray(String fileName)
+            throws IOException
+    {
+        int[] controls = new int[numInstances];
+        Arrays.fill(controls, -1);
+        if (fileName != null) {
+            for (Map.Entry<Integer, Integer> control : this.readControls(fileName).entrySet()) {
+                if (control.getKey() < numInstances) {
+                    // readControls() adds unknown labels after the annotation labels
+                    if (control.getValue() >= numLabels) {
+                        throw new IllegalArgumentException("control label "
+                                + int2String.get(control.getValue()) + " of instance "
+                                + control.getKey() + " is not among the labels");
+                    }
+                    controls[control.getKey()] = control.getValue();
+                }
+            }
+        }
+        return controls;
+    }
+
+    /**
+     * @param labels control label of each instance; null, a null array element, or an empty
+     *               string mean no control
+     * @return control label of each instance, -1 if there is none
+     * @throws IllegalArgumentException if a control label is not one of the labels
+     */
+    private int[] getControlArray(String[] labels)
+    {
+        int[] controls = new int[numInstances];
+        Arrays.fill(controls, -1);
+        if (labels != null) {
+            if (labels.length != numInstances) {
+                throw new IllegalArgumentException("number of controls (" + labels.length
+                        + ") does not match number of instances (" + numInstances + ")");
+            }
+            for (int d = 0; d < numInstances; d++) {
+                if (labels[d] != null && !labels[d].trim().isEmpty()) {
+                    String label = labels[d].trim();
+                    Integer id = string2Int.get(label);
+                    if (id == null || id >= numLabels) {
+                        throw new IllegalArgumentException(
+                                "control label " + label + " of instance " + d
+                                        + " is not among the labels");
+                    }
+                    controls[d] = id;
+                }
+            }
+        }
+        return controls;
+    }
+
+    /**
+     * @return id of the label, a new id is assigned if the label was not seen yet
+     */
+    private int hashLabel(String label)
+    {
+        Integer id = string2Int.get(label);
+        if (id == null) {
+            id = hashCounter++;
+            string2Int.put(label, id);
+            int2String.add(label);
+        }
+        return id;
+    }
+
     /**
      * read CSV file and record data
      *
@@ -680,11 +1942,30 @@ public class MACE
      */
     public void readFileData(BufferedReader bufferedReader)
             throws IOException
+    {
+        readFileData(bufferedReader, null);
+    }
+
+    /**
+     * read CSV file and record data
+     *
+     * @param tripleOutput if not null, the annotations are written to this stream as
+     *                     (instance, annotator, label) triples instead of being kept in memory
+     * @throws IOException
+     */
+    private void readFileData(BufferedReader bufferedReader, DataOutputStream tripleOutput)
+            throws IOException
     {
         String line;
 
         System.out.println("Reading CSV file");
 
+        // CSR arrays, grown as needed
+        int[] offsets = new int[1024];
+        int[] annotatorBuffer = new int[4096];
+        int[] labelBuffer = new int[4096];
+        int numAnnotations = 0;
+
         int lineNumber = 0;
         while ((line = bufferedReader.readLine()) != null) {
             if (lineNumber > 0) {
@@ -694,8 +1975,12 @@ public class MACE
                     System.out.println(lineNumber);
             }
 
-            List<Integer> annotatorsOnItem = new ArrayList<>();
-            List<Integer> itemValues = new ArrayList<>();
+            if (tripleOutput == null) {
+                if (lineNumber + 1 >= offsets.length) {
+                    offsets = Arrays.copyOf(offsets, 2 * offsets.length);
+                }
+                offsets[lineNumber] = numAnnotations;
+            }
 
             // split into items
             StringBuilder token = new StringBuilder("");
@@ -719,15 +2004,29 @@ public class MACE
                     // record item
                     if (!item.equals("")) {
 
-                        // record which annotator gave an answer
-                        annotatorsOnItem.add(annotatorNumber);
-
                         // record value
                         if (!string2Int.containsKey(item)) {
                             string2Int.put(item, hashCounter++);
                             int2String.add(item);
                         }
-                        itemValues.add(string2Int.get(item));
+
+                        if (tripleOutput != null) {
+                            tripleOutput.writeInt(lineNumber);
+                            tripleOutput.writeInt(annotatorNumber);
+                            tripleOutput.writeInt(string2Int.get(item));
+                        }
+                        else {
+                            if (numAnnotations == annotatorBuffer.length) {
+                                annotatorBuffer = Arrays.copyOf(annotatorBuffer,
+                                        2 * annotatorBuffer.length);
+                                labelBuffer = Arrays.copyOf(labelBuffer, 2 * labelBuffer.length);
+                            }
+
+                            // record which annotator gave an answer
+                            annotatorBuffer[numAnnotations] = annotatorNumber;
+                            labelBuffer[numAnnotations] = string2Int.get(item);
+                        }
+                        numAnnotations++;
                     }
 
                 }
@@ -747,18 +2046,21 @@ public class MACE
             }
             this.numAnnotators = annotatorNumber + 1;
 
-            // store as int[][]
-            labels[lineNumber] = toIntArray(itemValues);
-            whoLabeled[lineNumber] = toIntArray(annotatorsOnItem);
-
             lineNumber++;
         }// while there are lines left
 
+        this.numInstances = lineNumber;
+        if (tripleOutput == null) {
+            offsets[lineNumber] = numAnnotations;
+            this.instanceOffsets = Arrays.copyOf(offsets, lineNumber + 1);
+            this.annotators = Arrays.copyOf(annotatorBuffer, numAnnotations);
+            this.annotationLabels = Arrays.copyOf(labelBuffer, numAnnotations);
+        }
+
         System.out.println(
                 "\nstats:\n\t" + lineNumber + " instances,\n\t" + int2String.size() + " labels "
                         + int2String + ",\n\t" + numAnnotators + " annotators\n");
 
-        //printIntArray(whoLabeled);
 
     }
 
@@ -855,28 +2157,14 @@ public class MACE
     }
 
     /**
-     * sort entropies, get value corresponding to n
+     * get the entropy value corresponding to n, see {@link PosteriorIndex#getEntropyForThreshold(double)}
      *
      * @return the entropy value at n% of the entropy values
      */
 
     public double getEntropyForThreshold(double threshold)
     {
-        double result;
-        int pivot;
-
-        if (threshold == 0.0)
-            pivot = 0;
-        else if (threshold == 1.0)
-            pivot = numInstances - 1;
-        else
-            pivot = (int) (numInstances * threshold);
-
-        double[] entropyArray = getLabelEntropies();
-        Arrays.sort(entropyArray);
-        result = entropyArray[pivot];
-
-        return result;
+        return posteriorIndex.getEntropyForThreshold(threshold);
     }
 
     /**
@@ -943,30 +2231,84 @@ public class MACE
         System.out.println(
                 "\t--beta <FLOAT>:\t\tsecond hyper-parameter of beta prior that controls whether an annotator knows or guesses. Default:"
                         + MACE.DEFAULT_BETA + "\n");
+        System.out.println(
+                "\t--binary <FILE>:\tconvert the CSV file into a binary file of annotations that is streamed from\n"
+                        +
+                        "\t\t\t\tdisk in each iteration instead of being kept in memory. Same results,\n"
+                        +
+                        "\t\t\t\tbut --threads is ignored.\n");
+        System.out.println(
+                "\t--bootstrap <INT>:\trefit the trained model on this many resamples of the items (on\n"
+                        +
+                        "\t\t\t\t--bootstrapThreads threads) and write 95% intervals of the competences to\n"
+                        +
+                        "\t\t\t\t'[prefix.]intervals' as 'lower,upper' per annotator. Default: 0\n");
+        System.out.println(
+                "\t--bootstrapThreads <N>:\tnumber of bootstrap refits run in parallel. Default: number of\n"
+                        +
+                        "\t\t\t\tavailable processors\n");
         System.out.println(
                 "\t--entropies:\t\twrite the entropy of each instance to a separate file '[prefix.]entropy'\n");
+        System.out.println(
+                "\t--deterministic:\tmake the parallel E-step (see --threads) produce exactly the same\n"
+                        +
+                        "\t\t\t\tresults as the sequential one. Needs additional memory for each annotation.\n");
+        System.out.println(
+                "\t--heldOut <0.0-1.0>:\thold out this fraction of the items from training and report the\n"
+                        +
+                        "\t\t\t\tlog marginal likelihood of their annotations. Default: 0.0\n");
         System.out.println("\t--help:\t\t\tdisplay this information\n");
         System.out.println(
                 "\t--iterations <1-1000>:\tnumber of iterations for each EM start. Default: "
                         + MACE.DEFAULT_ITERATIONS + "\n");
+        System.out.println(
+                "\t--kappa <0.5-1.0>:\tforgetting rate of the step size of --stochastic. Default: 0.7\n");
+        System.out.println(
+                "\t--pruneAfter <N>:\tstop restarts that trail the best finished restart after N iterations\n"
+                        +
+                        "\t\t\t\t(see --pruneMargin). Default: 0 (no pruning)\n");
+        System.out.println(
+                "\t--pruneMargin <FLOAT>:\tlog marginal likelihood by which a restart may trail the best one\n"
+                        +
+                        "\t\t\t\tbefore it is pruned. Default: 0.0\n");
         System.out.println("\t--prefix <STRING>:\tprefix used for output files.\n");
+        System.out.println(
+                "\t--restartThreads <N>:\tnumber of restarts trained in parallel. Default: 1\n");
         System.out.println("\t--restarts <1-1000>:\tnumber of random restarts to perform. Default: "
                 + MACE.DEFAULT_RR + "\n");
+        System.out.println(
+                "\t--seed <LONG>:\t\tseed for the random initialization of the restarts.\n");
         System.out.println(
                 "\t--smoothing <0.0-1.0>:\tsmoothing added to fractional counts before normalization.\n"
                         +
                         "\t\t\t\tHigher values mean smaller changes. Default: 0.01/|values|\n");
+        System.out.println(
+                "\t--stochastic <N>:\tstochastic variational training on mini-batches of N items; each iteration\n"
+                        +
+                        "\t\t\t\tis one pass over the data. Implies the beta prior (see --alpha).\n");
+        System.out.println(
+                "\t--tau <FLOAT>:\t\tdelay (> 0) of the step size (t + tau)^-kappa of --stochastic. Default: 1.0\n");
         System.out.println(
                 "\t--test <FILE>:\t\tsupply a test file. Each line corresponds to one item in the CSV file,\n"
                         +
                         "\t\t\t\tso the number of lines must match. If a test file is supplied,\n" +
                         "\t\t\t\tMACE outputs the accuracy of the predictions\n");
+        System.out.println(
+                "\t--tolerance <FLOAT>:\tstop a restart when the relative change of the log marginal likelihood\n"
+                        +
+                        "\t\t\t\tis below this value. Default: 0.0 (run all iterations)\n");
+        System.out.println(
+                "\t--threads <N>:\t\tnumber of threads for the E-step. Default: 1\n");
         System.out.println(
                 "\t--threshold <0.0-1.0>:\tonly predict the label for instances whose entropy is among the top n%, ignore others.\n"
                         +
                         "\t\t\t\tThus '--threshold 0.0' will ignore all instances, '--threshold 1.0' includes all.\n"
                         +
                         "\t\t\t\tThis improves accuracy at the expense of coverage. Default: 1.0\n");
+        System.out.println(
+                "\t--vectorized:\t\tuse inner loops that the JIT compiler can vectorize. Faster with many\n"
+                        +
+                        "\t\t\t\tlabels, but results may differ from the default kernel in the last digits.\n");
 
         System.out.println();
         System.out.println("To cite MACE in publications, please refer to:");
@@ -999,7 +2341,15 @@ public class MACE
 
             int numberOfArgs = args.length;
             String file = args[numberOfArgs - 1];
-            em = new MACE(file);
+
+            // the binary file replaces the in-memory data, so it must be known before reading
+            String binaryFile = null;
+            for (int i = 0; i < numberOfArgs - 2; i++) {
+                if (args[i].equals("--binary")) {
+                    binaryFile = args[i + 1];
+                }
+            }
+            em = binaryFile != null ? new MACE(file, new File(binaryFile)) : new MACE(file);
 
             // default settings
             int iterations = MACE.DEFAULT_ITERATIONS;
@@ -1013,6 +2363,20 @@ public class MACE
             boolean variational = false;
             double alpha = MACE.DEFAULT_ALPHA;
             double beta = MACE.DEFAULT_BETA;
+            int threads = 1;
+            boolean deterministic = false;
+            int restartThreads = 1;
+            Long seed = null;
+            double tolerance = 0.0;
+            int pruneAfter = 0;
+            double pruneMargin = 0.0;
+            int batchSize = 0;
+            double tau = 1.0;
+            double kappa = 0.7;
+            double heldOut = 0.0;
+            boolean vectorized = false;
+            int bootstrap = 0;
+            int bootstrapThreads = Runtime.getRuntime().availableProcessors();
 
             String outputPredictions = null;
             String outputCompetence = null;
@@ -1083,13 +2447,89 @@ public class MACE
                 else if (arg.equals("--outputCompetence")) {
                     outputCompetence = args[++i];
                 }
+                else if (arg.equals("--threads")) {
+                    threads = Integer.valueOf(args[++i]);
+                    if (threads < 1)
+                        throw new IllegalArgumentException("threads less than 1");
+                }
+                else if (arg.equals("--deterministic")) {
+                    deterministic = true;
+                }
+                else if (arg.equals("--binary")) {
+                    // already processed
+                    i++;
+                }
+                else if (arg.equals("--restartThreads")) {
+                    restartThreads = Integer.valueOf(args[++i]);
+                    if (restartThreads < 1)
+                        throw new IllegalArgumentException("restartThreads less than 1");
+                }
+                else if (arg.equals("--seed")) {
+                    seed = Long.valueOf(args[++i]);
+                }
+                else if (arg.equals("--tolerance")) {
+                    tolerance = Double.valueOf(args[++i]);
+                    if (tolerance < 0.0)
+                        throw new IllegalArgumentException("tolerance less than 0.0");
+                }
+                else if (arg.equals("--pruneAfter")) {
+                    pruneAfter = Integer.valueOf(args[++i]);
+                    if (pruneAfter < 0)
+                        throw new IllegalArgumentException("pruneAfter less than 0");
+                }
+                else if (arg.equals("--pruneMargin")) {
+                    pruneMargin = Double.valueOf(args[++i]);
+                    if (pruneMargin < 0.0)
+                        throw new IllegalArgumentException("pruneMargin less than 0.0");
+                }
+                else if (arg.equals("--stochastic")) {
+                    batchSize = Integer.valueOf(args[++i]);
+                    if (batchSize < 1)
+                        throw new IllegalArgumentException("batch size less than 1");
+                    variational = true;
+                }
+                else if (arg.equals("--tau")) {
+                    tau = Double.valueOf(args[++i]);
+                    if (tau <= 0.0)
+                        throw new IllegalArgumentException("tau not greater than 0.0");
+                }
+                else if (arg.equals("--kappa")) {
+                    kappa = Double.valueOf(args[++i]);
+                }
+                else if (arg.equals("--heldOut")) {
+                    heldOut = Double.valueOf(args[++i]);
+                }
+                else if (arg.equals("--vectorized")) {
+                    vectorized = true;
+                }
+                else if (arg.equals("--bootstrap")) {
+                    bootstrap = Integer.valueOf(args[++i]);
+                }
+                else if (arg.equals("--bootstrapThreads")) {
+                    bootstrapThreads = Integer.valueOf(args[++i]);
+                    if (bootstrapThreads < 1)
+                        throw new IllegalArgumentException("bootstrapThreads less than 1");
+                }
                 else {
                     throw new IllegalArgumentException("argument '" + arg + "' not recognized");
                 }
             }
 
             // run with configuration
-            em.run(iterations, smoothing, restarts, alpha, beta, variational, controls);
+            em.setParallelism(threads, deterministic);
+            em.setRestartThreads(restartThreads);
+            if (seed != null) {
+                em.setSeed(seed);
+            }
+            em.setTolerance(tolerance);
+            em.setPruning(pruneAfter, pruneMargin);
+            em.setStochastic(batchSize, tau, kappa);
+            em.setHeldOut(heldOut);
+            em.setVectorized(vectorized);
+            em.setBootstrap(bootstrap, iterations, 0.95);
+            em.setBootstrapThreads(bootstrapThreads);
+            em.run(iterations, smoothing, restarts, alpha, beta, variational,
+                    em.readControlArray(controls));
 
             // write results to files
             // generate predictions
@@ -1103,7 +2543,7 @@ public class MACE
             // generate competence scores
             Object[] competence = new Object[em.numAnnotators];
             for (int i = 0; i < em.numAnnotators; i++) {
-                competence[i] = em.thetas[i][1];
+                competence[i] = em.getCompetence(i);
             }
             String competenceName = prefix == null ? "competence" : prefix + ".competence";
             if (outputCompetence != null) {
@@ -1111,12 +2551,22 @@ public class MACE
             }
             em.writeArrayToFile(competence, competenceName, "\t");
 
+            // generate competence intervals
+            double[][] intervals = em.getCompetenceIntervals();
+            if (intervals != null) {
+                Object[] interval = new Object[em.numAnnotators];
+                for (int i = 0; i < em.numAnnotators; i++)
+                    interval[i] = intervals[i][0] + "," + intervals[i][1];
+                String intervalName = prefix == null ? "intervals" : prefix + ".intervals";
+                em.writeArrayToFile(interval, intervalName, "\t");
+            }
+
             // generate entropies
             if (entropies) {
                 Object[] entropy = new Object[em.numInstances];
-                double[] entropyArray = em.getLabelEntropies();
-                for (int i = 0; i < em.numAnnotators; i++)
-                    entropy[i] = entropyArray[i];
+                PosteriorIndex posteriors = em.getPosteriorIndex();
+                for (int i = 0; i < em.numInstances; i++)
+                    entropy[i] = posteriors.getEntropy(i);
                 String entropyName = prefix == null ? "entropies" : prefix + ".entropies";
                 em.writeArrayToFile(entropy, entropyName, "\n");
             }
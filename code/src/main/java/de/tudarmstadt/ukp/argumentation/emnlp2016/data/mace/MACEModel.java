@@ -0,0 +1,670 @@
+/*
+***************************************************************************
+NTP License
+https://opensource.org/licenses/NTP
+      USC/ISI MACE Multi-Annotator Competence Estimation
+      USC Information Sciences Institute
+      4676 Admiralty Way
+      Marina del Rey, CA 90292-6695
+      USA
+      Original Version: Natural Language Group, April 2013
+      Current Version:  Natural Language Group, April 2013
+  Copyright (c) 2013 by the University of Southern California
+  All rights reserved.
+  Permission to use, copy, modify, and distribute this software and its
+  documentation in source and binary forms for any purpose and without
+  fee is hereby granted, provided that both the above copyright notice
+  and this permission notice appear in all copies, and that any
+  documentation, advertising materials, and other materials related to
+  such distribution and use acknowledge that the software was developed
+  in part by the University of Southern California, Information
+  Sciences Institute.  The name of the University may not be used to
+  endorse or promote products derived from this software without
+  specific prior written permission.
+  THE UNIVERSITY OF SOUTHERN CALIFORNIA makes no representations about
+  the suitability of this software for any purpose.  THIS SOFTWARE IS
+  PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED WARRANTIES,
+  INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF
+  MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+  Other copyrights might apply to parts of this software and are so
+  noted when applicable.
+***************************************************************************
+*/
+package de.tudarmstadt.ukp.argumentation.emnlp2016.data.mace;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Mutable EM state of a single MACE restart (parameters, expected counts, marginals). The
+ * training data are shared with the {@link MACE} instance, so several models can be trained
+ * in parallel.
+ * <p>
+ * All matrices are flat row-major arrays that are allocated once and updated in place, i.e.
+ * {@code thetas[a * 2 + k]}, {@code strategies[a * numLabels + l]} and
+ * {@code goldLabelMarginals[d * numLabels + l]}.
+ */
+class MACEModel
+{
+    // number of instances per fork/join leaf task in the parallel E-step
+    private static final int E_STEP_CHUNK_SIZE = 256;
+
+    // fields
+    final int numInstances;
+    final int numAnnotators;
+    final int numLabels;
+
+    // training data in CSR layout, shared
+    // [d] annotations of instance d are at [instanceOffsets[d], instanceOffsets[d + 1])
+    final int[] instanceOffsets;
+    // [k]
+    final int[] annotators;
+    // [k]
+    final int[] annotationLabels;
+
+    // training data streamed from disk instead (null if in memory)
+    private final AnnotationFile annotationFile;
+    // annotations of the current instance when streaming
+    private final int[] instanceAnnotators;
+    private final int[] instanceLabels;
+
+    // parameters
+    // [a][2]
+    final double[] thetas;
+    // [a][l]
+    final double[] strategies;
+
+    // expected counts
+    // [d][l]
+    final double[] goldLabelMarginals;
+    // [a][l]
+    final double[] strategyExpectedCounts;
+    // [a][2]
+    final double[] knowingExpectedCounts;
+
+    // priors
+    double[] thetaPriors;
+
+    double[] strategyPriors;
+
+    double logMarginalLikelhood;
+
+    private final Random random;
+
+    // parallel E-step
+    private final ForkJoinPool forkJoinPool;
+    private final int numThreads;
+    private final boolean deterministic;
+
+    // kernel shaped for auto-vectorization, see MACE#setVectorized(boolean)
+    private final boolean vectorized;
+    // [a] scratch for the vectorized variational M-step
+    private final double[] rowNorms;
+
+    // deterministic mode: per-instance and per-annotation contributions, summed up in order
+    // [d]
+    private double[] stagedLogMarginals;
+    // [k] strategy count, knowing count, not-guessing count
+    private double[] stagedCounts;
+
+    // fast mode: one accumulator per block of instances, reduced in block order
+    // [b][a][l]
+    private double[][] blockStrategyCounts;
+    // [b][a][2]
+    private double[][] blockKnowingCounts;
+    // [b]
+    private double[] blockLogMarginals;
+
+    // stochastic variational inference: expected counts scaled to the whole data set and
+    // averaged over the mini-batches with decaying weights
+    // [a][2]
+    private double[] scaledKnowingCounts;
+    // [a][l]
+    private double[] scaledStrategyCounts;
+
+    /**
+     * @param data          training data
+     * @param random        random generator used for initialization
+     * @param forkJoinPool  pool for the parallel E-step or null
+     * @param numThreads    parallelism of the pool
+     * @param deterministic see {@link MACE#setParallelism(int, boolean)}
+     * @param vectorized    see {@link MACE#setVectorized(boolean)}
+     */
+    MACEModel(MACE data, Random random, ForkJoinPool forkJoinPool, int numThreads,
+            boolean deterministic, boolean vectorized)
+    {
+        this.numInstances = data.numInstances;
+        this.numAnnotators = data.numAnnotators;
+        this.numLabels = data.numLabels;
+        this.instanceOffsets = data.instanceOffsets;
+        this.annotators = data.annotators;
+        this.annotationLabels = data.annotationLabels;
+        this.annotationFile = data.annotationFile;
+        this.instanceAnnotators = annotationFile != null ? new int[numAnnotators] : null;
+        this.instanceLabels = annotationFile != null ? new int[numAnnotators] : null;
+
+        this.random = random;
+        this.forkJoinPool = forkJoinPool;
+        this.numThreads = numThreads;
+        this.deterministic = deterministic;
+        this.vectorized = vectorized;
+        this.rowNorms = vectorized ? new double[numAnnotators] : null;
+
+        this.thetas = new double[numAnnotators * 2];
+        this.strategies = new double[numAnnotators * numLabels];
+        this.goldLabelMarginals = new double[numInstances * numLabels];
+        this.strategyExpectedCounts = new double[numAnnotators * numLabels];
+        this.knowingExpectedCounts = new double[numAnnotators * 2];
+    }
+
+    /**
+     * initialize model parameters randomly
+     */
+    void initialize(double initNoise)
+    {
+        for (int a = 0; a < numAnnotators; ++a) {
+            thetas[2 * a] = 1.0 + initNoise * random.nextDouble();
+            thetas[2 * a + 1] = 1.0 + initNoise * random.nextDouble();
+            int row = a * numLabels;
+            for (int l = 0; l < numLabels; ++l) {
+                strategies[row + l] = 1.0 + initNoise * random.nextDouble();
+            }
+        }
+        MACE.normalizeInPlace(thetas, 2, 0.0);
+        MACE.normalizeInPlace(strategies, numLabels, 0.0);
+    }
+
+    /**
+     * initialize and set prior matrices
+     */
+    void initialize(double initNoise, double alpha, double beta)
+    {
+        this.initialize(initNoise);
+        this.setPriors(alpha, beta);
+    }
+
+    /**
+     * initialize model parameters with the given values (warm start)
+     *
+     * @param initialThetas     [a][2]
+     * @param initialStrategies [a][l]
+     */
+    void initialize(double[] initialThetas, double[] initialStrategies)
+    {
+        System.arraycopy(initialThetas, 0, thetas, 0, thetas.length);
+        System.arraycopy(initialStrategies, 0, strategies, 0, strategies.length);
+    }
+
+    /**
+     * set prior matrices
+     */
+    void setPriors(double alpha, double beta)
+    {
+        this.thetaPriors = new double[numAnnotators * 2];
+        this.strategyPriors = new double[numAnnotators * numLabels];
+        for (int a = 0; a < numAnnotators; ++a) {
+            thetaPriors[2 * a] = alpha;
+            thetaPriors[2 * a + 1] = beta;
+        }
+        Arrays.fill(strategyPriors, 10.0);
+    }
+
+    /**
+     * compute expected counts when control items are provided
+     *
+     * @param controls control label of each instance, -1 if there is none
+     */
+    void EStep(int[] controls)
+    {
+        if (annotationFile != null) {
+            streamingEStep(controls);
+            return;
+        }
+
+        if (forkJoinPool != null) {
+            parallelEStep(controls);
+            return;
+        }
+
+        // reset counts
+        Arrays.fill(strategyExpectedCounts, 0.0);
+        Arrays.fill(knowingExpectedCounts, 0.0);
+
+        // compute marginals
+        logMarginalLikelhood = 0.0;
+
+        for (int d = 0; d < numInstances; ++d) {
+            double instanceMarginal = eStepInstance(d, controls[d], annotators, annotationLabels,
+                    instanceOffsets[d], instanceOffsets[d + 1], strategyExpectedCounts,
+                    knowingExpectedCounts);
+
+            logMarginalLikelhood += Math.log(instanceMarginal);
+        }
+    }
+
+    /**
+     * E-step on a mini-batch: expected counts and log marginal likelihood of the given
+     * instances only
+     *
+     * @param controls  control label of each instance, -1 if there is none
+     * @param instances instance numbers, the mini-batch is [from, to)
+     */
+    void EStep(int[] controls, int[] instances, int from, int to)
+    {
+        // reset counts
+        Arrays.fill(strategyExpectedCounts, 0.0);
+        Arrays.fill(knowingExpectedCounts, 0.0);
+
+        // compute marginals
+        logMarginalLikelhood = 0.0;
+
+        for (int i = from; i < to; ++i) {
+            int d = instances[i];
+            double instanceMarginal = eStepInstance(d, controls[d], annotators, annotationLabels,
+                    instanceOffsets[d], instanceOffsets[d + 1], strategyExpectedCounts,
+                    knowingExpectedCounts);
+
+            logMarginalLikelhood += Math.log(instanceMarginal);
+        }
+    }
+
+    /**
+     * sequential E-step over the annotation file; the annotations of each instance are
+     * collected and passed to the same kernel as in memory, so the results are identical
+     */
+    private void streamingEStep(int[] controls)
+    {
+        // reset counts
+        Arrays.fill(strategyExpectedCounts, 0.0);
+        Arrays.fill(knowingExpectedCounts, 0.0);
+
+        // compute marginals
+        logMarginalLikelhood = 0.0;
+
+        AnnotationFile.Cursor cursor = annotationFile.cursor();
+        boolean hasNext = cursor.next();
+        for (int d = 0; d < numInstances; ++d) {
+            // annotations are sorted by instance
+            int numAnnotations = 0;
+            while (hasNext && cursor.getInstance() == d) {
+                instanceAnnotators[numAnnotations] = cursor.getAnnotator();
+                instanceLabels[numAnnotations] = cursor.getLabel();
+                numAnnotations++;
+                hasNext = cursor.next();
+            }
+
+            double instanceMarginal = eStepInstance(d, controls[d], instanceAnnotators,
+                    instanceLabels, 0, numAnnotations, strategyExpectedCounts,
+                    knowingExpectedCounts);
+
+            logMarginalLikelhood += Math.log(instanceMarginal);
+        }
+    }
+
+    /**
+     * E-step for a single instance: computes its gold label marginals and the expected counts
+     * of its annotations. The counts are added to the given accumulators or, if these are null,
+     * stored in the staging array of the deterministic parallel E-step.
+     *
+     * @param d              instance
+     * @param control        control label of the instance or -1
+     * @param annotatorIds   [k] annotators
+     * @param labelIds       [k] labels
+     * @param from           first annotation of the instance
+     * @param to             end of the annotations of the instance (exclusive)
+     * @param strategyCounts [a][l] accumulator or null
+     * @param knowingCounts  [a][2] accumulator or null
+     * @return the instance marginal
+     */
+    private double eStepInstance(int d, int control, int[] annotatorIds, int[] labelIds,
+            int from, int to, double[] strategyCounts, double[] knowingCounts)
+    {
+        if (vectorized) {
+            return eStepInstanceVectorized(d, control, annotatorIds, labelIds, from, to,
+                    strategyCounts, knowingCounts);
+        }
+
+        int row = d * numLabels;
+
+        // gold label marginals; the factors are multiplied in the order of the annotations
+        Arrays.fill(goldLabelMarginals, row, row + numLabels, 1.0 / numLabels);
+        for (int k = from; k < to; ++k) {
+            int a = annotatorIds[k];
+            int label = labelIds[k];
+            double guess = thetas[2 * a] * strategies[a * numLabels + label];
+
+            for (int l = row; l < row + label; ++l) {
+                goldLabelMarginals[l] *= guess;
+            }
+            goldLabelMarginals[row + label] *= guess + thetas[2 * a + 1];
+            for (int l = row + label + 1; l < row + numLabels; ++l) {
+                goldLabelMarginals[l] *= guess;
+            }
+        }
+
+        double instanceMarginal = 0.0;
+        for (int l = 0; l < numLabels; ++l) {
+            if (control < 0 || l == control) {
+                instanceMarginal += goldLabelMarginals[row + l];
+            }
+            else {
+                goldLabelMarginals[row + l] = 0.0;
+            }
+        }
+
+        // expected counts
+        for (int k = from; k < to; ++k) {
+            int a = annotatorIds[k];
+            int label = labelIds[k];
+            double guess = thetas[2 * a] * strategies[a * numLabels + label];
+            double know = thetas[2 * a + 1];
+
+            double strategyCount;
+            double knowingCount;
+            double notGuessingCount;
+
+            if (control >= 0 && label != control) {
+                strategyCount = 1.0;
+                knowingCount = 1.0;
+                notGuessingCount = 0.0;
+            }
+            else {
+                double strategyMarginal = 0.0;
+                if (control >= 0) {
+                    strategyMarginal += goldLabelMarginals[row + control] / (guess + know);
+                }
+                else {
+                    for (int l = 0; l < numLabels; ++l) {
+                        strategyMarginal += goldLabelMarginals[row + l] / (l == label ?
+                                guess + know :
+                                guess);
+                    }
+                }
+                strategyMarginal *= guess;
+                strategyCount = strategyMarginal / instanceMarginal;
+                knowingCount = strategyMarginal / instanceMarginal;
+                notGuessingCount = (goldLabelMarginals[row + label] * know / (guess + know))
+                        / instanceMarginal;
+            }
+
+            if (strategyCounts != null) {
+                strategyCounts[a * numLabels + label] += strategyCount;
+                knowingCounts[2 * a] += knowingCount;
+                knowingCounts[2 * a + 1] += notGuessingCount;
+            }
+            else {
+                stagedCounts[3 * k] = strategyCount;
+                stagedCounts[3 * k + 1] = knowingCount;
+                stagedCounts[3 * k + 2] = notGuessingCount;
+            }
+        }
+
+        return instanceMarginal;
+    }
+
+    /**
+     * Same as {@link #eStepInstance(int, int, int[], int[], int, int, double[], double[])},
+     * but the expected counts of an annotation are computed in constant time instead of a loop
+     * over the labels: the marginal mass of the annotated label that is explained by knowing
+     * is m[label] * know / (guess + know), and everything else is explained by guessing. This
+     * leaves only the dense, branch-free loops over the labels for the marginals. Rounding
+     * differs from the scalar kernel.
+     */
+    private double eStepInstanceVectorized(int d, int control, int[] annotatorIds,
+            int[] labelIds, int from, int to, double[] strategyCounts, double[] knowingCounts)
+    {
+        int row = d * numLabels;
+
+        // gold label marginals
+        Arrays.fill(goldLabelMarginals, row, row + numLabels, 1.0 / numLabels);
+        for (int k = from; k < to; ++k) {
+            int a = annotatorIds[k];
+            int label = labelIds[k];
+            double guess = thetas[2 * a] * strategies[a * numLabels + label];
+
+            for (int l = row; l < row + label; ++l) {
+                goldLabelMarginals[l] *= guess;
+            }
+            goldLabelMarginals[row + label] *= guess + thetas[2 * a + 1];
+            for (int l = row + label + 1; l < row + numLabels; ++l) {
+                goldLabelMarginals[l] *= guess;
+            }
+        }
+
+        double instanceMarginal;
+        if (control >= 0) {
+            instanceMarginal = goldLabelMarginals[row + control];
+            Arrays.fill(goldLabelMarginals, row, row + numLabels, 0.0);
+            goldLabelMarginals[row + control] = instanceMarginal;
+        }
+        else {
+            instanceMarginal = 0.0;
+            for (int l = row; l < row + numLabels; ++l) {
+                instanceMarginal += goldLabelMarginals[l];
+            }
+        }
+        double reciprocalMarginal = 1.0 / instanceMarginal;
+
+        // expected counts
+        for (int k = from; k < to; ++k) {
+            int a = annotatorIds[k];
+            int label = labelIds[k];
+            double guess = thetas[2 * a] * strategies[a * numLabels + label];
+            double know = thetas[2 * a + 1];
+
+            double strategyCount;
+            double notGuessingCount;
+
+            if (control >= 0 && label != control) {
+                strategyCount = 1.0;
+                notGuessingCount = 0.0;
+            }
+            else {
+                notGuessingCount = goldLabelMarginals[row + label] * know / (guess + know)
+                        * reciprocalMarginal;
+                strategyCount = 1.0 - notGuessingCount;
+            }
+
+            if (strategyCounts != null) {
+                strategyCounts[a * numLabels + label] += strategyCount;
+                knowingCounts[2 * a] += strategyCount;
+                knowingCounts[2 * a + 1] += notGuessingCount;
+            }
+            else {
+                stagedCounts[3 * k] = strategyCount;
+                stagedCounts[3 * k + 1] = strategyCount;
+                stagedCounts[3 * k + 2] = notGuessingCount;
+            }
+        }
+
+        return instanceMarginal;
+    }
+
+    /**
+     * E-step on the fork/join pool
+     */
+    private void parallelEStep(int[] controls)
+    {
+        int numBlocks;
+        if (deterministic) {
+            if (stagedLogMarginals == null) {
+                stagedLogMarginals = new double[numInstances];
+                stagedCounts = new double[3 * annotators.length];
+            }
+            numBlocks = (numInstances + E_STEP_CHUNK_SIZE - 1) / E_STEP_CHUNK_SIZE;
+        }
+        else {
+            // one accumulator per thread; blocks are contiguous so the merge order is fixed
+            numBlocks = Math.min(numThreads, Math.max(1, numInstances));
+            if (blockLogMarginals == null) {
+                blockLogMarginals = new double[numBlocks];
+                blockStrategyCounts = new double[numBlocks][numAnnotators * numLabels];
+                blockKnowingCounts = new double[numBlocks][numAnnotators * 2];
+            }
+        }
+
+        forkJoinPool.invoke(new EStepTask(controls, numBlocks, 0, numBlocks));
+
+        // reduce
+        Arrays.fill(strategyExpectedCounts, 0.0);
+        Arrays.fill(knowingExpectedCounts, 0.0);
+        logMarginalLikelhood = 0.0;
+
+        if (deterministic) {
+            // same order of additions as in the sequential E-step
+            for (int d = 0; d < numInstances; ++d) {
+                logMarginalLikelhood += stagedLogMarginals[d];
+            }
+            for (int k = 0; k < annotators.length; ++k) {
+                int a = annotators[k];
+
+                strategyExpectedCounts[a * numLabels + annotationLabels[k]] += stagedCounts[3 * k];
+                knowingExpectedCounts[2 * a] += stagedCounts[3 * k + 1];
+                knowingExpectedCounts[2 * a + 1] += stagedCounts[3 * k + 2];
+            }
+        }
+        else {
+            for (int b = 0; b < numBlocks; ++b) {
+                logMarginalLikelhood += blockLogMarginals[b];
+                double[] strategyCounts = blockStrategyCounts[b];
+                for (int i = 0; i < strategyCounts.length; ++i) {
+                    strategyExpectedCounts[i] += strategyCounts[i];
+                }
+                double[] knowingCounts = blockKnowingCounts[b];
+                for (int i = 0; i < knowingCounts.length; ++i) {
+                    knowingExpectedCounts[i] += knowingCounts[i];
+                }
+            }
+        }
+    }
+
+    /**
+     * processes a range of instance blocks; splits in halves until a single block is left
+     */
+    @SuppressWarnings("serial")
+    private class EStepTask
+            extends RecursiveAction
+    {
+        private final int[] controls;
+        private final int numBlocks;
+        private final int blockFrom;
+        private final int blockTo;
+
+        EStepTask(int[] controls, int numBlocks, int blockFrom, int blockTo)
+        {
+            this.controls = controls;
+            this.numBlocks = numBlocks;
+            this.blockFrom = blockFrom;
+            this.blockTo = blockTo;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if (blockTo - blockFrom > 1) {
+                int middle = (blockFrom + blockTo) >>> 1;
+                invokeAll(new EStepTask(controls, numBlocks, blockFrom, middle),
+                        new EStepTask(controls, numBlocks, middle, blockTo));
+                return;
+            }
+
+            if (blockFrom == blockTo) {
+                return;
+            }
+
+            // instance range of this block
+            int from = (int) ((long) numInstances * blockFrom / numBlocks);
+            int to = (int) ((long) numInstances * (blockFrom + 1) / numBlocks);
+
+            if (deterministic) {
+                // store the contributions of each instance and annotation
+                for (int d = from; d < to; ++d) {
+                    stagedLogMarginals[d] = Math.log(eStepInstance(d, controls[d], annotators,
+                            annotationLabels, instanceOffsets[d], instanceOffsets[d + 1], null,
+                            null));
+                }
+            }
+            else {
+                // sum up the contributions into the accumulators of this block
+                double[] strategyCounts = blockStrategyCounts[blockFrom];
+                double[] knowingCounts = blockKnowingCounts[blockFrom];
+                Arrays.fill(strategyCounts, 0.0);
+                Arrays.fill(knowingCounts, 0.0);
+
+                double logMarginal = 0.0;
+                for (int d = from; d < to; ++d) {
+                    logMarginal += Math.log(eStepInstance(d, controls[d], annotators,
+                            annotationLabels, instanceOffsets[d], instanceOffsets[d + 1],
+                            strategyCounts, knowingCounts));
+                }
+                blockLogMarginals[blockFrom] = logMarginal;
+            }
+        }
+    }
+
+    /**
+     * normalize expected counts
+     */
+    void MStep(double smoothing)
+    {
+        if (vectorized) {
+            MACE.normalizeVectorized(knowingExpectedCounts, 2, smoothing, thetas);
+            MACE.normalizeVectorized(strategyExpectedCounts, numLabels, smoothing, strategies);
+        }
+        else {
+            MACE.normalize(knowingExpectedCounts, 2, smoothing, thetas);
+            MACE.normalize(strategyExpectedCounts, numLabels, smoothing, strategies);
+        }
+    }
+
+    /**
+     * stochastic variational update with the expected counts of the last mini-batch E-step
+     *
+     * @param stepSize weight of the mini-batch
+     * @param scale    number of instances divided by the size of the mini-batch
+     */
+    void stochasticVariationalMStep(double stepSize, double scale)
+    {
+        if (scaledKnowingCounts == null) {
+            scaledKnowingCounts = new double[numAnnotators * 2];
+            scaledStrategyCounts = new double[numAnnotators * numLabels];
+        }
+
+        for (int i = 0; i < scaledKnowingCounts.length; ++i) {
+            scaledKnowingCounts[i] = (1.0 - stepSize) * scaledKnowingCounts[i]
+                    + stepSize * scale * knowingExpectedCounts[i];
+        }
+        for (int i = 0; i < scaledStrategyCounts.length; ++i) {
+            scaledStrategyCounts[i] = (1.0 - stepSize) * scaledStrategyCounts[i]
+                    + stepSize * scale * strategyExpectedCounts[i];
+        }
+
+        variationalNormalize(scaledKnowingCounts, scaledStrategyCounts);
+    }
+
+    /**
+     * normalize using priors
+     */
+    void variationalMStep()
+    {
+        variationalNormalize(knowingExpectedCounts, strategyExpectedCounts);
+    }
+
+    /**
+     * set the parameters from counts and priors
+     */
+    private void variationalNormalize(double[] knowingCounts, double[] strategyCounts)
+    {
+        if (vectorized) {
+            MACE.variationalNormalizeVectorized(knowingCounts, thetaPriors, 2, thetas, rowNorms);
+            MACE.variationalNormalizeVectorized(strategyCounts, strategyPriors, numLabels,
+                    strategies, rowNorms);
+        }
+        else {
+            MACE.variationalNormalize(knowingCounts, thetaPriors, 2, thetas);
+            MACE.variationalNormalize(strategyCounts, strategyPriors, numLabels, strategies);
+        }
+    }
+}
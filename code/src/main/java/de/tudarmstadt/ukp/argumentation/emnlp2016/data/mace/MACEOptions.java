@@ -0,0 +1,401 @@
+/*
+***************************************************************************
+NTP License
+https://opensource.org/licenses/NTP
+      USC/ISI MACE Multi-Annotator Competence Estimation
+      USC Information Sciences Institute
+      4676 Admiralty Way
+      Marina del Rey, CA 90292-6695
+      USA
+      Original Version: Natural Language Group, April 2013
+      Current Version:  Natural Language Group, April 2013
+  Copyright (c) 2013 by the University of Southern California
+  All rights reserved.
+  Permission to use, copy, modify, and distribute this software and its
+  documentation in source and binary forms for any purpose and without
+  fee is hereby granted, provided that both the above copyright notice
+  and this permission notice appear in all copies, and that any
+  documentation, advertising materials, and other materials related to
+  such distribution and use acknowledge that the software was developed
+  in part by the University of Southern California, Information
+  Sciences Institute.  The name of the University may not be used to
+  endorse or promote products derived from this software without
+  specific prior written permission.
+  THE UNIVERSITY OF SOUTHERN CALIFORNIA makes no representations about
+  the suitability of this software for any purpose.  THIS SOFTWARE IS
+  PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED WARRANTIES,
+  INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF
+  MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+  Other copyrights might apply to parts of this software and are so
+  noted when applicable.
+***************************************************************************
+*/
+package de.tudarmstadt.ukp.argumentation.emnlp2016.data.mace;
+
+/**
+ * Settings for training {@link MACE} through {@link MACE#run(MACEOptions)}; the defaults are the
+ * same as those of the command line.
+ */
+public class MACEOptions
+{
+    private int iterations = MACE.DEFAULT_ITERATIONS;
+    private int restarts = MACE.DEFAULT_RR;
+    // null = 0.01 / number of labels
+    private Double smoothing;
+    private double threshold = 1.0;
+    private boolean variational = false;
+    private double alpha = MACE.DEFAULT_ALPHA;
+    private double beta = MACE.DEFAULT_BETA;
+    // [d] control label of each item or null
+    private String[] controls;
+    private int threads = 1;
+    private boolean deterministic = false;
+    private boolean vectorized = false;
+    private int restartThreads = 1;
+    private Long seed;
+    private double tolerance = 0.0;
+    private int pruneAfter = 0;
+    private double pruneMargin = 0.0;
+    private MACEState initialState;
+    private int batchSize = 0;
+    private double tau = 1.0;
+    private double kappa = 0.7;
+    private double heldOut = 0.0;
+    private int bootstrapResamples = 0;
+    private int bootstrapIterations = MACE.DEFAULT_ITERATIONS;
+    private double bootstrapConfidence = 0.95;
+    private int bootstrapThreads = Runtime.getRuntime().availableProcessors();
+
+    public int getIterations()
+    {
+        return iterations;
+    }
+
+    /**
+     * @param iterations number of iterations for each EM start (1-1000)
+     */
+    public void setIterations(int iterations)
+    {
+        if (iterations < 1 || iterations > 1000) {
+            throw new IllegalArgumentException("iterations not between 1 and 1000");
+        }
+        this.iterations = iterations;
+    }
+
+    public int getRestarts()
+    {
+        return restarts;
+    }
+
+    /**
+     * @param restarts number of random restarts (1-1000)
+     */
+    public void setRestarts(int restarts)
+    {
+        if (restarts < 1 || restarts > 1000) {
+            throw new IllegalArgumentException("restarts not between 1 and 1000");
+        }
+        this.restarts = restarts;
+    }
+
+    public Double getSmoothing()
+    {
+        return smoothing;
+    }
+
+    /**
+     * @param smoothing smoothing added to fractional counts before normalization; null for the
+     *                  default 0.01 / number of labels
+     */
+    public void setSmoothing(Double smoothing)
+    {
+        if (smoothing != null && smoothing < 0.0) {
+            throw new IllegalArgumentException("smoothing less than 0.0");
+        }
+        this.smoothing = smoothing;
+    }
+
+    public double getThreshold()
+    {
+        return threshold;
+    }
+
+    /**
+     * @param threshold only predict the label of the given fraction of items with the lowest
+     *                  entropy (0.0-1.0)
+     */
+    public void setThreshold(double threshold)
+    {
+        if (threshold < 0.0 || threshold > 1.0) {
+            throw new IllegalArgumentException("threshold not between 0.0 and 1.0");
+        }
+        this.threshold = threshold;
+    }
+
+    public boolean isVariational()
+    {
+        return variational;
+    }
+
+    public double getAlpha()
+    {
+        return alpha;
+    }
+
+    public double getBeta()
+    {
+        return beta;
+    }
+
+    /**
+     * switch to variational training with a beta prior on knowing vs. guessing
+     *
+     * @param alpha first hyper-parameter of the beta prior
+     * @param beta  second hyper-parameter of the beta prior
+     */
+    public void setPrior(double alpha, double beta)
+    {
+        this.alpha = alpha;
+        this.beta = beta;
+        this.variational = true;
+    }
+
+    public String[] getControls()
+    {
+        return controls;
+    }
+
+    /**
+     * @param controls control label of each item, null or empty for items without control;
+     *                 must have one entry per item
+     */
+    public void setControls(String[] controls)
+    {
+        this.controls = controls;
+    }
+
+    public int getThreads()
+    {
+        return threads;
+    }
+
+    public boolean isDeterministic()
+    {
+        return deterministic;
+    }
+
+    /**
+     * @see MACE#setParallelism(int, boolean)
+     */
+    public void setParallelism(int threads, boolean deterministic)
+    {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads less than 1");
+        }
+        this.threads = threads;
+        this.deterministic = deterministic;
+    }
+
+    public boolean isVectorized()
+    {
+        return vectorized;
+    }
+
+    /**
+     * @see MACE#setVectorized(boolean)
+     */
+    public void setVectorized(boolean vectorized)
+    {
+        this.vectorized = vectorized;
+    }
+
+    public int getRestartThreads()
+    {
+        return restartThreads;
+    }
+
+    /**
+     * @see MACE#setRestartThreads(int)
+     */
+    public void setRestartThreads(int restartThreads)
+    {
+        if (restartThreads < 1) {
+            throw new IllegalArgumentException("restartThreads less than 1");
+        }
+        this.restartThreads = restartThreads;
+    }
+
+    public Long getSeed()
+    {
+        return seed;
+    }
+
+    /**
+     * @param seed seed of the random initialization; null for a random seed
+     */
+    public void setSeed(Long seed)
+    {
+        this.seed = seed;
+    }
+
+    public double getTolerance()
+    {
+        return tolerance;
+    }
+
+    /**
+     * @see MACE#setTolerance(double)
+     */
+    public void setTolerance(double tolerance)
+    {
+        if (tolerance < 0.0) {
+            throw new IllegalArgumentException("tolerance less than 0.0");
+        }
+        this.tolerance = tolerance;
+    }
+
+    public int getPruneAfter()
+    {
+        return pruneAfter;
+    }
+
+    public double getPruneMargin()
+    {
+        return pruneMargin;
+    }
+
+    /**
+     * @see MACE#setPruning(int, double)
+     */
+    public void setPruning(int pruneAfter, double pruneMargin)
+    {
+        if (pruneAfter < 0) {
+            throw new IllegalArgumentException("pruneAfter less than 0");
+        }
+        if (pruneMargin < 0.0) {
+            throw new IllegalArgumentException("pruneMargin less than 0.0");
+        }
+        this.pruneAfter = pruneAfter;
+        this.pruneMargin = pruneMargin;
+    }
+
+    public MACEState getInitialState()
+    {
+        return initialState;
+    }
+
+    /**
+     * start from a previously trained model instead of random restarts; a single run of
+     * {@link #getIterations()} iterations is performed, so a few iterations are usually enough.
+     * Annotators and labels that are not in the state start from the prior mean.
+     *
+     * @param initialState state of a previous run (see {@link MACEResult#getState()}) or null
+     */
+    public void setInitialState(MACEState initialState)
+    {
+        this.initialState = initialState;
+    }
+
+    public int getBatchSize()
+    {
+        return batchSize;
+    }
+
+    public double getTau()
+    {
+        return tau;
+    }
+
+    public double getKappa()
+    {
+        return kappa;
+    }
+
+    /**
+     * @see MACE#setStochastic(int, double, double)
+     */
+    public void setStochastic(int batchSize, double tau, double kappa)
+    {
+        if (batchSize < 0) {
+            throw new IllegalArgumentException("batch size less than 0");
+        }
+        if (tau <= 0.0) {
+            throw new IllegalArgumentException("tau not greater than 0.0");
+        }
+        if (kappa <= 0.5 || kappa > 1.0) {
+            throw new IllegalArgumentException("kappa not in (0.5, 1.0]");
+        }
+        this.batchSize = batchSize;
+        this.tau = tau;
+        this.kappa = kappa;
+        if (batchSize > 0) {
+            this.variational = true;
+        }
+    }
+
+    public double getHeldOut()
+    {
+        return heldOut;
+    }
+
+    /**
+     * @see MACE#setHeldOut(double)
+     */
+    public void setHeldOut(double heldOut)
+    {
+        if (heldOut < 0.0 || heldOut >= 1.0) {
+            throw new IllegalArgumentException("held-out fraction not in [0.0, 1.0)");
+        }
+        this.heldOut = heldOut;
+    }
+
+    public int getBootstrapResamples()
+    {
+        return bootstrapResamples;
+    }
+
+    public int getBootstrapIterations()
+    {
+        return bootstrapIterations;
+    }
+
+    public double getBootstrapConfidence()
+    {
+        return bootstrapConfidence;
+    }
+
+    /**
+     * @see MACE#setBootstrap(int, int, double)
+     */
+    public void setBootstrap(int resamples, int iterations, double confidence)
+    {
+        if (resamples < 0) {
+            throw new IllegalArgumentException("number of resamples less than 0");
+        }
+        if (iterations < 1) {
+            throw new IllegalArgumentException("number of bootstrap iterations less than 1");
+        }
+        if (confidence <= 0.0 || confidence >= 1.0) {
+            throw new IllegalArgumentException("confidence not in (0.0, 1.0)");
+        }
+        this.bootstrapResamples = resamples;
+        this.bootstrapIterations = iterations;
+        this.bootstrapConfidence = confidence;
+    }
+
+    public int getBootstrapThreads()
+    {
+        return bootstrapThreads;
+    }
+
+    /**
+     * @see MACE#setBootstrapThreads(int)
+     */
+    public void setBootstrapThreads(int bootstrapThreads)
+    {
+        if (bootstrapThreads < 1) {
+            throw new IllegalArgumentException("bootstrapThreads less than 1");
+        }
+        this.bootstrapThreads = bootstrapThreads;
+    }
+}
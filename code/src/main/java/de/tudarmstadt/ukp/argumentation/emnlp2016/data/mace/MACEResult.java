@@ -0,0 +1,157 @@
+/*
+***************************************************************************
+NTP License
+https://opensource.org/licenses/NTP
+      USC/ISI MACE Multi-Annotator Competence Estimation
+      USC Information Sciences Institute
+      4676 Admiralty Way
+      Marina del Rey, CA 90292-6695
+      USA
+      Original Version: Natural Language Group, April 2013
+      Current Version:  Natural Language Group, April 2013
+  Copyright (c) 2013 by the University of Southern California
+  All rights reserved.
+  Permission to use, copy, modify, and distribute this software and its
+  documentation in source and binary forms for any purpose and without
+  fee is hereby granted, provided that both the above copyright notice
+  and this permission notice appear in all copies, and that any
+  documentation, advertising materials, and other materials related to
+  such distribution and use acknowledge that the software was developed
+  in part by the University of Southern California, Information
+  Sciences Institute.  The name of the University may not be used to
+  endorse or promote products derived from this software without
+  specific prior written permission.
+  THE UNIVERSITY OF SOUTHERN CALIFORNIA makes no representations about
+  the suitability of this software for any purpose.  THIS SOFTWARE IS
+  PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED WARRANTIES,
+  INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF
+  MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+  Other copyrights might apply to parts of this software and are so
+  noted when applicable.
+***************************************************************************
+*/
+package de.tudarmstadt.ukp.argumentation.emnlp2016.data.mace;
+
+import java.util.List;
+
+/**
+ * Output of {@link MACE#run(MACEOptions)}; items and annotators are in the order of the input
+ * matrix
+ */
+public class MACEResult
+{
+    private final List<String> labels;
+    private final String[] predictions;
+    private final double[] competences;
+    private final double[][] marginals;
+    private final PosteriorIndex posteriorIndex;
+    private final double[][] competenceIntervals;
+    private final double logMarginalLikelihood;
+    private final double heldOutLogLikelihood;
+    private final List<MACE.RestartStatistics> restartStatistics;
+    private final MACEState state;
+
+    public MACEResult(List<String> labels, String[] predictions, double[] competences,
+            double[][] marginals, PosteriorIndex posteriorIndex, double[][] competenceIntervals,
+            double logMarginalLikelihood, double heldOutLogLikelihood, List<MACE.RestartStatistics> restartStatistics,
+            MACEState state)
+    {
+        this.labels = labels;
+        this.predictions = predictions;
+        this.competences = competences;
+        this.marginals = marginals;
+        this.posteriorIndex = posteriorIndex;
+        this.competenceIntervals = competenceIntervals;
+        this.logMarginalLikelihood = logMarginalLikelihood;
+        this.heldOutLogLikelihood = heldOutLogLikelihood;
+        this.restartStatistics = restartStatistics;
+        this.state = state;
+    }
+
+    /**
+     * @return labels in the order of the columns of {@link #getMarginals()}
+     */
+    public List<String> getLabels()
+    {
+        return labels;
+    }
+
+    /**
+     * @return [d] predicted label of each item; empty string if the item was above the
+     * entropy threshold
+     */
+    public String[] getPredictions()
+    {
+        return predictions;
+    }
+
+    /**
+     * @return [a] probability that each annotator knows the answer rather than guessing
+     */
+    public double[] getCompetences()
+    {
+        return competences;
+    }
+
+    /**
+     * @return [a][2] bootstrap interval (lower, upper) of each competence, NaN for annotators
+     * with too few resamples; null if no bootstrap was requested (see
+     * {@link MACEOptions#setBootstrap(int, int, double)})
+     */
+    public double[][] getCompetenceIntervals()
+    {
+        return competenceIntervals;
+    }
+
+    /**
+     * @return [d][l] posterior probability of each gold label
+     */
+    public double[][] getMarginals()
+    {
+        return marginals;
+    }
+
+    /**
+     * @return [d] entropy of the gold label posterior of each item
+     */
+    public double[] getEntropies()
+    {
+        return posteriorIndex.getEntropies();
+    }
+
+    /**
+     * @return entropies and top-label margins indexed for uncertainty queries, e.g. to pick
+     * the items to re-annotate
+     */
+    public PosteriorIndex getPosteriorIndex()
+    {
+        return posteriorIndex;
+    }
+
+    public double getLogMarginalLikelihood()
+    {
+        return logMarginalLikelihood;
+    }
+
+    /**
+     * @return log marginal likelihood of the held-out items (see
+     * {@link MACEOptions#setHeldOut(double)}), NaN if none were held out
+     */
+    public double getHeldOutLogLikelihood()
+    {
+        return heldOutLogLikelihood;
+    }
+
+    public List<MACE.RestartStatistics> getRestartStatistics()
+    {
+        return restartStatistics;
+    }
+
+    /**
+     * @return parameters of the trained model, can be used to warm-start the next run
+     */
+    public MACEState getState()
+    {
+        return state;
+    }
+}
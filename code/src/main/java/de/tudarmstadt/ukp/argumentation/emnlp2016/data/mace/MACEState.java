@@ -0,0 +1,103 @@
+/*
+***************************************************************************
+NTP License
+https://opensource.org/licenses/NTP
+      USC/ISI MACE Multi-Annotator Competence Estimation
+      USC Information Sciences Institute
+      4676 Admiralty Way
+      Marina del Rey, CA 90292-6695
+      USA
+      Original Version: Natural Language Group, April 2013
+      Current Version:  Natural Language Group, April 2013
+  Copyright (c) 2013 by the University of Southern California
+  All rights reserved.
+  Permission to use, copy, modify, and distribute this software and its
+  documentation in source and binary forms for any purpose and without
+  fee is hereby granted, provided that both the above copyright notice
+  and this permission notice appear in all copies, and that any
+  documentation, advertising materials, and other materials related to
+  such distribution and use acknowledge that the software was developed
+  in part by the University of Southern California, Information
+  Sciences Institute.  The name of the University may not be used to
+  endorse or promote products derived from this software without
+  specific prior written permission.
+  THE UNIVERSITY OF SOUTHERN CALIFORNIA makes no representations about
+  the suitability of this software for any purpose.  THIS SOFTWARE IS
+  PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED WARRANTIES,
+  INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF
+  MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+  Other copyrights might apply to parts of this software and are so
+  noted when applicable.
+***************************************************************************
+*/
+package de.tudarmstadt.ukp.argumentation.emnlp2016.data.mace;
+
+import java.util.List;
+
+/**
+ * Trained parameters of a {@link MACE} model together with the annotator and label names, so
+ * that a later run on more data can start from them (see
+ * {@link MACEOptions#setInitialState(MACEState)})
+ */
+public class MACEState
+{
+    private List<String> annotators;
+    private List<String> labels;
+    // [a][2] guessing, knowing
+    private double[][] thetas;
+    // [a][l]
+    private double[][] strategies;
+
+    public MACEState()
+    {
+    }
+
+    public MACEState(List<String> annotators, List<String> labels, double[][] thetas,
+            double[][] strategies)
+    {
+        this.annotators = annotators;
+        this.labels = labels;
+        this.thetas = thetas;
+        this.strategies = strategies;
+    }
+
+    public List<String> getAnnotators()
+    {
+        return annotators;
+    }
+
+    public void setAnnotators(List<String> annotators)
+    {
+        this.annotators = annotators;
+    }
+
+    public List<String> getLabels()
+    {
+        return labels;
+    }
+
+    public void setLabels(List<String> labels)
+    {
+        this.labels = labels;
+    }
+
+    public double[][] getThetas()
+    {
+        return thetas;
+    }
+
+    public void setThetas(double[][] thetas)
+    {
+        this.thetas = thetas;
+    }
+
+    public double[][] getStrategies()
+    {
+        return strategies;
+    }
+
+    public void setStrategies(double[][] strategies)
+    {
+        this.strategies = strategies;
+    }
+}
@@ -0,0 +1,336 @@
+/*
+***************************************************************************
+NTP License
+https://opensource.org/licenses/NTP
+      USC/ISI MACE Multi-Annotator Competence Estimation
+      USC Information Sciences Institute
+      4676 Admiralty Way
+      Marina del Rey, CA 90292-6695
+      USA
+      Original Version: Natural Language Group, April 2013
+      Current Version:  Natural Language Group, April 2013
+  Copyright (c) 2013 by the University of Southern California
+  All rights reserved.
+  Permission to use, copy, modify, and distribute this software and its
+  documentation in source and binary forms for any purpose and without
+  fee is hereby granted, provided that both the above copyright notice
+  and this permission notice appear in all copies, and that any
+  documentation, advertising materials, and other materials related to
+  such distribution and use acknowledge that the software was developed
+  in part by the University of Southern California, Information
+  Sciences Institute.  The name of the University may not be used to
+  endorse or promote products derived from this software without
+  specific prior written permission.
+  THE UNIVERSITY OF SOUTHERN CALIFORNIA makes no representations about
+  the suitability of this software for any purpose.  THIS SOFTWARE IS
+  PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED WARRANTIES,
+  INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF
+  MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+  Other copyrights might apply to parts of this software and are so
+  noted when applicable.
+***************************************************************************
+*/
+package de.tudarmstadt.ukp.argumentation.emnlp2016.data.mace;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Per-item uncertainty of the gold label posterior: entropy, margin between the two most
+ * probable labels and the most probable label. Items are sorted by entropy once, so threshold
+ * cuts (as in {@code --threshold}) take O(log n) and top-k queries O(k); the k items with the
+ * smallest margin are found by selection in O(n) without sorting.
+ * <p>
+ * Items are identified by their row in the input matrix.
+ */
+public class PosteriorIndex
+{
+    private final double[] entropies;
+    private final double[] margins;
+    private final int[] bestLabels;
+
+    /**
+     * item ids sorted by increasing entropy (ties by id) and the corresponding entropies
+     */
+    private final int[] entropyOrder;
+    private final double[] sortedEntropies;
+
+    /**
+     * Builds the index from the (possibly unnormalized) label marginals
+     *
+     * @param marginals    [d * numLabels + l] marginal of label l for item d
+     * @param numInstances number of items
+     * @param numLabels    number of labels
+     */
+    PosteriorIndex(double[] marginals, int numInstances, int numLabels)
+    {
+        entropies = new double[numInstances];
+        margins = new double[numInstances];
+        bestLabels = new int[numInstances];
+
+        for (int d = 0; d < numInstances; ++d) {
+            int row = d * numLabels;
+            double norm = 0.0;
+            for (int l = 0; l < numLabels; ++l) {
+                norm += marginals[row + l];
+            }
+
+            double entropy = 0.0;
+            double best = Double.NEGATIVE_INFINITY;
+            double second = Double.NEGATIVE_INFINITY;
+            int bestLabel = -1;
+            for (int l = 0; l < numLabels; ++l) {
+                double p = marginals[row + l] / norm;
+                if (p > 0.0) {
+                    entropy += -p * Math.log(p);
+                }
+
+                // first maximum of the raw marginals wins, as in decoding
+                if (marginals[row + l] > best) {
+                    second = best;
+                    best = marginals[row + l];
+                    bestLabel = l;
+                }
+                else if (marginals[row + l] > second) {
+                    second = marginals[row + l];
+                }
+            }
+
+            entropies[d] = entropy;
+            bestLabels[d] = bestLabel;
+            if (norm > 0.0) {
+                margins[d] = numLabels > 1 ? (best - second) / norm : 1.0;
+            }
+        }
+
+        Integer[] order = new Integer[numInstances];
+        for (int d = 0; d < numInstances; ++d) {
+            order[d] = d;
+        }
+        // merge sort is stable, so equal entropies stay in item order
+        Arrays.sort(order, new Comparator<Integer>()
+        {
+            @Override
+            public int compare(Integer o1, Integer o2)
+            {
+                return Double.compare(entropies[o1], entropies[o2]);
+            }
+        });
+
+        entropyOrder = new int[numInstances];
+        sortedEntropies = new double[numInstances];
+        for (int i = 0; i < numInstances; ++i) {
+            entropyOrder[i] = order[i];
+            sortedEntropies[i] = entropies[order[i]];
+        }
+    }
+
+    /**
+     * @return number of items
+     */
+    public int size()
+    {
+        return entropies.length;
+    }
+
+    /**
+     * @return entropy of the label posterior of item d
+     */
+    public double getEntropy(int d)
+    {
+        return entropies[d];
+    }
+
+    /**
+     * @return difference between the posterior probabilities of the best and second best label
+     * of item d; 1 for a single label, 0 if the item has no posterior mass
+     */
+    public double getMargin(int d)
+    {
+        return margins[d];
+    }
+
+    /**
+     * @return index of the most probable label of item d
+     */
+    public int getBestLabel(int d)
+    {
+        return bestLabels[d];
+    }
+
+    /**
+     * @return copy of the entropies in item order
+     */
+    public double[] getEntropies()
+    {
+        return entropies.clone();
+    }
+
+    /**
+     * Entropy of the item at the given fraction of the items sorted by entropy; items with at
+     * most this entropy are labeled by {@code --threshold}
+     *
+     * @param threshold fraction between 0.0 and 1.0
+     * @return entropy value
+     */
+    public double getEntropyForThreshold(double threshold)
+    {
+        if (threshold < 0.0 || threshold > 1.0) {
+            throw new IllegalArgumentException("threshold not between 0.0 and 1.0");
+        }
+
+        int pivot;
+        if (threshold == 0.0)
+            pivot = 0;
+        else if (threshold == 1.0)
+            pivot = sortedEntropies.length - 1;
+        else
+            pivot = (int) (sortedEntropies.length * threshold);
+
+        return sortedEntropies[pivot];
+    }
+
+    /**
+     * @return number of items whose entropy is at most the given value
+     */
+    public int countAtMost(double entropy)
+    {
+        // first position with a larger entropy
+        int low = 0;
+        int high = sortedEntropies.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sortedEntropies[mid] <= entropy) {
+                low = mid + 1;
+            }
+            else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Items kept by the given coverage threshold, i.e. those that get a prediction
+     *
+     * @param threshold fraction between 0.0 and 1.0 (see {@link #getEntropyForThreshold(double)})
+     * @return item ids sorted by increasing entropy
+     */
+    public int[] getCertain(double threshold)
+    {
+        return Arrays.copyOf(entropyOrder, countAtMost(getEntropyForThreshold(threshold)));
+    }
+
+    /**
+     * @param threshold fraction between 0.0 and 1.0 (see {@link #getEntropyForThreshold(double)})
+     * @return for each item whether it gets a prediction under the given threshold
+     */
+    public boolean[] getCertainMask(double threshold)
+    {
+        boolean[] result = new boolean[entropies.length];
+        int count = countAtMost(getEntropyForThreshold(threshold));
+        for (int i = 0; i < count; ++i) {
+            result[entropyOrder[i]] = true;
+        }
+        return result;
+    }
+
+    /**
+     * @param k number of items
+     * @return the k items with the highest entropy, most uncertain first
+     */
+    public int[] getMostUncertain(int k)
+    {
+        k = Math.min(Math.max(k, 0), entropyOrder.length);
+        int[] result = new int[k];
+        for (int i = 0; i < k; ++i) {
+            result[i] = entropyOrder[entropyOrder.length - 1 - i];
+        }
+        return result;
+    }
+
+    /**
+     * @param k number of items
+     * @return the k items with the smallest top-label margin, smallest first
+     */
+    public int[] getSmallestMargins(int k)
+    {
+        k = Math.min(Math.max(k, 0), margins.length);
+        int[] items = new int[margins.length];
+        for (int d = 0; d < items.length; ++d) {
+            items[d] = d;
+        }
+
+        // move the k smallest to the front in linear expected time, then sort only those
+        if (k > 0 && k < items.length) {
+            select(items, margins, k - 1);
+        }
+
+        Integer[] result = new Integer[k];
+        for (int i = 0; i < k; ++i) {
+            result[i] = items[i];
+        }
+        Arrays.sort(result, new Comparator<Integer>()
+        {
+            @Override
+            public int compare(Integer o1, Integer o2)
+            {
+                int result = Double.compare(margins[o1], margins[o2]);
+                return result != 0 ? result : Integer.compare(o1, o2);
+            }
+        });
+
+        int[] resultArray = new int[k];
+        for (int i = 0; i < k; ++i) {
+            resultArray[i] = result[i];
+        }
+        return resultArray;
+    }
+
+    /**
+     * Quickselect: rearranges the items so that the one with the n-th smallest value is at
+     * position n, smaller ones before and larger ones after it
+     */
+    static void select(int[] items, double[] values, int n)
+    {
+        int left = 0;
+        int right = items.length - 1;
+        while (left < right) {
+            // median of three against sorted or constant input
+            int mid = (left + right) >>> 1;
+            if (values[items[mid]] < values[items[left]])
+                swap(items, left, mid);
+            if (values[items[right]] < values[items[left]])
+                swap(items, left, right);
+            if (values[items[right]] < values[items[mid]])
+                swap(items, mid, right);
+            double pivot = values[items[mid]];
+
+            int i = left;
+            int j = right;
+            while (i <= j) {
+                while (values[items[i]] < pivot)
+                    i++;
+                while (values[items[j]] > pivot)
+                    j--;
+                if (i <= j) {
+                    swap(items, i++, j--);
+                }
+            }
+
+            if (n <= j)
+                right = j;
+            else if (n >= i)
+                left = i;
+            else
+                return;
+        }
+    }
+
+    private static void swap(int[] items, int i, int j)
+    {
+        int tmp = items[i];
+        items[i] = items[j];
+        items[j] = tmp;
+    }
+}
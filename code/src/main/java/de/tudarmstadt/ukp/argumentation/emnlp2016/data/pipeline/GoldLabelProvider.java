@@ -23,7 +23,7 @@ import de.tudarmstadt.ukp.argumentation.emnlp2016.data.sampling.MTurkReasonUnitA
 import java.util.List;
 
 /**
- * Gold label provider for ReasonUnit annotations
+ * Gold label provider for ReasonUnit annotations; implementations are thread-safe
  * @author Ivan Habernal
  */
 public interface GoldLabelProvider
@@ -44,4 +44,22 @@ public interface GoldLabelProvider
      * @return list of assignments (may be empty but never null)
      */
     List<MTurkReasonUnitAssignment> getMTurkReasonUnitAssignments(int reasonUnitId);
+
+    /**
+     * Returns gold labels of several reason units at once
+     *
+     * @param reasonUnitIds IDs of reason units
+     * @return gold label or null for each ID, in the same order
+     */
+    String[] provideGoldLabels(int[] reasonUnitIds);
+
+    /**
+     * Returns all MTurk assignments of several reason units at once; the lists are read-only
+     * and not copied, so they can be shared between threads
+     *
+     * @param reasonUnitIds IDs of reason units
+     * @return read-only list of assignments (may be empty but never null) for each ID, in the
+     * same order
+     */
+    List<List<MTurkReasonUnitAssignment>> getMTurkReasonUnitAssignments(int[] reasonUnitIds);
 }
@@ -18,6 +18,8 @@
 
 package de.tudarmstadt.ukp.argumentation.emnlp2016.data.pipeline;
 
+import de.tudarmstadt.ukp.argumentation.emnlp2016.data.mace.MACEState;
+
 import java.util.SortedMap;
 
 /**
@@ -27,6 +29,8 @@ public class MACEOutputContainer
 {
     private SortedMap<Integer, String> goldLabelPredictions;
     private SortedMap<String, Double> competences;
+    private MACEState maceState;
+    private SortedMap<String, double[]> competenceIntervals;
 
     public SortedMap<Integer, String> getGoldLabelPredictions()
     {
@@ -48,4 +52,27 @@ public class MACEOutputContainer
     {
         this.competences = competences;
     }
+
+    public MACEState getMaceState()
+    {
+        return maceState;
+    }
+
+    public void setMaceState(MACEState maceState)
+    {
+        this.maceState = maceState;
+    }
+
+    /**
+     * Bootstrap intervals of the competences (lower, upper) or null if not estimated
+     */
+    public SortedMap<String, double[]> getCompetenceIntervals()
+    {
+        return competenceIntervals;
+    }
+
+    public void setCompetenceIntervals(SortedMap<String, double[]> competenceIntervals)
+    {
+        this.competenceIntervals = competenceIntervals;
+    }
 }
@@ -0,0 +1,310 @@
+/*
+ * Copyright 2016
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.tudarmstadt.ukp.argumentation.emnlp2016.data.pipeline;
+
+import de.tudarmstadt.ukp.argumentation.emnlp2016.data.mace.MACEOptions;
+import de.tudarmstadt.ukp.argumentation.emnlp2016.data.sampling.XStreamTools;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Content-addressed on-disk cache of MACE outputs. The key is a SHA-256 fingerprint of the
+ * annotation matrix and of all MACE options affecting the result, so a cached entry is only
+ * reused for exactly the same input. Entries are XML files; when the total size exceeds the
+ * limit, the least recently used ones are deleted.
+ * <p>
+ * Setting the system property {@code mace.cache.bypass=true} forces recomputation; the fresh
+ * result still replaces the cached one.
+ */
+public class MACEResultCache
+{
+    /**
+     * Bump when the format of {@link MACEOutputContainer} or the MACE output changes
+     */
+    private static final String VERSION = "2";
+
+    private static final String SUFFIX = ".xml";
+
+    private static final long DEFAULT_MAX_SIZE = 256L * 1024 * 1024;
+
+    private static MACEResultCache defaultCache;
+
+    private final File directory;
+    private final long maxSize;
+
+    /**
+     * Creates a cache in the given directory
+     *
+     * @param directory directory (created if it does not exist)
+     * @param maxSize   maximal total size of all entries in bytes
+     */
+    public MACEResultCache(File directory, long maxSize)
+    {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Max size must be positive, was " + maxSize);
+        }
+
+        this.directory = directory;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Returns the shared cache in {@code mace-cache} under the system temp directory, or in
+     * the directory given by the system property {@code mace.cache.dir}
+     *
+     * @return cache
+     */
+    public static synchronized MACEResultCache getDefault()
+    {
+        if (defaultCache == null) {
+            File directory = new File(System.getProperty("mace.cache.dir",
+                    new File(System.getProperty("java.io.tmpdir"), "mace-cache").getPath()));
+            defaultCache = new MACEResultCache(directory, DEFAULT_MAX_SIZE);
+        }
+
+        return defaultCache;
+    }
+
+    /**
+     * Returns true if lookups should be skipped (system property {@code mace.cache.bypass})
+     *
+     * @return boolean
+     */
+    public static boolean isBypassed()
+    {
+        return Boolean.getBoolean("mace.cache.bypass");
+    }
+
+    /**
+     * Computes the cache key of a MACE run
+     *
+     * @param itemIds    item IDs in the order of matrix rows
+     * @param workerIds  worker IDs in the order of matrix columns
+     * @param annotations annotation matrix (items x workers), null for missing annotations
+     * @param options    MACE options
+     * @return hex-encoded SHA-256 hash
+     */
+    public static String fingerprint(Collection<?> itemIds, List<String> workerIds,
+            String[][] annotations, MACEOptions options)
+    {
+        return fingerprint(itemIds, workerIds, Arrays.asList(annotations), options);
+    }
+
+    /**
+     * Computes the cache key of a MACE run on the given store; the same as for its matrix, but
+     * only one row is materialized at a time
+     *
+     * @param store   annotations
+     * @param options MACE options
+     * @return hex-encoded SHA-256 hash
+     */
+    public static String fingerprint(MTurkAnnotationStore store, MACEOptions options)
+    {
+        return fingerprint(store.getItemIds(), store.getWorkerIds(), store.getRows(), options);
+    }
+
+    private static String fingerprint(Collection<?> itemIds, List<String> workerIds,
+            Iterable<String[]> annotations, MACEOptions options)
+    {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        StringBuilder sb = new StringBuilder();
+        sb.append(VERSION).append('\n');
+
+        for (Object itemId : itemIds) {
+            sb.append(itemId).append('\t');
+        }
+        sb.append('\n');
+
+        for (String workerId : workerIds) {
+            sb.append(workerId).append('\t');
+        }
+        sb.append('\n');
+        update(digest, sb);
+
+        // one row at a time; the matrix can be large
+        for (String[] row : annotations) {
+            for (String cell : row) {
+                // null and empty string are both "no annotation" in MACE but keep them apart
+                sb.append(cell == null ? "\u0000" : cell).append('\t');
+            }
+            sb.append('\n');
+            update(digest, sb);
+        }
+
+        sb.append("threshold=").append(options.getThreshold())
+                .append("\niterations=").append(options.getIterations())
+                .append("\nrestarts=").append(options.getRestarts())
+                .append("\nsmoothing=").append(options.getSmoothing())
+                .append("\nvariational=").append(options.isVariational())
+                .append("\nalpha=").append(options.getAlpha())
+                .append("\nbeta=").append(options.getBeta())
+                .append("\ncontrols=").append(Arrays.toString(options.getControls()))
+                .append("\nseed=").append(options.getSeed())
+                .append("\ntolerance=").append(options.getTolerance())
+                .append("\npruning=").append(options.getPruneAfter()).append(',')
+                .append(options.getPruneMargin())
+                .append("\nstochastic=").append(options.getBatchSize()).append(',')
+                .append(options.getTau()).append(',').append(options.getKappa())
+                .append("\nheldOut=").append(options.getHeldOut())
+                .append("\nbootstrap=").append(options.getBootstrapResamples()).append(',')
+                .append(options.getBootstrapIterations()).append(',')
+                .append(options.getBootstrapConfidence())
+                .append("\ndeterministic=").append(options.isDeterministic())
+                .append("\nvectorized=").append(options.isVectorized());
+        update(digest, sb);
+
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+
+        return hex.toString();
+    }
+
+    private static void update(MessageDigest digest, StringBuilder sb)
+    {
+        digest.update(sb.toString().getBytes(StandardCharsets.UTF_8));
+        sb.setLength(0);
+    }
+
+    /**
+     * Returns the cached output for the given key
+     *
+     * @param key key (see {@link #fingerprint(Collection, List, String[][], MACEOptions)})
+     * @return output or null if not cached (or if the cache is bypassed)
+     */
+    public synchronized MACEOutputContainer load(String key)
+    {
+        if (isBypassed()) {
+            return null;
+        }
+
+        File file = getFile(key);
+        if (!file.isFile()) {
+            return null;
+        }
+
+        try {
+            MACEOutputContainer result = (MACEOutputContainer) XStreamTools
+                    .fromXML(FileUtils.readFileToString(file, "utf-8"));
+
+            // for LRU eviction
+            file.setLastModified(System.currentTimeMillis());
+
+            return result;
+        }
+        catch (IOException | RuntimeException e) {
+            // corrupted or incompatible entry; recompute
+            System.err.println("Ignoring MACE cache entry " + file + ": " + e);
+            FileUtils.deleteQuietly(file);
+            return null;
+        }
+    }
+
+    /**
+     * Stores the output under the given key and evicts old entries if the cache is full.
+     * Failures are reported but not propagated; the cache is just an optimization.
+     *
+     * @param key    key
+     * @param output MACE output
+     */
+    public synchronized void store(String key, MACEOutputContainer output)
+    {
+        File file = getFile(key);
+        File tmpFile = new File(directory, key + ".tmp");
+
+        try {
+            FileUtils.forceMkdir(directory);
+
+            // write and rename so that a killed run leaves no half-written entry
+            XStreamTools.toXML(output, tmpFile);
+            FileUtils.deleteQuietly(file);
+            if (!tmpFile.renameTo(file)) {
+                throw new IOException("Cannot rename " + tmpFile + " to " + file);
+            }
+
+            evict();
+        }
+        catch (IOException e) {
+            System.err.println("Cannot store MACE cache entry " + file + ": " + e);
+            FileUtils.deleteQuietly(tmpFile);
+        }
+    }
+
+    /**
+     * Deletes the least recently used entries until the total size fits into the limit
+     */
+    private void evict()
+    {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        long totalSize = 0;
+        for (File file : files) {
+            totalSize += file.length();
+        }
+
+        if (totalSize <= maxSize) {
+            return;
+        }
+
+        Arrays.sort(files, new Comparator<File>()
+        {
+            @Override
+            public int compare(File o1, File o2)
+            {
+                return Long.compare(o1.lastModified(), o2.lastModified());
+            }
+        });
+
+        for (File file : files) {
+            if (totalSize <= maxSize) {
+                break;
+            }
+
+            if (file.getName().endsWith(SUFFIX)) {
+                totalSize -= file.length();
+                FileUtils.deleteQuietly(file);
+            }
+        }
+    }
+
+    private File getFile(String key)
+    {
+        return new File(directory, key + SUFFIX);
+    }
+}
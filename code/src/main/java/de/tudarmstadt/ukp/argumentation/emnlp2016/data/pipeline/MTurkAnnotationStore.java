@@ -0,0 +1,463 @@
+/*
+ * Copyright 2016
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.tudarmstadt.ukp.argumentation.emnlp2016.data.pipeline;
+
+import de.tudarmstadt.ukp.argumentation.emnlp2016.data.mace.MACE;
+import de.tudarmstadt.ukp.argumentation.emnlp2016.data.sampling.MTurkReasonUnitAssignment;
+
+import java.util.*;
+
+/**
+ * Sparse item x worker matrix of MTurk assignments. Items are kept in ascending order of their
+ * IDs, workers in ascending order of their IDs, and worker IDs and labels are interned to dense
+ * ints. The assignments are stored once, grouped by item (compressed rows, ordered by worker
+ * within an item); a compressed column index refers to them grouped by worker (ordered by item
+ * within a worker). Given an item or worker index, its assignments are available in O(1).
+ * <p>
+ * Instances are immutable; use {@link Builder} to create them.
+ */
+public class MTurkAnnotationStore
+{
+    /**
+     * Item IDs, ascending
+     */
+    private final int[] itemIds;
+
+    /**
+     * Worker IDs, ascending
+     */
+    private final String[] workerIds;
+
+    /**
+     * Labels in the order of their first appearance in the rows
+     */
+    private final String[] labels;
+
+    /**
+     * Rows: assignments of item i are at [itemOffsets[i], itemOffsets[i + 1])
+     */
+    private final int[] itemOffsets;
+    private final int[] itemWorkers;
+    private final int[] itemLabels;
+    private final MTurkReasonUnitAssignment[] assignments;
+
+    /**
+     * Columns: worker w has the entries [workerOffsets[w], workerOffsets[w + 1]), each entry is
+     * an item index and the position of the assignment in the rows
+     */
+    private final int[] workerOffsets;
+    private final int[] workerItems;
+    private final int[] workerRefs;
+
+    private MTurkAnnotationStore(int[] itemIds, String[] workerIds, String[] labels,
+            int[] itemOffsets, int[] itemWorkers, int[] itemLabels,
+            MTurkReasonUnitAssignment[] assignments, int[] workerOffsets, int[] workerItems,
+            int[] workerRefs)
+    {
+        this.itemIds = itemIds;
+        this.workerIds = workerIds;
+        this.labels = labels;
+        this.itemOffsets = itemOffsets;
+        this.itemWorkers = itemWorkers;
+        this.itemLabels = itemLabels;
+        this.assignments = assignments;
+        this.workerOffsets = workerOffsets;
+        this.workerItems = workerItems;
+        this.workerRefs = workerRefs;
+    }
+
+    public int getItemCount()
+    {
+        return itemIds.length;
+    }
+
+    public int getWorkerCount()
+    {
+        return workerIds.length;
+    }
+
+    public int getAssignmentCount()
+    {
+        return assignments.length;
+    }
+
+    public int getItemId(int itemIndex)
+    {
+        return itemIds[itemIndex];
+    }
+
+    /**
+     * Returns the index of the given item
+     *
+     * @param itemId item ID
+     * @return index or -1 if there are no assignments for this item
+     */
+    public int getItemIndex(int itemId)
+    {
+        int index = Arrays.binarySearch(itemIds, itemId);
+        return index < 0 ? -1 : index;
+    }
+
+    /**
+     * @return item IDs in ascending order (read-only view)
+     */
+    public List<Integer> getItemIds()
+    {
+        return new AbstractList<Integer>()
+        {
+            @Override
+            public Integer get(int index)
+            {
+                return itemIds[index];
+            }
+
+            @Override
+            public int size()
+            {
+                return itemIds.length;
+            }
+        };
+    }
+
+    public String getWorkerId(int workerIndex)
+    {
+        return workerIds[workerIndex];
+    }
+
+    /**
+     * Returns the index of the given worker
+     *
+     * @param workerId worker ID
+     * @return index or -1 if there are no assignments of this worker
+     */
+    public int getWorkerIndex(String workerId)
+    {
+        int index = Arrays.binarySearch(workerIds, workerId);
+        return index < 0 ? -1 : index;
+    }
+
+    /**
+     * @return worker IDs in ascending order (read-only)
+     */
+    public List<String> getWorkerIds()
+    {
+        return Collections.unmodifiableList(Arrays.asList(workerIds));
+    }
+
+    /**
+     * @return labels in the order of their first appearance (read-only)
+     */
+    public List<String> getLabels()
+    {
+        return Collections.unmodifiableList(Arrays.asList(labels));
+    }
+
+    /**
+     * Returns the assignments of the given item, ordered by worker
+     *
+     * @param itemIndex item index
+     * @return read-only view
+     */
+    public List<MTurkReasonUnitAssignment> getAssignmentsOfItem(int itemIndex)
+    {
+        final int from = itemOffsets[itemIndex];
+        final int to = itemOffsets[itemIndex + 1];
+
+        return new AbstractList<MTurkReasonUnitAssignment>()
+        {
+            @Override
+            public MTurkReasonUnitAssignment get(int index)
+            {
+                if (index < 0 || index >= to - from) {
+                    throw new IndexOutOfBoundsException(String.valueOf(index));
+                }
+                return assignments[from + index];
+            }
+
+            @Override
+            public int size()
+            {
+                return to - from;
+            }
+        };
+    }
+
+    /**
+     * Returns the assignments of the given worker, ordered by item
+     *
+     * @param workerIndex worker index
+     * @return read-only view
+     */
+    public List<MTurkReasonUnitAssignment> getAssignmentsOfWorker(int workerIndex)
+    {
+        final int from = workerOffsets[workerIndex];
+        final int to = workerOffsets[workerIndex + 1];
+
+        return new AbstractList<MTurkReasonUnitAssignment>()
+        {
+            @Override
+            public MTurkReasonUnitAssignment get(int index)
+            {
+                if (index < 0 || index >= to - from) {
+                    throw new IndexOutOfBoundsException(String.valueOf(index));
+                }
+                return assignments[workerRefs[from + index]];
+            }
+
+            @Override
+            public int size()
+            {
+                return to - from;
+            }
+        };
+    }
+
+    /**
+     * Returns the item indices annotated by the given worker, ascending
+     *
+     * @param workerIndex worker index
+     * @return new array
+     */
+    public int[] getItemsOfWorker(int workerIndex)
+    {
+        return Arrays.copyOfRange(workerItems, workerOffsets[workerIndex],
+                workerOffsets[workerIndex + 1]);
+    }
+
+    /**
+     * Returns the label of each worker for the given item
+     *
+     * @param itemIndex item index
+     * @return new array with one entry per worker, null for missing annotations
+     */
+    public String[] getRow(int itemIndex)
+    {
+        String[] result = new String[workerIds.length];
+        for (int k = itemOffsets[itemIndex]; k < itemOffsets[itemIndex + 1]; k++) {
+            result[itemWorkers[k]] = labels[itemLabels[k]];
+        }
+        return result;
+    }
+
+    /**
+     * @return rows of the item x worker matrix, computed on access (see {@link #getRow(int)})
+     */
+    public List<String[]> getRows()
+    {
+        return new AbstractList<String[]>()
+        {
+            @Override
+            public String[] get(int index)
+            {
+                return getRow(index);
+            }
+
+            @Override
+            public int size()
+            {
+                return itemIds.length;
+            }
+        };
+    }
+
+    /**
+     * Creates a MACE instance directly from the rows; items and workers are in the order of
+     * this store
+     *
+     * @return MACE instance
+     */
+    public MACE createMACE()
+    {
+        return new MACE(itemOffsets, itemWorkers, itemLabels, getLabels(), getWorkerIds());
+    }
+
+    /**
+     * Collects assignments and builds the store; not thread-safe
+     */
+    public static class Builder
+    {
+        private final Map<String, Integer> workerIndices = new HashMap<>();
+        private final List<String> workers = new ArrayList<>();
+
+        /**
+         * (item ID, worker) of each assignment
+         */
+        private final Set<Long> cells = new HashSet<>();
+
+        private final List<MTurkReasonUnitAssignment> assignments = new ArrayList<>();
+        private int[] entryItemIds = new int[1024];
+        private int[] entryWorkers = new int[1024];
+
+        /**
+         * Adds an assignment unless the worker already has one for this item
+         *
+         * @param itemId     item ID
+         * @param assignment assignment
+         * @return false if the worker already has an assignment for this item (nothing is added)
+         */
+        public boolean add(int itemId, MTurkReasonUnitAssignment assignment)
+        {
+            Integer worker = workerIndices.get(assignment.getTurkID());
+            if (worker == null) {
+                worker = workers.size();
+                workerIndices.put(assignment.getTurkID(), worker);
+                workers.add(assignment.getTurkID());
+            }
+
+            if (!cells.add(((long) itemId << 32) | worker)) {
+                return false;
+            }
+
+            int size = assignments.size();
+            if (size == entryItemIds.length) {
+                entryItemIds = Arrays.copyOf(entryItemIds, size * 2);
+                entryWorkers = Arrays.copyOf(entryWorkers, size * 2);
+            }
+            entryItemIds[size] = itemId;
+            entryWorkers[size] = worker;
+            assignments.add(assignment);
+
+            return true;
+        }
+
+        /**
+         * Returns the assignments added so far for the given item; linear in the number of
+         * assignments, meant for error reporting
+         *
+         * @param itemId item ID
+         * @return assignments in the order they were added
+         */
+        public List<MTurkReasonUnitAssignment> getAssignments(int itemId)
+        {
+            List<MTurkReasonUnitAssignment> result = new ArrayList<>();
+            for (int e = 0; e < assignments.size(); e++) {
+                if (entryItemIds[e] == itemId) {
+                    result.add(assignments.get(e));
+                }
+            }
+            return result;
+        }
+
+        public MTurkAnnotationStore build()
+        {
+            int size = assignments.size();
+
+            // sorted workers and the rank of each worker in the order of addition
+            String[] workerIds = workers.toArray(new String[workers.size()]);
+            Arrays.sort(workerIds);
+            int[] workerRanks = new int[workerIds.length];
+            for (int w = 0; w < workerRanks.length; w++) {
+                workerRanks[w] = Arrays.binarySearch(workerIds, workers.get(w));
+            }
+
+            // sorted distinct items
+            int[] sortedItems = Arrays.copyOf(entryItemIds, size);
+            Arrays.sort(sortedItems);
+            int numItems = 0;
+            for (int e = 0; e < size; e++) {
+                if (e == 0 || sortedItems[e] != sortedItems[numItems - 1]) {
+                    sortedItems[numItems++] = sortedItems[e];
+                }
+            }
+            int[] itemIds = Arrays.copyOf(sortedItems, numItems);
+
+            int[] entryItems = new int[size];
+            int[] entryWorkerRanks = new int[size];
+            int[] identity = new int[size];
+            for (int e = 0; e < size; e++) {
+                entryItems[e] = Arrays.binarySearch(itemIds, entryItemIds[e]);
+                entryWorkerRanks[e] = workerRanks[entryWorkers[e]];
+                identity[e] = e;
+            }
+
+            // rows ordered by worker: stable bucket sort by worker, then by item
+            int[] itemOffsets = new int[numItems + 1];
+            int[] byWorker = bucketSort(identity, entryWorkerRanks, workerIds.length,
+                    new int[workerIds.length + 1]);
+            int[] rows = bucketSort(byWorker, entryItems, numItems, itemOffsets);
+
+            int[] itemWorkers = new int[size];
+            int[] itemLabels = new int[size];
+            MTurkReasonUnitAssignment[] rowAssignments = new MTurkReasonUnitAssignment[size];
+            Map<String, Integer> labelIndices = new HashMap<>();
+            List<String> labels = new ArrayList<>();
+            for (int k = 0; k < size; k++) {
+                MTurkReasonUnitAssignment assignment = assignments.get(rows[k]);
+                rowAssignments[k] = assignment;
+                itemWorkers[k] = entryWorkerRanks[rows[k]];
+
+                Integer label = labelIndices.get(assignment.getValue());
+                if (label == null) {
+                    label = labels.size();
+                    labelIndices.put(assignment.getValue(), label);
+                    labels.add(assignment.getValue());
+                }
+                itemLabels[k] = label;
+            }
+
+            // columns ordered by item: stable bucket sort of the rows by worker
+            int[] rowPositions = new int[size];
+            int[] rowItems = new int[size];
+            for (int i = 0; i < numItems; i++) {
+                for (int k = itemOffsets[i]; k < itemOffsets[i + 1]; k++) {
+                    rowPositions[k] = k;
+                    rowItems[k] = i;
+                }
+            }
+            int[] workerOffsets = new int[workerIds.length + 1];
+            int[] workerRefs = bucketSort(rowPositions, itemWorkers, workerIds.length,
+                    workerOffsets);
+            int[] workerItems = new int[size];
+            for (int j = 0; j < size; j++) {
+                workerItems[j] = rowItems[workerRefs[j]];
+            }
+
+            return new MTurkAnnotationStore(itemIds, workerIds,
+                    labels.toArray(new String[labels.size()]), itemOffsets, itemWorkers,
+                    itemLabels, rowAssignments, workerOffsets, workerItems, workerRefs);
+        }
+
+        /**
+         * Stable counting sort
+         *
+         * @param order   entries in their current order
+         * @param keys    key of each entry, in [0, numKeys)
+         * @param numKeys number of keys
+         * @param offsets output: entries with key k are at [offsets[k], offsets[k + 1]) of the
+         *                result; numKeys + 1 entries
+         * @return entries ordered by key
+         */
+        private static int[] bucketSort(int[] order, int[] keys, int numKeys, int[] offsets)
+        {
+            for (int entry : order) {
+                offsets[keys[entry] + 1]++;
+            }
+            for (int k = 0; k < numKeys; k++) {
+                offsets[k + 1] += offsets[k];
+            }
+
+            int[] next = Arrays.copyOf(offsets, numKeys);
+            int[] result = new int[order.length];
+            for (int entry : order) {
+                result[next[keys[entry]]++] = entry;
+            }
+            return result;
+        }
+    }
+}
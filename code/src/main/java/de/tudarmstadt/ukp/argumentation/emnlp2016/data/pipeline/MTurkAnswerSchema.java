@@ -0,0 +1,229 @@
+/*
+ * Copyright 2016
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.tudarmstadt.ukp.argumentation.emnlp2016.data.pipeline;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Answer columns of an MTurk output header, parsed once instead of for every row. A column
+ * "Answer.46566_q4_group" is an answer to question "q4_group" about reason unit 46566; other
+ * "Answer.*" columns (such as "Answer.feedback") are kept with their answer name only, and
+ * columns without the "Answer." prefix are skipped.
+ */
+public class MTurkAnswerSchema
+{
+    private static final String ANSWER_PREFIX = "Answer.";
+
+    /**
+     * [i] position in the header, column name, name without the prefix, reason unit ID (-1 if
+     * the column is not an answer about a reason unit) and question ID (null if so)
+     */
+    private final int[] columns;
+    private final String[] columnNames;
+    private final String[] answerNames;
+    private final int[] reasonUnitIds;
+    private final String[] questionIds;
+
+    private MTurkAnswerSchema(List<Integer> columns, List<String> columnNames)
+    {
+        int size = columns.size();
+        this.columns = new int[size];
+        this.columnNames = columnNames.toArray(new String[size]);
+        this.answerNames = new String[size];
+        this.reasonUnitIds = new int[size];
+        this.questionIds = new String[size];
+
+        for (int i = 0; i < size; i++) {
+            this.columns[i] = columns.get(i);
+
+            //        Answer.46566_q4_group
+            String answerName = this.columnNames[i].substring(ANSWER_PREFIX.length());
+            answerNames[i] = answerName;
+            reasonUnitIds[i] = -1;
+
+            int separator = answerName.indexOf('_');
+            if (separator > 0 && isDigits(answerName, 0, separator)) {
+                try {
+                    reasonUnitIds[i] = Integer.parseInt(answerName.substring(0, separator));
+                    questionIds[i] = answerName.substring(separator + 1);
+                }
+                catch (NumberFormatException e) {
+                    // too large for an ID
+                }
+            }
+        }
+    }
+
+    /**
+     * Compiles the schema of a file header
+     *
+     * @param header column names in the order of the cells
+     * @return schema; column positions refer to the header
+     */
+    public static MTurkAnswerSchema compile(String[] header)
+    {
+        List<Integer> columns = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < header.length; i++) {
+            if (header[i] != null && header[i].startsWith(ANSWER_PREFIX)) {
+                columns.add(i);
+                names.add(header[i]);
+            }
+        }
+
+        return new MTurkAnswerSchema(columns, names);
+    }
+
+    /**
+     * Compiles the schema from a collection of column names, e.g., of records read as maps
+     *
+     * @param columnNames column names
+     * @return schema; answer columns are in the iteration order of the collection
+     */
+    public static MTurkAnswerSchema compile(Collection<String> columnNames)
+    {
+        return compile(columnNames.toArray(new String[columnNames.size()]));
+    }
+
+    /**
+     * @return number of answer columns
+     */
+    public int size()
+    {
+        return columns.length;
+    }
+
+    /**
+     * @return position of the i-th answer column in the header
+     */
+    public int getColumn(int i)
+    {
+        return columns[i];
+    }
+
+    /**
+     * @return full name of the i-th answer column, e.g., "Answer.46566_q4_group"
+     */
+    public String getColumnName(int i)
+    {
+        return columnNames[i];
+    }
+
+    /**
+     * @return name of the i-th answer column without "Answer.", e.g., "46566_q4_group"
+     */
+    public String getAnswerName(int i)
+    {
+        return answerNames[i];
+    }
+
+    /**
+     * @return true if the i-th answer column is an answer about a reason unit
+     */
+    public boolean isReasonUnitAnswer(int i)
+    {
+        return reasonUnitIds[i] >= 0;
+    }
+
+    /**
+     * @return reason unit ID of the i-th answer column, e.g., 46566; -1 if none
+     */
+    public int getReasonUnitId(int i)
+    {
+        return reasonUnitIds[i];
+    }
+
+    /**
+     * @return question ID of the i-th answer column, e.g., "q4_group"; null if none
+     */
+    public String getQuestionId(int i)
+    {
+        return questionIds[i];
+    }
+
+    /**
+     * Extracts the label (category) from cell value, i.e., "o8_q1_o7_1" is "o7_1": the text
+     * between the first and the second "_q[digits]_" separator
+     *
+     * @param answer cell value
+     * @return label
+     * @throws IllegalArgumentException if the value contains no label
+     */
+    public static String extractLabel(String answer)
+    {
+        int start = findSeparatorEnd(answer, 0);
+        if (start < 0) {
+            throw new IllegalArgumentException("No label in answer " + answer);
+        }
+
+        // up to the next separator
+        int end = answer.length();
+        for (int i = answer.indexOf("_q", start); i >= 0; i = answer.indexOf("_q", i + 1)) {
+            if (separatorEndAt(answer, i) >= 0) {
+                end = i;
+                break;
+            }
+        }
+
+        if (start == end && end == answer.length()) {
+            throw new IllegalArgumentException("No label in answer " + answer);
+        }
+
+        return answer.substring(start, end);
+    }
+
+    /**
+     * @return end of the first "_q[digits]_" separator at or after from, -1 if there is none
+     */
+    private static int findSeparatorEnd(String s, int from)
+    {
+        for (int i = s.indexOf("_q", from); i >= 0; i = s.indexOf("_q", i + 1)) {
+            int end = separatorEndAt(s, i);
+            if (end >= 0) {
+                return end;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return end of the "_q[digits]_" separator starting at i, -1 if there is none
+     */
+    private static int separatorEndAt(String s, int i)
+    {
+        int digitsStart = i + 2;
+        int j = digitsStart;
+        while (j < s.length() && s.charAt(j) >= '0' && s.charAt(j) <= '9') {
+            j++;
+        }
+        return j > digitsStart && j < s.length() && s.charAt(j) == '_' ? j + 1 : -1;
+    }
+
+    private static boolean isDigits(String s, int from, int to)
+    {
+        for (int i = from; i < to; i++) {
+            if (s.charAt(i) < '0' || s.charAt(i) > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -19,23 +19,23 @@
 package de.tudarmstadt.ukp.argumentation.emnlp2016.data.pipeline;
 
 import de.tudarmstadt.ukp.argumentation.emnlp2016.data.annotation.MTurkHITContainer;
-import de.tudarmstadt.ukp.argumentation.emnlp2016.data.mace.MACE;
+import de.tudarmstadt.ukp.argumentation.emnlp2016.data.mace.MACEOptions;
+import de.tudarmstadt.ukp.argumentation.emnlp2016.data.mace.MACEResult;
+import de.tudarmstadt.ukp.argumentation.emnlp2016.data.mace.MACEState;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.time.FastDateFormat;
 import org.apache.commons.math.stat.descriptive.DescriptiveStatistics;
 import de.tudarmstadt.ukp.argumentation.emnlp2016.data.sampling.IOHelper;
 import de.tudarmstadt.ukp.argumentation.emnlp2016.data.sampling.MTurkOutputReader;
 import de.tudarmstadt.ukp.argumentation.emnlp2016.data.sampling.MTurkReasonUnitAssignment;
+import de.tudarmstadt.ukp.argumentation.emnlp2016.data.sampling.XStreamTools;
 
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.text.DateFormat;
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.*;
 
 /**
@@ -45,24 +45,46 @@ import java.util.*;
  */
 public class MTurkGoldLabelProvider
         implements GoldLabelProvider {
-    private static final DateFormat DATE_FORMAT = new SimpleDateFormat("EEE MMM d HH:mm:ss z yyyy",
-            Locale.US);
+    /**
+     * EM iterations of each bootstrap refit; they start from the full fit
+     */
+    private static final int BOOTSTRAP_ITERATIONS = 50;
+
+    /**
+     * Immutable and thread-safe, files are parsed concurrently
+     */
+    private static final FastDateFormat DATE_FORMAT = FastDateFormat
+            .getInstance("EEE MMM d HH:mm:ss z yyyy", Locale.US);
     private final double threshold;
 
-    private MACEOutputContainer maceOutputAll;
-    private Map<String, List<String>> feedbacks;
+    /**
+     * Gold data predictions; computed once, on first use
+     */
+    private volatile MACEOutputContainer maceOutputAll;
 
-    private boolean ignoreRejected = false;
+    /**
+     * MACE model of a previous run to start from (may be null) and number of EM iterations
+     */
+    private MACEState initialMACEState;
+    private int warmStartIterations;
 
     /**
-     * Map (item ID, map (WorkerID, Assignment))
+     * Cache of MACE outputs (may be null)
      */
-    private final SortedMap<Integer, Map<String, MTurkReasonUnitAssignment>> extractedRawDataItemView;
+    private MACEResultCache resultCache;
 
     /**
-     * Map (Worker ID, map (item ID, Assignment))
+     * Number of bootstrap resamples for competence intervals (0 = none)
      */
-    private SortedMap<String, SortedMap<Integer, MTurkReasonUnitAssignment>> extractedRawDataWorkerView;
+    private int bootstrapResamples;
+    private Map<String, List<String>> feedbacks;
+
+    private boolean ignoreRejected = false;
+
+    /**
+     * Assignments by item and by worker
+     */
+    private final MTurkAnnotationStore annotationStore;
 
     /**
      * Estimates gold labels from the given MTurk file
@@ -78,57 +100,60 @@ public class MTurkGoldLabelProvider
                 .listAllOptions(true);
 
         // extract raw data
-        extractedRawDataItemView = extractAnnotationsFromFile(files, finalCategories.keySet(),
+        annotationStore = extractAnnotationsFromFile(files, finalCategories.keySet(),
                 readOnlyAcceptedOrRejected);
     }
 
     /**
-     * Lazy initialization of gold data predictions
+     * Estimates gold labels from the annotations of the given MTurk files that were ingested
+     * into the segment store, without parsing the files again; other files in the store are
+     * ignored
+     *
+     * @param segmentStore store of parsed MTurk files
+     * @param files        CSV files from MTurk, ingested before
+     * @param threshold    MACE threshold
+     * @throws IOException exception
      */
-    private void computeGoldData() {
-        try {
-            maceOutputAll = estimateGoldDataUsingMACE(extractedRawDataItemView, this.threshold);
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
-
-        // make a new view (for each worker)
-        extractedRawDataWorkerView = transformItemViewToWorkerView(extractedRawDataItemView);
-
-        // update scores for each worker
-        for (Map.Entry<String, SortedMap<Integer, MTurkReasonUnitAssignment>> entry : extractedRawDataWorkerView.entrySet()) {
-            // get worker competence
-            Double competence = maceOutputAll.getCompetences().get(entry.getKey());
+    public MTurkGoldLabelProvider(MTurkSegmentStore segmentStore, List<File> files,
+            double threshold)
+            throws IOException {
+        this.threshold = threshold;
 
-            // and add to all his entries
-            for (MTurkReasonUnitAssignment assignment : entry.getValue().values()) {
-                assignment.setTurkCompetence(competence);
-            }
-        }
+        annotationStore = mergeAnnotations(segmentStore.load(files));
     }
 
     /**
-     * Creates a new map with main key - worker ID
+     * Lazy initialization of gold data predictions; they are computed exactly once, also if
+     * several threads ask for them at the same time
      *
-     * @param extractedRawDataItemView existing raw map - main key is item id
-     * @return new map ("view")
+     * @return predictions
      */
-    private static SortedMap<String, SortedMap<Integer, MTurkReasonUnitAssignment>> transformItemViewToWorkerView(
-            SortedMap<Integer, Map<String, MTurkReasonUnitAssignment>> extractedRawDataItemView) {
-        SortedMap<String, SortedMap<Integer, MTurkReasonUnitAssignment>> result = new TreeMap<>();
-
-        for (Map.Entry<Integer, Map<String, MTurkReasonUnitAssignment>> entry : extractedRawDataItemView
-                .entrySet()) {
-            Integer itemId = entry.getKey();
-            Map<String, MTurkReasonUnitAssignment> itemAssignments = entry.getValue();
-
-            for (MTurkReasonUnitAssignment assignment : itemAssignments.values()) {
-                String turkID = assignment.getTurkID();
-                if (!result.containsKey(turkID)) {
-                    result.put(turkID, new TreeMap<Integer, MTurkReasonUnitAssignment>());
-                }
+    private MACEOutputContainer getMACEOutput() {
+        MACEOutputContainer result = maceOutputAll;
+        if (result == null) {
+            synchronized (this) {
+                result = maceOutputAll;
+                if (result == null) {
+                    result = estimateGoldDataUsingMACE(annotationStore, this.threshold,
+                            this.initialMACEState, this.warmStartIterations,
+                            this.bootstrapResamples, this.resultCache);
+
+                    // update scores for each worker
+                    for (int w = 0; w < annotationStore.getWorkerCount(); w++) {
+                        // get worker competence
+                        Double competence = result.getCompetences()
+                                .get(annotationStore.getWorkerId(w));
+
+                        // and add to all his entries
+                        for (MTurkReasonUnitAssignment assignment : annotationStore
+                                .getAssignmentsOfWorker(w)) {
+                            assignment.setTurkCompetence(competence);
+                        }
+                    }
 
-                result.get(turkID).put(itemId, assignment);
+                    // published only when complete
+                    maceOutputAll = result;
+                }
             }
         }
 
@@ -136,29 +161,55 @@ public class MTurkGoldLabelProvider
     }
 
     /**
-     * Extracts annotations from a single CSV file
+     * Extracts annotations from the CSV files; the files are parsed concurrently and merged in
+     * the given order
      *
-     * @param csvFile                    MTurk file
+     * @param csvFile                    MTurk files
      * @param allowedLabels              one of these labels must be selected
      * @param readOnlyAcceptedOrRejected if false, also assignments in "Submitted" state are allowed
-     * @return map (reasonUnit ID; map(worker ID; assignment))
+     * @return assignments by reasonUnit ID and worker ID
      * @throws IOException exception
      */
-    SortedMap<Integer, Map<String, MTurkReasonUnitAssignment>> extractAnnotationsFromFile(
-            List<File> csvFile, Set<String> allowedLabels, boolean readOnlyAcceptedOrRejected)
+    MTurkAnnotationStore extractAnnotationsFromFile(
+            List<File> csvFile, final Set<String> allowedLabels,
+            final boolean readOnlyAcceptedOrRejected)
             throws IOException {
-        MTurkOutputReader reader = new MTurkOutputReader(readOnlyAcceptedOrRejected, csvFile.toArray(new File[csvFile.size()]));
+        List<FileAnnotations> fileAnnotations = IOHelper.processFiles(csvFile,
+                new IOHelper.FileTask<FileAnnotations>() {
+                    @Override
+                    public FileAnnotations process(File file) throws IOException {
+                        return extractAnnotationsFromSingleFile(file, allowedLabels,
+                                readOnlyAcceptedOrRejected);
+                    }
+                });
+
+        return mergeAnnotations(fileAnnotations);
+    }
 
-        removeIncostistentRejectedRows(reader, allowedLabels);
+    /**
+     * Merges the annotations of several files in the given order and collects the feedbacks
+     *
+     * @param fileAnnotations annotations of the files
+     * @return assignments by reasonUnit ID and worker ID
+     */
+    private MTurkAnnotationStore mergeAnnotations(List<FileAnnotations> fileAnnotations) {
+        // inconsistent rows of all files
+        List<String> errorRows = new ArrayList<>();
+        for (FileAnnotations annotations : fileAnnotations) {
+            errorRows.addAll(annotations.errorRows);
+        }
+        if (!errorRows.isEmpty()) {
+            throw new IllegalStateException(StringUtils.join(errorRows, "\n"));
+        }
 
-        SortedMap<Integer, Map<String, MTurkReasonUnitAssignment>> result = new TreeMap<>();
+        MTurkAnnotationStore.Builder result = new MTurkAnnotationStore.Builder();
 
         feedbacks = new TreeMap<>();
 
-        for (Map<String, String> row : reader) {
-            String feedback = row.get("Answer.feedback");
-            if (feedback != null) {
-                String workerID = row.get("workerid");
+        for (FileAnnotations annotations : fileAnnotations) {
+            for (int i = 0; i < annotations.feedbackWorkerIds.size(); i++) {
+                String workerID = annotations.feedbackWorkerIds.get(i);
+                String feedback = annotations.feedbacks.get(i);
                 if (!feedbacks.containsKey(workerID)) {
                     feedbacks.put(workerID, new ArrayList<String>());
                 }
@@ -167,98 +218,115 @@ public class MTurkGoldLabelProvider
                 System.out.println(feedback);
             }
 
-            // extract all assignments
-
-            for (String columnKey : row.keySet()) {
-                String reasonUnitID = extractAnnotatedReasonUnitID(columnKey);
-
-                if (reasonUnitID != null) {
-                    //                    System.out.println("ReasonUnitID: " + reasonUnitID);
-
-                    String cellValue = row.get(columnKey);
-
-                    //                    System.out.println(cellValue);
-
-                    String label = extractLabelromAnswer(cellValue);
-
-                    // if this is the final category, we'll create a new mTurk assignment
-                    if (allowedLabels.contains(label)) {
-                        MTurkReasonUnitAssignment assignment = createAssignmentFromRow(row, label);
-
-                        int reasonUnitIdInt = Integer.valueOf(reasonUnitID);
+            for (int i = 0; i < annotations.assignments.size(); i++) {
+                MTurkReasonUnitAssignment assignment = annotations.assignments.get(i);
+                int reasonUnitIdInt = annotations.reasonUnitIds.get(i);
+
+                // we cannot have the more results for the same worker
+                if (!result.add(reasonUnitIdInt, assignment)) {
+                    System.out.println(
+                            "Existing assignments: " + result.getAssignments(reasonUnitIdInt));
+                    System.out.println("cell value: " + annotations.cellValues.get(i));
+                    throw new IllegalStateException(
+                            "We already have assignment from this worker");
+                }
+            }
+        }
 
-                        if (!result.containsKey(reasonUnitIdInt)) {
-                            result.put(reasonUnitIdInt,
-                                    new TreeMap<String, MTurkReasonUnitAssignment>());
-                        }
+        return result.build();
+    }
 
-                        // we cannot have the more results for the same worker
-                        Set<String> existingWorkerOnThisItem = result.get(reasonUnitIdInt).keySet();
+    /**
+     * Assignments and feedbacks of a single file, in the order of rows and columns; the
+     * assignments of a row are consecutive
+     */
+    static class FileAnnotations {
+        final List<String> errorRows = new ArrayList<>();
 
-                        if (existingWorkerOnThisItem.contains(assignment.getTurkID())) {
-                            System.out.println(
-                                    "Existing assignments: " + result.get(reasonUnitIdInt));
-                            System.out.println("cell value: " + cellValue);
-                            throw new IllegalStateException(
-                                    "We already have assignment from this worker");
-                        }
+        final List<String> feedbackAssignmentIds = new ArrayList<>();
+        final List<String> feedbackWorkerIds = new ArrayList<>();
+        final List<String> feedbacks = new ArrayList<>();
 
-                        // and add to the set
-                        result.get(reasonUnitIdInt).put(assignment.getTurkID(), assignment);
-                    }
+        final List<MTurkReasonUnitAssignment> assignments = new ArrayList<>();
+        final List<Integer> reasonUnitIds = new ArrayList<>();
+        final List<String> cellValues = new ArrayList<>();
+    }
 
-                    //                    System.out.println(category);
-                }
-            }
+    /**
+     * Extracts annotations from a single CSV file in one pass over its rows; safe to call from
+     * several threads. Rejected rows with more than one answer for the same question are
+     * skipped; other such rows are inconsistent and reported as errors.
+     *
+     * @param csvFile                    MTurk file
+     * @param allowedLabels              one of these labels must be selected
+     * @param readOnlyAcceptedOrRejected if false, also assignments in "Submitted" state are allowed
+     * @return annotations of the file
+     * @throws IOException exception
+     */
+    static FileAnnotations extractAnnotationsFromSingleFile(File csvFile,
+            Set<String> allowedLabels, boolean readOnlyAcceptedOrRejected)
+            throws IOException {
+        // rows are only needed once, no need to keep them; the file is closed even if
+        // extraction fails
+        try (MTurkOutputReader reader = new MTurkOutputReader(new HashSet<String>(),
+                readOnlyAcceptedOrRejected, true, csvFile)) {
+            // parse the column names once
+            return extractAnnotations(reader, MTurkAnswerSchema.compile(reader.getColumnNames()),
+                    allowedLabels, false);
         }
-
-        return result;
     }
 
     /**
-     * Removes all rows from the MTurk output that have been rejected. If the row is inconsistent
-     * (multiple assignments from the same worker for the same question), an exception is thrown
+     * Extracts annotations from the given rows, see
+     * {@link #extractAnnotationsFromSingleFile(File, Set, boolean)}
      *
-     * @param reader        reader
-     * @param allowedLabels final labels for questions
+     * @param rows                  rows as maps (column name, value) of the non-empty cells
+     * @param schema                answer columns of the rows
+     * @param allowedLabels         one of these labels must be selected
+     * @param skipInconsistentRows  if true, only the inconsistent rows are skipped; otherwise
+     *                              no row after the first inconsistent one is extracted
+     * @return annotations of the rows
      */
-    private void removeIncostistentRejectedRows(MTurkOutputReader reader, Set<String> allowedLabels) {
-        Iterator<Map<String, String>> iterator = reader.iterator();
+    static FileAnnotations extractAnnotations(Iterable<Map<String, String>> rows,
+            MTurkAnswerSchema schema, Set<String> allowedLabels, boolean skipInconsistentRows) {
+        FileAnnotations result = new FileAnnotations();
 
-        List<String> errorRows = new ArrayList<>();
+        // final answers of the current row: (reasonUnit ID; label) and the answer columns
+        Map<Integer, String> rowLabels = new LinkedHashMap<>();
+        List<String> rowCellValues = new ArrayList<>();
 
-        while (iterator.hasNext()) {
-            Map<String, String> row = iterator.next();
+        for (Map<String, String> row : rows) {
+            rowLabels.clear();
+            rowCellValues.clear();
 
             boolean removeRow = false;
+            boolean inconsistentRow = false;
 
-            Map<String, MTurkReasonUnitAssignment> singleRowAssignments = new TreeMap<>();
-
-            for (String columnKey : row.keySet()) {
-                String reasonUnitID = extractAnnotatedReasonUnitID(columnKey);
+            for (int i = 0; i < schema.size(); i++) {
+                String cellValue = row.get(schema.getColumnName(i));
 
                 // only if this is an answer to a question with ID
-                if (reasonUnitID != null) {
-                    String cellValue = row.get(columnKey);
+                if (schema.isReasonUnitAnswer(i) && cellValue != null) {
+                    int reasonUnitID = schema.getReasonUnitId(i);
 
-                    String category = extractLabelromAnswer(cellValue);
+                    String label = MTurkAnswerSchema.extractLabel(cellValue);
 
                     // if this is the final category, we'll create a new mTurk assignment
-                    if (allowedLabels.contains(category)) {
-                        MTurkReasonUnitAssignment assignment = createAssignmentFromRow(row,
-                                category);
+                    if (allowedLabels.contains(label)) {
+                        String previousLabel = rowLabels.get(reasonUnitID);
 
-                        if (!singleRowAssignments.containsKey(reasonUnitID)) {
-                            singleRowAssignments.put(reasonUnitID, assignment);
+                        if (previousLabel == null) {
+                            rowLabels.put(reasonUnitID, label);
+                            rowCellValues.add(cellValue);
                         } else {
                             if ("Rejected".equals(row.get("assignmentstatus"))) {
                                 // remove this line
                                 removeRow = true;
                             } else {
-                                errorRows.add(
+                                inconsistentRow = true;
+                                result.errorRows.add(
                                         "More than one answer for " + reasonUnitID + ": "
-                                                + singleRowAssignments.get(reasonUnitID).getValue()
-                                                + " vs. " + assignment.getValue()
+                                                + previousLabel + " vs. " + label
                                                 + ", inconsistent row. " + row + "\n" +
                                                 "This HIT has should have been rejected");
                             }
@@ -267,27 +335,42 @@ public class MTurkGoldLabelProvider
                 }
             }
 
-            // remove it
-            if (removeRow) {
-                iterator.remove();
+            // unless skipped, the file fails anyway; only collect the remaining errors
+            if (removeRow || inconsistentRow
+                    || (!skipInconsistentRows && !result.errorRows.isEmpty())) {
+                continue;
             }
-        }
 
-        if (!errorRows.isEmpty()) {
-            throw new IllegalStateException(StringUtils.join(errorRows, "\n"));
+            String feedback = row.get("Answer.feedback");
+            if (feedback != null) {
+                result.feedbackAssignmentIds.add(row.get("assignmentid"));
+                result.feedbackWorkerIds.add(row.get("workerid"));
+                result.feedbacks.add(feedback);
+            }
+
+            // extract all assignments
+            if (!rowLabels.isEmpty()) {
+                List<MTurkReasonUnitAssignment> assignments = createAssignmentsFromRow(row,
+                        rowLabels.values());
+
+                result.assignments.addAll(assignments);
+                result.reasonUnitIds.addAll(rowLabels.keySet());
+                result.cellValues.addAll(rowCellValues);
+            }
         }
 
+        return result;
     }
 
     /**
-     * Creates a new assignment and fills required fields
+     * Creates new assignments and fills required fields; the times are parsed once per row
      *
      * @param record row
-     * @param value  selected answer (label) by worker
-     * @return new instance
+     * @param values selected answers (labels) by worker
+     * @return new instances in the order of the values
      */
-    private static MTurkReasonUnitAssignment createAssignmentFromRow(Map<String, String> record,
-                                                                     String value) {
+    private static List<MTurkReasonUnitAssignment> createAssignmentsFromRow(
+            Map<String, String> record, Collection<String> values) {
         String hitID = record.get("hitid");
         String workerID = record.get("workerid");
         String assignmentId = record.get("assignmentid");
@@ -296,58 +379,73 @@ public class MTurkGoldLabelProvider
             Date acceptTime = DATE_FORMAT.parse(record.get("assignmentaccepttime"));
             Date submitTime = DATE_FORMAT.parse(record.get("assignmentsubmittime"));
 
-            return new MTurkReasonUnitAssignment(workerID, hitID, assignmentId, acceptTime,
-                    submitTime, value);
+            List<MTurkReasonUnitAssignment> result = new ArrayList<>(values.size());
+            for (String value : values) {
+                result.add(new MTurkReasonUnitAssignment(workerID, hitID, assignmentId,
+                        acceptTime, submitTime, value));
+            }
+            return result;
         } catch (ParseException e) {
             throw new RuntimeException(e);
         }
     }
 
     /**
-     * Extracts the label (categoery) from cell value, i.e., "o8_q1_o7_1" is "o7_1"
+     * Runs MACE on the given annotations
      *
-     * @param answer cell value
-     * @return label
+     * @param annotations         assignments by reasonUnit ID and worker ID
+     * @param threshold           MACE threshold
+     * @param initialState        model of a previous run to start from; null for random restarts
+     * @param warmStartIterations number of EM iterations when starting from initialState
+     * @param bootstrapResamples  number of bootstrap resamples for competence intervals (0 =
+     *                            none)
+     * @param cache               cache of previous results; null for no caching. Warm-started
+     *                            runs are never cached
+     * @return predictions, competences and the trained model
      */
-    private static String extractLabelromAnswer(String answer) {
-        return answer.split("_q\\d+_")[1];
-    }
-
     static MACEOutputContainer estimateGoldDataUsingMACE(
-            SortedMap<Integer, Map<String, MTurkReasonUnitAssignment>> annotations,
-            double threshold)
-            throws IOException {
-        // get sorted turkers
-        SortedSet<String> turkerIDsSet = getAllTurkers(annotations);
-        List<String> turkerIDs = new ArrayList<>(turkerIDsSet);
-        // save CSV and run MACE
-        String preparedCSV = prepareCSV(annotations, turkerIDs);
-
-        Path tmpDir = Files.createTempDirectory("mace");
-        File maceInputFile = new File(tmpDir.toFile(), "input.csv");
-        FileUtils.writeStringToFile(maceInputFile, preparedCSV, "utf-8");
-
-        File outputPredictions = new File(tmpDir.toFile(), "predictions.txt");
-        File outputCompetence = new File(tmpDir.toFile(), "competence.txt");
+            MTurkAnnotationStore annotations,
+            double threshold, MACEState initialState, int warmStartIterations,
+            int bootstrapResamples, MACEResultCache cache) {
+        // sorted turkers
+        List<String> turkerIDs = annotations.getWorkerIds();
 
         // run MACE
-        MACE.main(new String[]{"--iterations", "500", "--threshold", String.valueOf(threshold),
-                "--restarts", "50", "--outputPredictions", outputPredictions.getAbsolutePath(),
-                "--outputCompetence", outputCompetence.getAbsolutePath(),
-                maceInputFile.getAbsolutePath()});
+        MACEOptions options = new MACEOptions();
+        options.setThreshold(threshold);
+        if (initialState != null) {
+            options.setIterations(warmStartIterations);
+            options.setInitialState(initialState);
+        } else {
+            options.setIterations(500);
+            options.setRestarts(50);
+        }
+        if (bootstrapResamples > 0) {
+            // the refits run on one thread per core by default
+            options.setBootstrap(bootstrapResamples, BOOTSTRAP_ITERATIONS, 0.95);
+        }
+        // the model to start from is not part of the key
+        String cacheKey = null;
+        if (cache != null && initialState == null) {
+            cacheKey = MACEResultCache.fingerprint(annotations, options);
+            MACEOutputContainer cached = cache.load(cacheKey);
+            if (cached != null) {
+                return cached;
+            }
+        }
 
-        // read back the predictions and competence
-        List<String> predictions = FileUtils.readLines(outputPredictions, "utf-8");
+        // no intermediate matrix, MACE reads the rows of the store
+        MACEResult maceResult = annotations.createMACE().run(options);
 
         // check the output
-        if (predictions.size() != annotations.size()) {
+        String[] predictions = maceResult.getPredictions();
+        if (predictions.length != annotations.getItemCount()) {
             throw new IllegalStateException(
-                    "Wrong size of the predicted file; expected " + annotations.size()
-                            + " lines but was " + predictions.size());
+                    "Wrong number of predictions; expected " + annotations.getItemCount()
+                            + " but was " + predictions.length);
         }
 
-        String competenceRaw = FileUtils.readFileToString(outputCompetence, "utf-8");
-        String[] competence = competenceRaw.split("\t");
+        double[] competence = maceResult.getCompetences();
         if (competence.length != turkerIDs.size()) {
             throw new IllegalStateException(
                     "Expected " + turkerIDs.size() + " competence number, got "
@@ -359,168 +457,214 @@ public class MTurkGoldLabelProvider
         for (int i = 0; i < competence.length; i++) {
             // get worker ID
             String worker = turkerIDs.get(i);
-            // and competence
-            Double c = Double.valueOf(competence[i]);
 
-            competences.put(worker, c);
+            competences.put(worker, competence[i]);
         }
 
         SortedMap<Integer, String> goldLabels = new TreeMap<>();
 
-        // both lists have the same order
-        Iterator<String> predictionsIterator = predictions.iterator();
-        for (Integer id : annotations.keySet()) {
-            String predictedLabelLine = predictionsIterator.next().trim();
+        // both have the same order
+        int predictionIndex = 0;
+        for (Integer id : annotations.getItemIds()) {
+            String predictedLabel = predictions[predictionIndex++];
 
-            // if the line is empty, the label was not estimated (see threshold param in MACE)
-            if (!predictedLabelLine.isEmpty()) {
-                goldLabels.put(id, predictedLabelLine);
+            // if the label is empty, it was not estimated (see threshold param in MACE)
+            if (!predictedLabel.isEmpty()) {
+                goldLabels.put(id, predictedLabel);
             }
         }
 
         MACEOutputContainer result = new MACEOutputContainer();
         result.setCompetences(competences);
         result.setGoldLabelPredictions(goldLabels);
+        result.setMaceState(maceResult.getState());
 
-        // clean up temporary files
-        FileUtils.deleteDirectory(tmpDir.toFile());
-
-        return result;
-    }
-
-    private static String prepareCSV(
-            SortedMap<Integer, Map<String, MTurkReasonUnitAssignment>> annotations,
-            List<String> turkerIDs) {
-        // for each item we need an array of annotations, i.e.
-        // label1,,,label1,label2,label1,,,
-        // whose size is number of annotators and annotators are identified by position (array index)
-
-        // storing the resulting lines
-        List<String> result = new ArrayList<>();
-
-        for (Map.Entry<Integer, Map<String, MTurkReasonUnitAssignment>> entry : annotations
-                .entrySet()) {
-            // for storing individual assignments
-            String[] assignmentsArray = new String[turkerIDs.size()];
-            // fill with empty strings
-            Arrays.fill(assignmentsArray, "");
-
-            for (MTurkReasonUnitAssignment assignment : entry.getValue().values()) {
-                // do we want to include this annotation at all?
-
-                // get the turker index
-                int turkerIndex = Collections.binarySearch(turkerIDs, assignment.getTurkID());
-
-                // and set the label on the correct position in the array
-                assignmentsArray[turkerIndex] = assignment.getValue();
-
+        double[][] intervals = maceResult.getCompetenceIntervals();
+        if (intervals != null) {
+            SortedMap<String, double[]> competenceIntervals = new TreeMap<>();
+            for (int i = 0; i < intervals.length; i++) {
+                competenceIntervals.put(turkerIDs.get(i), intervals[i]);
             }
+            result.setCompetenceIntervals(competenceIntervals);
+        }
 
-            // concatenate with comma
-            String line = StringUtils.join(assignmentsArray, ",");
-
-            // System.out.println(line);
-
-            result.add(line);
+        if (cacheKey != null) {
+            cache.store(cacheKey, result);
         }
 
-        // add empty line at the end
-        result.add("");
+        return result;
+    }
 
-        return StringUtils.join(result, "\n");
+    public Map<String, List<String>> getFeedbacks() {
+        return feedbacks;
     }
 
     /**
-     * Extract all worker IDs from the parsed CSV file
+     * Starts MACE from a model trained on previous batches instead of random restarts; new
+     * workers are initialized from the prior. Must be called before gold labels are requested.
      *
-     * @param annotations annotations
-     * @return sorted set of workers
+     * @param initialState model of a previous run (see {@link #getMACEState()})
+     * @param iterations   number of EM iterations, a few are usually enough
      */
-    private static SortedSet<String> getAllTurkers(
-            SortedMap<Integer, Map<String, MTurkReasonUnitAssignment>> annotations) {
-        // first, find all workers
-        SortedSet<String> turkerIDsSet = new TreeSet<>();
-        for (Map<String, MTurkReasonUnitAssignment> values : annotations.values()) {
-            // keys are actually turker IDs
-            turkerIDsSet.addAll(values.keySet());
+    public synchronized void setWarmStart(MACEState initialState, int iterations) {
+        if (maceOutputAll != null) {
+            throw new IllegalStateException("Gold labels have already been estimated");
         }
 
-        return turkerIDsSet;
+        this.initialMACEState = initialState;
+        this.warmStartIterations = iterations;
     }
 
     /**
-     * Splits "Answer.46566_q4_group" and returns "46566" and "q4_group"
+     * Estimates a 95% bootstrap interval of each worker competence by refitting MACE on
+     * resampled items in parallel; {@link #showFirstNWorkers(int, boolean)} then ranks workers
+     * by the bounds instead of the point estimate. Must be called before gold labels are
+     * requested.
      *
-     * @param columnName column name
-     * @return array or null, if cannot be split (not proper column name)
+     * @param resamples number of resamples, e.g. 200 (0 = no intervals)
      */
-    static String[] splitColumnNameToIdAndQuestionId(String columnName) {
-        if (!columnName.startsWith("Answer.")) {
-            return null;
+    public synchronized void setBootstrap(int resamples) {
+        if (maceOutputAll != null) {
+            throw new IllegalStateException("Gold labels have already been estimated");
         }
-        //        Answer.46566_q4_group
-        String answerRaw = columnName.replaceAll("^Answer\\.", "");
 
-        String[] split = answerRaw.split("_", 2);
+        this.bootstrapResamples = resamples;
+    }
+
+    /**
+     * Returns the bootstrap intervals (lower, upper) of worker competences
+     *
+     * @return map (worker ID, interval) or null if no bootstrap was requested
+     */
+    public SortedMap<String, double[]> getCompetenceIntervals() {
+        return getMACEOutput().getCompetenceIntervals();
+    }
 
-        if (split.length != 2) {
-            return null;
+    /**
+     * Reuses MACE outputs of previous runs on the same annotations and parameters (see
+     * {@link MACEResultCache}). Must be called before gold labels are requested.
+     *
+     * @param resultCache cache; null disables caching
+     */
+    public synchronized void setResultCache(MACEResultCache resultCache) {
+        if (maceOutputAll != null) {
+            throw new IllegalStateException("Gold labels have already been estimated");
         }
 
-        return split;
+        this.resultCache = resultCache;
     }
 
-    private static String extractAnnotatedReasonUnitID(String columnName) {
-        String[] strings = splitColumnNameToIdAndQuestionId(columnName);
-
-        return strings == null ? null : strings[0];
+    /**
+     * Returns the trained MACE model, which can be saved and used to warm-start the next run
+     *
+     * @return MACE model
+     */
+    public MACEState getMACEState() {
+        return getMACEOutput().getMaceState();
+    }
 
+    /**
+     * Saves the MACE model to an XML file
+     *
+     * @param state      MACE model
+     * @param outputFile output file
+     * @throws IOException exception
+     */
+    public static void saveMACEState(MACEState state, File outputFile)
+            throws IOException {
+        XStreamTools.toXML(state, outputFile);
     }
 
-    public Map<String, List<String>> getFeedbacks() {
-        return feedbacks;
+    /**
+     * Loads a MACE model saved by {@link #saveMACEState(MACEState, File)}
+     *
+     * @param inputFile input file
+     * @return MACE model
+     * @throws IOException exception
+     */
+    public static MACEState loadMACEState(File inputFile)
+            throws IOException {
+        return (MACEState) XStreamTools.fromXML(FileUtils.readFileToString(inputFile, "utf-8"));
     }
 
     @Override
     public String provideGoldLabel(int reasonUnitId) {
-        if (maceOutputAll == null) {
-            computeGoldData();
-        }
+        return getMACEOutput().getGoldLabelPredictions().get(reasonUnitId);
+    }
 
+    @Override
+    public String[] provideGoldLabels(int[] reasonUnitIds) {
+        Map<Integer, String> predictions = getMACEOutput().getGoldLabelPredictions();
 
-        return maceOutputAll.getGoldLabelPredictions().get(reasonUnitId);
+        String[] result = new String[reasonUnitIds.length];
+        for (int i = 0; i < reasonUnitIds.length; i++) {
+            result[i] = predictions.get(reasonUnitIds[i]);
+        }
+
+        return result;
     }
 
     @Override
     public List<MTurkReasonUnitAssignment> getMTurkReasonUnitAssignments(int reasonUnitId) {
-        if (this.extractedRawDataItemView.containsKey(reasonUnitId)) {
-            return new ArrayList<>(this.extractedRawDataItemView.get(reasonUnitId).values());
+        int itemIndex = annotationStore.getItemIndex(reasonUnitId);
+        if (itemIndex >= 0) {
+            return new ArrayList<>(annotationStore.getAssignmentsOfItem(itemIndex));
         }
 
         return new ArrayList<>();
     }
 
+    @Override
+    public List<List<MTurkReasonUnitAssignment>> getMTurkReasonUnitAssignments(
+            int[] reasonUnitIds) {
+        List<List<MTurkReasonUnitAssignment>> result = new ArrayList<>(reasonUnitIds.length);
+        for (int reasonUnitId : reasonUnitIds) {
+            int itemIndex = annotationStore.getItemIndex(reasonUnitId);
+            if (itemIndex >= 0) {
+                result.add(annotationStore.getAssignmentsOfItem(itemIndex));
+            } else {
+                result.add(Collections.<MTurkReasonUnitAssignment>emptyList());
+            }
+        }
+
+        return Collections.unmodifiableList(result);
+    }
+
     public void showFirstNWorkers(int n, boolean worst) {
-        if (maceOutputAll == null) {
-            computeGoldData();
+        MACEOutputContainer maceOutput = getMACEOutput();
+
+        // with bootstrap intervals, the worst are those whose upper bound is lowest and the
+        // best those whose lower bound is highest
+        Map<String, Double> rankingScores = maceOutput.getCompetences();
+        SortedMap<String, double[]> intervals = maceOutput.getCompetenceIntervals();
+        if (intervals != null) {
+            rankingScores = new HashMap<>();
+            for (Map.Entry<String, Double> entry : maceOutput.getCompetences().entrySet()) {
+                double bound = intervals.get(entry.getKey())[worst ? 1 : 0];
+                rankingScores.put(entry.getKey(), Double.isNaN(bound) ? entry.getValue() : bound);
+            }
         }
 
         LinkedHashMap<String, Double> competencesSorted = IOHelper
-                .sortByValue(maceOutputAll.getCompetences(), worst);
+                .sortByValue(rankingScores, worst);
 
         Iterator<Map.Entry<String, Double>> iterator = competencesSorted.entrySet().iterator();
 
         for (int i = 0; i < n; i++) {
             Map.Entry<String, Double> entry = iterator.next();
             String workerID = entry.getKey();
-            SortedMap<Integer, MTurkReasonUnitAssignment> assignments = this.extractedRawDataWorkerView
-                    .get(workerID);
+            List<MTurkReasonUnitAssignment> assignments = annotationStore
+                    .getAssignmentsOfWorker(annotationStore.getWorkerIndex(workerID));
 
             System.out.println("---- Worker " + workerID);
             System.out.println("HITs: " + assignments.size() / 8);
             System.out.printf(Locale.ENGLISH, "MACE Score: %.6f%n",
-                    maceOutputAll.getCompetences().get(workerID));
-            DescriptiveStatistics submitTimeStats = collectSubmitTime(assignments.values());
+                    maceOutput.getCompetences().get(workerID));
+            if (intervals != null) {
+                System.out.printf(Locale.ENGLISH, "MACE Score 95%% interval: %.6f-%.6f%n",
+                        intervals.get(workerID)[0], intervals.get(workerID)[1]);
+            }
+            DescriptiveStatistics submitTimeStats = collectSubmitTime(assignments);
             System.out.printf(Locale.ENGLISH, "Average submit time: %.0f±%.0f%n",
                     submitTimeStats.getMean(), submitTimeStats.getStandardDeviation());
         }
@@ -556,26 +700,52 @@ public class MTurkGoldLabelProvider
 
     public void generateSpammersRejections(File outputFile, String... workerIds)
             throws IOException {
-        if (this.extractedRawDataWorkerView == null) {
-            extractedRawDataWorkerView = transformItemViewToWorkerView(extractedRawDataItemView);
-        }
-
         Set<String> assignmentsToReject = new HashSet<>();
         for (String workerId : workerIds) {
-            if (!this.extractedRawDataWorkerView.containsKey(workerId)) {
+            int workerIndex = annotationStore.getWorkerIndex(workerId);
+            if (workerIndex < 0) {
                 throw new IllegalStateException(
-                        "Worker not present in this.extractedRawDataWorkerView");
+                        "Worker not present in the annotations");
             }
 
-            for (MTurkReasonUnitAssignment assignment : this.extractedRawDataWorkerView
-                    .get(workerId).values()) {
+            for (MTurkReasonUnitAssignment assignment : annotationStore
+                    .getAssignmentsOfWorker(workerIndex)) {
                 assignmentsToReject.add(assignment.getAssignmentId());
             }
 
-            System.out.println("./blockWorker.sh -workerid " + workerId
-                    + " -reason \"Blocked due to suspiciously short HIT submission times and low quality answers.\"");
+            MACEOutputContainer maceOutput = maceOutputAll;
+            if (maceOutput != null && maceOutput.getCompetenceIntervals() != null) {
+                double[] interval = maceOutput.getCompetenceIntervals().get(workerId);
+                System.out.printf(Locale.ENGLISH, "# %s MACE Score 95%% interval: %.6f-%.6f%n",
+                        workerId, interval[0], interval[1]);
+            }
+
+            System.out.println(blockWorkerCommand(workerId));
         }
 
+        writeRejections(outputFile, assignmentsToReject);
+    }
+
+    /**
+     * Returns the command blocking the given worker
+     *
+     * @param workerId worker ID
+     * @return command line
+     */
+    static String blockWorkerCommand(String workerId) {
+        return "./blockWorker.sh -workerid " + workerId
+                + " -reason \"Blocked due to suspiciously short HIT submission times and low quality answers.\"";
+    }
+
+    /**
+     * Writes a rejection file for MTurk
+     *
+     * @param outputFile          output file
+     * @param assignmentsToReject assignment IDs
+     * @throws IOException exception
+     */
+    static void writeRejections(File outputFile, Collection<String> assignmentsToReject)
+            throws IOException {
         PrintWriter pw = new PrintWriter(new FileWriter(outputFile));
         pw.println("assignmentIdToReject\tassignmentIdToRejectComment");
         for (String a : assignmentsToReject) {
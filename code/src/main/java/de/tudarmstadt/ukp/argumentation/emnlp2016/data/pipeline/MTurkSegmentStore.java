@@ -0,0 +1,433 @@
+/*
+ * Copyright 2016
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.tudarmstadt.ukp.argumentation.emnlp2016.data.pipeline;
+
+import de.tudarmstadt.ukp.argumentation.emnlp2016.data.sampling.MTurkReasonUnitAssignment;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Append-only local store of parsed MTurk result files, so that old batches are parsed only
+ * once. Ingesting a file parses it (see
+ * {@link MTurkGoldLabelProvider#extractAnnotationsFromSingleFile(File, Set, boolean)}), drops
+ * the rows whose assignment ID is already stored and appends the rest as a new binary segment;
+ * files that did not change since they were ingested (same path, size and modification time)
+ * are not parsed again. Segments are memory-mapped when loaded, in the order of ingestion.
+ * <p>
+ * The directory contains the segments, the assignment IDs of each segment (one per line, in
+ * a file named like the segment plus ".ids", so that ingestion does not have to decode the
+ * segments) and a manifest (a TSV file with one line per ingested file: segment or "-" if
+ * there were no new rows, canonical file path, size, modification time, number of rows). All
+ * are written to temporary files first and renamed, the manifest last, so an interrupted
+ * ingestion leaves the store as before. Only one process may write to a store at a time.
+ */
+public class MTurkSegmentStore
+{
+    private static final String MANIFEST = "manifest.tsv";
+
+    private static final String IDS_EXTENSION = ".ids";
+
+    private static final int MAGIC = 0x4d54534d;
+
+    private static final int VERSION = 1;
+
+    private final File directory;
+
+    private final List<ManifestEntry> manifest = new ArrayList<>();
+
+    /**
+     * Assignment IDs of all stored rows; loaded from the ID files on the first ingestion
+     */
+    private Set<String> storedAssignmentIds;
+
+    private static class ManifestEntry
+    {
+        final String segment;
+        final String sourcePath;
+        final long sourceLength;
+        final long sourceLastModified;
+        final int rows;
+
+        ManifestEntry(String segment, String sourcePath, long sourceLength,
+                long sourceLastModified, int rows)
+        {
+            this.segment = segment;
+            this.sourcePath = sourcePath;
+            this.sourceLength = sourceLength;
+            this.sourceLastModified = sourceLastModified;
+            this.rows = rows;
+        }
+    }
+
+    /**
+     * Opens the store in the given directory, creating it if necessary
+     *
+     * @param directory directory
+     * @throws IOException exception
+     */
+    public MTurkSegmentStore(File directory)
+            throws IOException
+    {
+        this.directory = directory;
+        FileUtils.forceMkdir(directory);
+
+        File manifestFile = new File(directory, MANIFEST);
+        if (manifestFile.isFile()) {
+            for (String line : FileUtils.readLines(manifestFile, "utf-8")) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+
+                String[] fields = line.split("\t");
+                if (fields.length != 5) {
+                    throw new IOException("Corrupted manifest line: " + line);
+                }
+                manifest.add(new ManifestEntry(fields[0], fields[1], Long.parseLong(fields[2]),
+                        Long.parseLong(fields[3]), Integer.parseInt(fields[4])));
+            }
+        }
+    }
+
+    /**
+     * Ingests the given MTurk files in this order
+     *
+     * @param csvFiles                   MTurk files
+     * @param readOnlyAcceptedOrRejected if false, also assignments in "Submitted" state are
+     *                                   stored; they are never updated later
+     * @return number of new rows
+     * @throws IOException exception
+     */
+    public synchronized int ingest(List<File> csvFiles, boolean readOnlyAcceptedOrRejected)
+            throws IOException
+    {
+        int result = 0;
+        for (File csvFile : csvFiles) {
+            result += ingest(csvFile, readOnlyAcceptedOrRejected);
+        }
+        return result;
+    }
+
+    /**
+     * Ingests the given MTurk file unless it has already been ingested and did not change
+     *
+     * @param csvFile                    MTurk file
+     * @param readOnlyAcceptedOrRejected if false, also assignments in "Submitted" state are
+     *                                   stored; they are never updated later
+     * @return number of new rows
+     * @throws IOException           exception
+     * @throws IllegalStateException if the file contains inconsistent rows; nothing is stored
+     */
+    public synchronized int ingest(File csvFile, boolean readOnlyAcceptedOrRejected)
+            throws IOException
+    {
+        String sourcePath = csvFile.getCanonicalPath();
+        for (ManifestEntry entry : manifest) {
+            if (entry.sourcePath.equals(sourcePath) && entry.sourceLength == csvFile.length()
+                    && entry.sourceLastModified == csvFile.lastModified()) {
+                return 0;
+            }
+        }
+
+        MTurkGoldLabelProvider.FileAnnotations annotations = MTurkGoldLabelProvider
+                .extractAnnotationsFromSingleFile(csvFile,
+                        Step7HITCreator.listAllOptions(true).keySet(),
+                        readOnlyAcceptedOrRejected);
+        if (!annotations.errorRows.isEmpty()) {
+            throw new IllegalStateException(StringUtils.join(annotations.errorRows, "\n"));
+        }
+
+        if (storedAssignmentIds == null) {
+            storedAssignmentIds = loadAssignmentIds();
+        }
+
+        MTurkGoldLabelProvider.FileAnnotations newAnnotations = removeStoredRows(annotations);
+        Set<String> newAssignmentIds = getAssignmentIds(newAnnotations);
+
+        String segment = "-";
+        if (!newAssignmentIds.isEmpty()) {
+            segment = String.format(Locale.ENGLISH, "segment-%06d.bin", manifest.size());
+
+            File idsTmp = new File(directory, segment + IDS_EXTENSION + ".tmp");
+            FileUtils.writeLines(idsTmp, "utf-8", newAssignmentIds, "\n");
+            Files.move(idsTmp.toPath(), new File(directory, segment + IDS_EXTENSION).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            File tmp = new File(directory, segment + ".tmp");
+            writeSegment(newAnnotations, tmp);
+            Files.move(tmp.toPath(), new File(directory, segment).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        manifest.add(new ManifestEntry(segment, sourcePath, csvFile.length(),
+                csvFile.lastModified(), newAssignmentIds.size()));
+        writeManifest();
+
+        storedAssignmentIds.addAll(newAssignmentIds);
+
+        System.out.println("Ingested " + newAssignmentIds.size() + " new rows from " + csvFile);
+
+        return newAssignmentIds.size();
+    }
+
+    /**
+     * Loads the segments of the given files in the order of ingestion; files that were never
+     * ingested contribute nothing. Rows of a file that had already been stored from another
+     * file are only loaded if that file is given as well.
+     *
+     * @param csvFiles MTurk files, matched by their canonical paths
+     * @return annotations of each segment
+     * @throws IOException exception
+     */
+    synchronized List<MTurkGoldLabelProvider.FileAnnotations> load(List<File> csvFiles)
+            throws IOException
+    {
+        Set<String> sourcePaths = new HashSet<>();
+        for (File csvFile : csvFiles) {
+            sourcePaths.add(csvFile.getCanonicalPath());
+        }
+
+        List<MTurkGoldLabelProvider.FileAnnotations> result = new ArrayList<>();
+        for (ManifestEntry entry : manifest) {
+            if (!"-".equals(entry.segment) && sourcePaths.contains(entry.sourcePath)) {
+                result.add(readSegment(new File(directory, entry.segment)));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Loads the assignment IDs of all segments; a segment without an ID file (written by an
+     * older version) is decoded instead
+     */
+    private Set<String> loadAssignmentIds()
+            throws IOException
+    {
+        Set<String> result = new HashSet<>();
+        for (ManifestEntry entry : manifest) {
+            if ("-".equals(entry.segment)) {
+                continue;
+            }
+
+            File idsFile = new File(directory, entry.segment + IDS_EXTENSION);
+            if (idsFile.isFile()) {
+                result.addAll(FileUtils.readLines(idsFile, "utf-8"));
+            }
+            else {
+                result.addAll(getAssignmentIds(readSegment(new File(directory, entry.segment))));
+            }
+        }
+        return result;
+    }
+
+    private void writeManifest()
+            throws IOException
+    {
+        List<String> lines = new ArrayList<>();
+        for (ManifestEntry entry : manifest) {
+            lines.add(entry.segment + "\t" + entry.sourcePath + "\t" + entry.sourceLength + "\t"
+                    + entry.sourceLastModified + "\t" + entry.rows);
+        }
+
+        File tmp = new File(directory, MANIFEST + ".tmp");
+        FileUtils.writeLines(tmp, "utf-8", lines, "\n");
+        Files.move(tmp.toPath(), new File(directory, MANIFEST).toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static Set<String> getAssignmentIds(MTurkGoldLabelProvider.FileAnnotations annotations)
+    {
+        Set<String> result = new HashSet<>(annotations.feedbackAssignmentIds);
+        for (MTurkReasonUnitAssignment assignment : annotations.assignments) {
+            result.add(assignment.getAssignmentId());
+        }
+        return result;
+    }
+
+    /**
+     * Keeps only the rows whose assignment ID is not stored yet
+     */
+    private MTurkGoldLabelProvider.FileAnnotations removeStoredRows(
+            MTurkGoldLabelProvider.FileAnnotations annotations)
+    {
+        MTurkGoldLabelProvider.FileAnnotations result = new MTurkGoldLabelProvider.FileAnnotations();
+
+        for (int i = 0; i < annotations.feedbacks.size(); i++) {
+            if (!storedAssignmentIds.contains(annotations.feedbackAssignmentIds.get(i))) {
+                result.feedbackAssignmentIds.add(annotations.feedbackAssignmentIds.get(i));
+                result.feedbackWorkerIds.add(annotations.feedbackWorkerIds.get(i));
+                result.feedbacks.add(annotations.feedbacks.get(i));
+            }
+        }
+
+        for (int i = 0; i < annotations.assignments.size(); i++) {
+            if (!storedAssignmentIds.contains(annotations.assignments.get(i).getAssignmentId())) {
+                result.assignments.add(annotations.assignments.get(i));
+                result.reasonUnitIds.add(annotations.reasonUnitIds.get(i));
+                result.cellValues.add(annotations.cellValues.get(i));
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Segment layout (big-endian): magic, version, string table (count, then length and UTF-8
+     * bytes of each string), feedbacks (count, then assignment ID, worker ID and feedback as
+     * string indices), rows (count, then assignment ID, HIT ID, worker ID, accept and submit
+     * time in epoch milliseconds and the number of answers, then reasonUnit ID, label and cell
+     * value of each answer). Strings are indices into the string table.
+     */
+    private static void writeSegment(MTurkGoldLabelProvider.FileAnnotations annotations,
+            File file)
+            throws IOException
+    {
+        Map<String, Integer> stringIndices = new HashMap<>();
+        List<String> strings = new ArrayList<>();
+
+        // ints of the feedbacks and the rows; the strings are known once they are collected
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(body);
+
+        out.writeInt(annotations.feedbacks.size());
+        for (int i = 0; i < annotations.feedbacks.size(); i++) {
+            out.writeInt(intern(annotations.feedbackAssignmentIds.get(i), stringIndices, strings));
+            out.writeInt(intern(annotations.feedbackWorkerIds.get(i), stringIndices, strings));
+            out.writeInt(intern(annotations.feedbacks.get(i), stringIndices, strings));
+        }
+
+        // the assignments of a row are consecutive
+        List<Integer> rowStarts = new ArrayList<>();
+        for (int i = 0; i < annotations.assignments.size(); i++) {
+            if (i == 0 || !annotations.assignments.get(i).getAssignmentId()
+                    .equals(annotations.assignments.get(i - 1).getAssignmentId())) {
+                rowStarts.add(i);
+            }
+        }
+        rowStarts.add(annotations.assignments.size());
+
+        out.writeInt(rowStarts.size() - 1);
+        for (int r = 0; r + 1 < rowStarts.size(); r++) {
+            MTurkReasonUnitAssignment first = annotations.assignments.get(rowStarts.get(r));
+            out.writeInt(intern(first.getAssignmentId(), stringIndices, strings));
+            out.writeInt(intern(first.getHitID(), stringIndices, strings));
+            out.writeInt(intern(first.getTurkID(), stringIndices, strings));
+            out.writeLong(first.getAssignmentAcceptTime().getTime());
+            out.writeLong(first.getAssignmentSubmitTime().getTime());
+            out.writeInt(rowStarts.get(r + 1) - rowStarts.get(r));
+
+            for (int i = rowStarts.get(r); i < rowStarts.get(r + 1); i++) {
+                out.writeInt(annotations.reasonUnitIds.get(i));
+                out.writeInt(intern(annotations.assignments.get(i).getValue(), stringIndices,
+                        strings));
+                out.writeInt(intern(annotations.cellValues.get(i), stringIndices, strings));
+            }
+        }
+        out.flush();
+
+        DataOutputStream fileOut = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            fileOut.writeInt(MAGIC);
+            fileOut.writeInt(VERSION);
+            fileOut.writeInt(strings.size());
+            for (String string : strings) {
+                byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+                fileOut.writeInt(bytes.length);
+                fileOut.write(bytes);
+            }
+            body.writeTo(fileOut);
+        }
+        finally {
+            fileOut.close();
+        }
+    }
+
+    private static int intern(String string, Map<String, Integer> stringIndices,
+            List<String> strings)
+    {
+        Integer index = stringIndices.get(string);
+        if (index == null) {
+            index = strings.size();
+            stringIndices.put(string, index);
+            strings.add(string);
+        }
+        return index;
+    }
+
+    private static MTurkGoldLabelProvider.FileAnnotations readSegment(File file)
+            throws IOException
+    {
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        if (buffer.remaining() < 8 || buffer.getInt() != MAGIC) {
+            throw new IOException("Not a segment file: " + file);
+        }
+        int version = buffer.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported segment version " + version + ": " + file);
+        }
+
+        String[] strings = new String[buffer.getInt()];
+        for (int i = 0; i < strings.length; i++) {
+            byte[] bytes = new byte[buffer.getInt()];
+            buffer.get(bytes);
+            strings[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        MTurkGoldLabelProvider.FileAnnotations result = new MTurkGoldLabelProvider.FileAnnotations();
+
+        int numFeedbacks = buffer.getInt();
+        for (int i = 0; i < numFeedbacks; i++) {
+            result.feedbackAssignmentIds.add(strings[buffer.getInt()]);
+            result.feedbackWorkerIds.add(strings[buffer.getInt()]);
+            result.feedbacks.add(strings[buffer.getInt()]);
+        }
+
+        int numRows = buffer.getInt();
+        for (int r = 0; r < numRows; r++) {
+            String assignmentId = strings[buffer.getInt()];
+            String hitId = strings[buffer.getInt()];
+            String workerId = strings[buffer.getInt()];
+            Date acceptTime = new Date(buffer.getLong());
+            Date submitTime = new Date(buffer.getLong());
+
+            int numAnswers = buffer.getInt();
+            for (int i = 0; i < numAnswers; i++) {
+                result.reasonUnitIds.add(buffer.getInt());
+                result.assignments.add(new MTurkReasonUnitAssignment(workerId, hitId,
+                        assignmentId, acceptTime, submitTime, strings[buffer.getInt()]));
+                result.cellValues.add(strings[buffer.getInt()]);
+            }
+        }
+
+        return result;
+    }
+}
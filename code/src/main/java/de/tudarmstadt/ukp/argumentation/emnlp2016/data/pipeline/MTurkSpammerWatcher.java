@@ -0,0 +1,505 @@
+/*
+ * Copyright 2016
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.tudarmstadt.ukp.argumentation.emnlp2016.data.pipeline;
+
+import de.tudarmstadt.ukp.argumentation.emnlp2016.data.sampling.MTurkReasonUnitAssignment;
+import de.tudarmstadt.ukp.argumentation.emnlp2016.data.sampling.MTurkRecordReader;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.math.stat.descriptive.StatisticalSummary;
+import org.apache.commons.math.stat.descriptive.SummaryStatistics;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Detects spammers while a batch is running: watches a directory of MTurk result exports and
+ * updates per-worker statistics as new assignments arrive, instead of running
+ * {@link MTurkGoldLabelProvider} on the finished batch.
+ * <p>
+ * For each worker, the submit time of each HIT (see
+ * {@link MTurkGoldLabelProvider#collectSubmitTime(Collection)}) and the agreement with the
+ * other workers are kept. A worker agrees on an item if their label is (one of) the most frequent
+ * labels of the other workers, counted once at least two other workers labeled the item. A new
+ * assignment only updates the workers of its item, so the work per assignment does not grow
+ * with the batch. Of a changed export, only the records appended since it was last read are
+ * parsed (see {@link MTurkRecordReader#getOffset()}); the whole export is parsed again only if
+ * it shrank or its header changed. Only unseen assignments (by assignment ID) are added, and
+ * only from records that end with a line break.
+ * <p>
+ * A worker with enough HITs, low agreement and short submit times is flagged; the rejection
+ * file and the block list then contain all their assignments and the block command, in the
+ * format of {@link MTurkGoldLabelProvider#generateSpammersRejections(File, String...)}.
+ * Flagged workers stay flagged; the MACE-based review of the finished batch is still
+ * recommended before rejecting.
+ */
+public class MTurkSpammerWatcher
+{
+    private final File rejectionFile;
+    private final File blockListFile;
+
+    private final int minHits;
+    private final double maxAgreement;
+    private final double maxMeanSubmitTime;
+
+    private final Set<String> allowedLabels;
+
+    /**
+     * (path, read position) of processed files
+     */
+    private final Map<String, FileState> processedFiles = new HashMap<>();
+
+    private final Set<String> seenAssignmentIds = new HashSet<>();
+
+    private final Map<Integer, ItemVotes> items = new HashMap<>();
+    private final Map<String, WorkerStatistics> workers = new TreeMap<>();
+
+    private final Set<String> flaggedWorkers = new TreeSet<>();
+
+    /**
+     * How far an export has been read
+     */
+    private static class FileState
+    {
+        final String[] columnNames;
+        final MTurkAnswerSchema schema;
+
+        /**
+         * size and modification time
+         */
+        String version;
+        long length;
+        long offset;
+
+        FileState(String[] columnNames)
+        {
+            this.columnNames = columnNames;
+            this.schema = MTurkAnswerSchema.compile(columnNames);
+        }
+    }
+
+    /**
+     * Labels of a single item
+     */
+    private static class ItemVotes
+    {
+        final Map<String, String> labels = new HashMap<>();
+        final Map<String, Integer> counts = new HashMap<>();
+
+        /**
+         * 1 if the worker agrees with the others, 0 if not, missing if not counted yet
+         */
+        final Map<String, Integer> agreements = new HashMap<>();
+    }
+
+    /**
+     * Statistics of a single worker, updated incrementally
+     */
+    private static class WorkerStatistics
+    {
+        final Map<String, Integer> hitSubmitTimes = new HashMap<>();
+        final SummaryStatistics submitTimes = new SummaryStatistics();
+        final List<String> assignmentIds = new ArrayList<>();
+        int agreements;
+        int comparisons;
+
+        double getAgreement()
+        {
+            return comparisons == 0 ? Double.NaN : (double) agreements / comparisons;
+        }
+    }
+
+    /**
+     * Creates a new watcher
+     *
+     * @param rejectionFile     rejection file for MTurk, rewritten when a worker is flagged
+     * @param blockListFile     block commands of the flagged workers; may be null
+     * @param minHits           minimal number of HITs of a worker before being flagged
+     * @param maxAgreement      workers with agreement below are suspicious (0.0-1.0)
+     * @param maxMeanSubmitTime workers with mean submit time (seconds) below are suspicious
+     */
+    public MTurkSpammerWatcher(File rejectionFile, File blockListFile, int minHits,
+            double maxAgreement, double maxMeanSubmitTime)
+    {
+        this.rejectionFile = rejectionFile;
+        this.blockListFile = blockListFile;
+        this.minHits = minHits;
+        this.maxAgreement = maxAgreement;
+        this.maxMeanSubmitTime = maxMeanSubmitTime;
+        this.allowedLabels = Step7HITCreator.listAllOptions(true).keySet();
+    }
+
+    /**
+     * Adds the unseen assignments of the given export; unchanged files are skipped and of
+     * changed ones, only the appended records are read
+     *
+     * @param file MTurk export
+     * @return newly flagged workers
+     * @throws IOException exception
+     */
+    public synchronized Set<String> process(File file)
+            throws IOException
+    {
+        String path = file.getCanonicalPath();
+        long length = file.length();
+        String version = length + "\t" + file.lastModified();
+        FileState state = processedFiles.get(path);
+        if (state != null && version.equals(state.version)) {
+            return Collections.emptySet();
+        }
+
+        List<Map<String, String>> rows = new ArrayList<>();
+        MTurkRecordReader reader = new MTurkRecordReader(file);
+        try {
+            String[] columnNames = reader.getColumnNames();
+            if (state != null && Arrays.equals(columnNames, state.columnNames)
+                    && length >= state.length && isLineStart(file, state.offset)) {
+                reader.close();
+                reader = new MTurkRecordReader(file, columnNames, state.offset);
+            }
+            else {
+                // new or rewritten export, read it from the start
+                state = new FileState(columnNames);
+            }
+
+            // a last record without a line break may still be being written; it is read
+            // again once the export grows
+            String[] cells;
+            long offset = reader.getOffset();
+            while ((cells = reader.next()) != null && reader.getOffset() > offset) {
+                rows.add(toRow(columnNames, cells));
+                offset = reader.getOffset();
+            }
+
+            state.offset = reader.getOffset();
+        }
+        finally {
+            reader.close();
+        }
+        state.version = version;
+        state.length = length;
+        processedFiles.put(path, state);
+
+        // assignments are still submitted, not accepted yet; the rows are not read again, so
+        // an inconsistent row (typically a spammer's) must not hide the rows after it
+        MTurkGoldLabelProvider.FileAnnotations annotations = MTurkGoldLabelProvider
+                .extractAnnotations(rows, state.schema, allowedLabels, true);
+
+        for (String errorRow : annotations.errorRows) {
+            System.err.println("Skipping inconsistent row in " + file + ":\n" + errorRow);
+        }
+
+        Set<String> result = new TreeSet<>();
+        Set<String> newAssignmentIds = new HashSet<>();
+        for (int i = 0; i < annotations.assignments.size(); i++) {
+            MTurkReasonUnitAssignment assignment = annotations.assignments.get(i);
+
+            // all answers of a row share the assignment ID
+            if (!seenAssignmentIds.contains(assignment.getAssignmentId())
+                    || newAssignmentIds.contains(assignment.getAssignmentId())) {
+                newAssignmentIds.add(assignment.getAssignmentId());
+                result.addAll(add(annotations.reasonUnitIds.get(i), assignment));
+            }
+        }
+        seenAssignmentIds.addAll(newAssignmentIds);
+
+        if (!result.isEmpty()) {
+            writeOutput();
+        }
+
+        return result;
+    }
+
+    /**
+     * Whether the byte before the offset is a line break, i.e. the offset may still be the
+     * start of a record
+     */
+    private static boolean isLineStart(File file, long offset)
+            throws IOException
+    {
+        if (offset == 0) {
+            return true;
+        }
+
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+            randomAccessFile.seek(offset - 1);
+            int b = randomAccessFile.read();
+            return b == '\n' || b == '\r';
+        }
+    }
+
+    /**
+     * Creates a map (column name, value) of the non-empty cells of a record, like
+     * {@link de.tudarmstadt.ukp.argumentation.emnlp2016.data.sampling.MTurkOutputReader}
+     */
+    private static Map<String, String> toRow(String[] columnNames, String[] cells)
+    {
+        Map<String, String> result = new TreeMap<>();
+        for (int i = 0; i < cells.length; i++) {
+            if (cells[i] != null) {
+                result.put(columnNames[i], cells[i]);
+            }
+        }
+
+        for (String field : Arrays.asList("hitid", "hittypeid")) {
+            if (!result.containsKey(field)) {
+                throw new IllegalStateException(
+                        "Field " + field + " is missing in record " + result);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Adds a single assignment and updates the statistics of the workers of its item
+     *
+     * @param itemId     reasonUnit ID
+     * @param assignment assignment
+     * @return newly flagged workers
+     */
+    synchronized Set<String> add(int itemId, MTurkReasonUnitAssignment assignment)
+    {
+        String workerId = assignment.getTurkID();
+
+        ItemVotes item = items.get(itemId);
+        if (item == null) {
+            item = new ItemVotes();
+            items.put(itemId, item);
+        }
+
+        // only the first answer of a worker counts
+        if (item.labels.containsKey(workerId)) {
+            return Collections.emptySet();
+        }
+
+        WorkerStatistics worker = workers.get(workerId);
+        if (worker == null) {
+            worker = new WorkerStatistics();
+            workers.put(workerId, worker);
+        }
+
+        worker.assignmentIds.add(assignment.getAssignmentId());
+        if (!worker.hitSubmitTimes.containsKey(assignment.getHitID())) {
+            worker.hitSubmitTimes.put(assignment.getHitID(),
+                    assignment.getSubmitTimeInSeconds());
+            worker.submitTimes.addValue(assignment.getSubmitTimeInSeconds());
+        }
+
+        String label = assignment.getValue();
+        item.labels.put(workerId, label);
+        Integer count = item.counts.get(label);
+        item.counts.put(label, count == null ? 1 : count + 1);
+
+        // the majority of the others may have changed for all workers of this item
+        for (Map.Entry<String, String> entry : item.labels.entrySet()) {
+            updateAgreement(item, entry.getKey(), entry.getValue());
+        }
+
+        Set<String> result = new TreeSet<>();
+        for (String itemWorker : item.labels.keySet()) {
+            if (!flaggedWorkers.contains(itemWorker) && isSuspicious(itemWorker)) {
+                flaggedWorkers.add(itemWorker);
+                result.add(itemWorker);
+                System.out.printf(Locale.ENGLISH,
+                        "# %s flagged: %d HITs, agreement %.3f, submit time %.0f±%.0f%n",
+                        itemWorker, workers.get(itemWorker).hitSubmitTimes.size(),
+                        getAgreement(itemWorker), getSubmitTimeStatistics(itemWorker).getMean(),
+                        getSubmitTimeStatistics(itemWorker).getStandardDeviation());
+                System.out.println(MTurkGoldLabelProvider.blockWorkerCommand(itemWorker));
+            }
+        }
+
+        // new assignments of an already flagged worker must be rejected too
+        if (flaggedWorkers.contains(workerId) && !result.contains(workerId)) {
+            result.add(workerId);
+        }
+
+        return result;
+    }
+
+    private void updateAgreement(ItemVotes item, String workerId, String label)
+    {
+        int others = item.labels.size() - 1;
+        if (others < 2) {
+            return;
+        }
+
+        int ownCount = item.counts.get(label) - 1;
+        boolean agrees = true;
+        for (Map.Entry<String, Integer> entry : item.counts.entrySet()) {
+            int otherCount = entry.getKey().equals(label) ? ownCount : entry.getValue();
+            if (otherCount > ownCount) {
+                agrees = false;
+                break;
+            }
+        }
+
+        int agreement = agrees ? 1 : 0;
+        Integer previous = item.agreements.put(workerId, agreement);
+
+        WorkerStatistics worker = workers.get(workerId);
+        if (previous == null) {
+            worker.comparisons++;
+            worker.agreements += agreement;
+        }
+        else {
+            worker.agreements += agreement - previous;
+        }
+    }
+
+    private boolean isSuspicious(String workerId)
+    {
+        WorkerStatistics worker = workers.get(workerId);
+
+        return worker.hitSubmitTimes.size() >= minHits && worker.comparisons > 0
+                && worker.getAgreement() < maxAgreement
+                && worker.submitTimes.getMean() < maxMeanSubmitTime;
+    }
+
+    /**
+     * Returns the fraction of items on which the worker agrees with the others
+     *
+     * @param workerId worker ID
+     * @return agreement or NaN if unknown
+     */
+    public synchronized double getAgreement(String workerId)
+    {
+        WorkerStatistics worker = workers.get(workerId);
+        return worker == null ? Double.NaN : worker.getAgreement();
+    }
+
+    /**
+     * Returns statistics about submit time (in seconds) of the worker's HITs
+     *
+     * @param workerId worker ID
+     * @return statistics or null if unknown worker
+     */
+    public synchronized StatisticalSummary getSubmitTimeStatistics(String workerId)
+    {
+        WorkerStatistics worker = workers.get(workerId);
+        return worker == null ? null : worker.submitTimes.getSummary();
+    }
+
+    public synchronized Set<String> getFlaggedWorkers()
+    {
+        return new TreeSet<>(flaggedWorkers);
+    }
+
+    /**
+     * Rewrites the rejection file and block list of all flagged workers
+     */
+    private void writeOutput()
+            throws IOException
+    {
+        Set<String> assignmentsToReject = new LinkedHashSet<>();
+        List<String> blockCommands = new ArrayList<>();
+        for (String workerId : flaggedWorkers) {
+            assignmentsToReject.addAll(workers.get(workerId).assignmentIds);
+            blockCommands.add(MTurkGoldLabelProvider.blockWorkerCommand(workerId));
+        }
+
+        // readers never see a partial file
+        File tmp = new File(rejectionFile.getPath() + ".tmp");
+        MTurkGoldLabelProvider.writeRejections(tmp, assignmentsToReject);
+        Files.move(tmp.toPath(), rejectionFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+
+        if (blockListFile != null) {
+            tmp = new File(blockListFile.getPath() + ".tmp");
+            FileUtils.writeLines(tmp, "utf-8", blockCommands, "\n");
+            Files.move(tmp.toPath(), blockListFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    /**
+     * Processes the exports in the directory and then each created or modified one; does not
+     * return unless interrupted
+     *
+     * @param directory directory of MTurk exports (*.csv)
+     * @throws IOException          exception
+     * @throws InterruptedException if interrupted while waiting for changes
+     */
+    public void watch(File directory)
+            throws IOException, InterruptedException
+    {
+        WatchService watchService = FileSystems.getDefault().newWatchService();
+        try {
+            directory.toPath().register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+
+            File[] existing = directory.listFiles();
+            if (existing != null) {
+                Arrays.sort(existing);
+                for (File file : existing) {
+                    processQuietly(file);
+                }
+            }
+
+            while (true) {
+                WatchKey key = watchService.take();
+
+                // an export is usually written in several steps; wait until it settles
+                Thread.sleep(500);
+                Set<File> changed = new TreeSet<>();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.context() instanceof Path) {
+                        changed.add(new File(directory, event.context().toString()));
+                    }
+                }
+                key.reset();
+
+                for (File file : changed) {
+                    processQuietly(file);
+                }
+            }
+        }
+        finally {
+            watchService.close();
+        }
+    }
+
+    private void processQuietly(File file)
+    {
+        if (!file.isFile() || !file.getName().endsWith(".csv")) {
+            return;
+        }
+
+        try {
+            process(file);
+        }
+        catch (IOException | RuntimeException e) {
+            // most likely still being written; processed again on the next change
+            System.err.println("Cannot process " + file + ": " + e);
+        }
+    }
+
+    public static void main(String[] args)
+            throws Exception
+    {
+        File watchDir = new File(args[0]);
+        File rejectionFile = new File(args[1]);
+        File blockListFile = args.length > 2 ? new File(args[2]) : null;
+
+        new MTurkSpammerWatcher(rejectionFile, blockListFile, 5, 0.5, 60).watch(watchDir);
+    }
+}
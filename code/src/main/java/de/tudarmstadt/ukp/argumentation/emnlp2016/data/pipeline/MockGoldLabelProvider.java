@@ -22,6 +22,7 @@ import org.apache.commons.lang3.RandomStringUtils;
 import de.tudarmstadt.ukp.argumentation.emnlp2016.data.sampling.MTurkReasonUnitAssignment;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Random;
@@ -40,7 +41,7 @@ public class MockGoldLabelProvider
             Step7HITCreator.listAllOptions(true).keySet());
 
     @Override
-    public String provideGoldLabel(int reasonUnitId)
+    public synchronized String provideGoldLabel(int reasonUnitId)
     {
         // only give sample with 50% probability
         if (random.nextBoolean()) {
@@ -51,7 +52,8 @@ public class MockGoldLabelProvider
     }
 
     @Override
-    public List<MTurkReasonUnitAssignment> getMTurkReasonUnitAssignments(int reasonUnitId)
+    public synchronized List<MTurkReasonUnitAssignment> getMTurkReasonUnitAssignments(
+            int reasonUnitId)
     {
         List<MTurkReasonUnitAssignment> result = new ArrayList<>();
 
@@ -78,4 +80,27 @@ public class MockGoldLabelProvider
 
         return result;
     }
+
+    @Override
+    public synchronized String[] provideGoldLabels(int[] reasonUnitIds)
+    {
+        String[] result = new String[reasonUnitIds.length];
+        for (int i = 0; i < reasonUnitIds.length; i++) {
+            result[i] = provideGoldLabel(reasonUnitIds[i]);
+        }
+
+        return result;
+    }
+
+    @Override
+    public synchronized List<List<MTurkReasonUnitAssignment>> getMTurkReasonUnitAssignments(
+            int[] reasonUnitIds)
+    {
+        List<List<MTurkReasonUnitAssignment>> result = new ArrayList<>(reasonUnitIds.length);
+        for (int reasonUnitId : reasonUnitIds) {
+            result.add(Collections.unmodifiableList(getMTurkReasonUnitAssignments(reasonUnitId)));
+        }
+
+        return Collections.unmodifiableList(result);
+    }
 }
@@ -0,0 +1,311 @@
+/*
+ * Copyright 2016
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.tudarmstadt.ukp.argumentation.emnlp2016.data.pipeline;
+
+import de.tudarmstadt.ukp.argumentation.emnlp2016.data.sampling.AnnotatedArgumentPair;
+import de.tudarmstadt.ukp.argumentation.emnlp2016.data.sampling.IOHelper;
+import de.tudarmstadt.ukp.argumentation.emnlp2016.data.sampling.XStreamTools;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Runs a chain of the pipeline steps on the corpus in memory; the input is loaded once and
+ * passed from one step to the next, only the steps chosen as checkpoints write their output
+ * (in the same format as their {@code main}, so that a later run or a single step can start
+ * from there).
+ * <p>
+ * Steps 5 and 6 see the files in the order of {@link IOHelper#listXmlFiles(File)} of the input
+ * dir, as their {@code main} does; from step 9 on the files are sorted by name, as in
+ * {@link Step9EstimatedLabelsExtractor} and {@link IOHelper#loadAnnotatedPais(File)}.
+ */
+public class PipelineRunner
+{
+    /**
+     * Steps that can be chained, in the order of the pipeline
+     */
+    public enum Step
+    {
+        /**
+         * {@link Step5ReasonUnitIDCreator}
+         */
+        step5,
+        /**
+         * {@link Step6ReasonUnitForAnnotationProducer}
+         */
+        step6,
+        /**
+         * {@link Step9EstimatedLabelsExtractor}
+         */
+        step9,
+        /**
+         * {@link Step10LocalGoldLabelClening}
+         */
+        step10,
+        /**
+         * {@link Step12LearningDataExtractor}
+         */
+        step12,
+        /**
+         * {@link Step14GoldDataCSVProducer}
+         */
+        step14
+    }
+
+    private final List<Step> steps;
+
+    private final Set<Step> checkpoints = EnumSet.noneOf(Step.class);
+
+    private File checkpointDir;
+
+    private boolean snapshotCheckpoints;
+
+    private GoldLabelProvider goldLabelProvider;
+
+    private File outputDir;
+
+    /**
+     * @param steps steps in the order of the pipeline; a chain may start and end anywhere but
+     *              must not skip a step in between
+     */
+    public PipelineRunner(List<Step> steps)
+    {
+        if (steps.isEmpty()) {
+            throw new IllegalArgumentException("No steps given");
+        }
+        for (int i = 1; i < steps.size(); i++) {
+            if (steps.get(i).ordinal() != steps.get(i - 1).ordinal() + 1) {
+                throw new IllegalArgumentException(
+                        "Steps not in the order of the pipeline or skipping a step: " + steps);
+            }
+        }
+        this.steps = new ArrayList<>(steps);
+    }
+
+    /**
+     * @param goldLabelProvider gold labels and assignments for {@link Step#step9}
+     */
+    public void setGoldLabelProvider(GoldLabelProvider goldLabelProvider)
+    {
+        this.goldLabelProvider = goldLabelProvider;
+    }
+
+    /**
+     * @param outputDir output dir of the CSV files of {@link Step#step14}
+     */
+    public void setOutputDir(File outputDir)
+    {
+        this.outputDir = outputDir;
+    }
+
+    /**
+     * Saves the output of the given steps to the checkpoint dir: the argument pairs into a dir
+     * (or a snapshot file) named after the step, the gold data of {@link Step#step12} into
+     * {@code step12.xml}
+     *
+     * @param checkpoints   steps of the chain, except {@link Step#step14} which writes its
+     *                      output anyway
+     * @param checkpointDir checkpoint dir
+     * @param snapshot      if true, argument pairs are saved as a single snapshot file
+     *                      {@code stepN.snapshot} instead of XML files
+     */
+    public void setCheckpoints(Collection<Step> checkpoints, File checkpointDir,
+            boolean snapshot)
+    {
+        for (Step step : checkpoints) {
+            if (!steps.contains(step)) {
+                throw new IllegalArgumentException("Checkpoint " + step + " not in the chain");
+            }
+            if (step == Step.step14) {
+                throw new IllegalArgumentException("No checkpoint after step14");
+            }
+        }
+        this.checkpoints.clear();
+        this.checkpoints.addAll(checkpoints);
+        this.checkpointDir = checkpointDir;
+        this.snapshotCheckpoints = snapshot;
+    }
+
+    /**
+     * Runs the chain
+     *
+     * @param input input of the first step: a dir with XMLs or a snapshot file of argument
+     *              pairs, or the gold data XML file if the chain starts with
+     *              {@link Step#step14}
+     * @throws IOException exception
+     */
+    @SuppressWarnings("unchecked")
+    public void run(File input)
+            throws IOException
+    {
+        if (steps.contains(Step.step9) && goldLabelProvider == null) {
+            throw new IllegalStateException("step9 requires a gold label provider");
+        }
+        if (steps.contains(Step.step14) && outputDir == null) {
+            throw new IllegalStateException("step14 requires an output dir");
+        }
+
+        Map<String, List<AnnotatedArgumentPair>> data = null;
+        Map<String, List<GoldLabelPairContainer>> goldData = null;
+
+        if (steps.get(0) == Step.step14) {
+            goldData = (Map<String, List<GoldLabelPairContainer>>) XStreamTools
+                    .fromXML(FileUtils.readFileToString(input, "utf-8"));
+        }
+        else if (input.isFile()) {
+            data = IOHelper.loadAnnotatedPais(input);
+        }
+        else {
+            // in the order of the input dir as in the single steps
+            data = IOHelper.loadAnnotatedPairs(IOHelper.listXmlFiles(input));
+        }
+
+        for (Step step : steps) {
+            long time = System.currentTimeMillis();
+
+            if (step.compareTo(Step.step9) >= 0 && data != null
+                    && !(data instanceof SortedMap)) {
+                data = new TreeMap<>(data);
+            }
+
+            switch (step) {
+            case step5:
+                Step5ReasonUnitIDCreator.extractAllReasons(data);
+                break;
+            case step6:
+                Step6ReasonUnitForAnnotationProducer.prepareData(data);
+                break;
+            case step9:
+                Step9EstimatedLabelsExtractor.addGoldLabels(data, goldLabelProvider);
+                break;
+            case step10:
+                Step10LocalGoldLabelClening.cleanGoldLabels(data);
+                break;
+            case step12:
+                goldData = Step12LearningDataExtractor.produceLearningData(data);
+                data = null;
+                break;
+            case step14:
+                if (!outputDir.exists()) {
+                    outputDir.mkdirs();
+                }
+                Step14GoldDataCSVProducer.saveGoldDataCSV(goldData, outputDir);
+                break;
+            default:
+                throw new IllegalStateException("Unknown step " + step);
+            }
+
+            System.out.println("Finished " + step + " in " + (System.currentTimeMillis() - time)
+                    + " ms");
+
+            if (checkpoints.contains(step)) {
+                saveCheckpoint(step, data, goldData);
+            }
+        }
+    }
+
+    private void saveCheckpoint(Step step, Map<String, List<AnnotatedArgumentPair>> data,
+            Map<String, List<GoldLabelPairContainer>> goldData)
+            throws IOException
+    {
+        if (!checkpointDir.exists()) {
+            checkpointDir.mkdirs();
+        }
+
+        File output;
+        if (data == null) {
+            output = new File(checkpointDir, step + ".xml");
+            XStreamTools.toXML(goldData, output);
+        }
+        else if (snapshotCheckpoints) {
+            output = new File(checkpointDir, step + ".snapshot");
+            IOHelper.saveAnnotatedPairsSnapshot(data, output);
+        }
+        else {
+            output = new File(checkpointDir, step.toString());
+            if (!output.exists()) {
+                output.mkdirs();
+            }
+            IOHelper.saveAnnotatedPairs(data, output);
+        }
+
+        System.out.println("Checkpoint of " + step + " saved to " + output);
+    }
+
+    /**
+     * Arguments: input (dir with XMLs, snapshot file or gold data XML, see
+     * {@link #run(File)}), output dir of the CSV files, MTurk result files (comma-separated)
+     * and optionally the checkpoint dir. The chain is set by {@code -Dpipeline.steps} (default
+     * all steps), the checkpoints by {@code -Dpipeline.checkpoints} (default none), both
+     * comma-separated step names such as {@code step6}; {@code -Dpipeline.snapshots=true}
+     * saves the checkpoints as snapshot files.
+     *
+     * @param args arguments
+     * @throws IOException exception
+     */
+    public static void main(String[] args)
+            throws IOException
+    {
+        File input = new File(args[0]);
+        File outputDir = new File(args[1]);
+
+        List<Step> steps = parseSteps(System.getProperty("pipeline.steps"));
+        if (steps.isEmpty()) {
+            steps = Arrays.asList(Step.values());
+        }
+
+        PipelineRunner runner = new PipelineRunner(steps);
+        runner.setOutputDir(outputDir);
+
+        if (steps.contains(Step.step9)) {
+            List<File> csvFiles = new ArrayList<>();
+            for (String f : args[2].split(",")) {
+                csvFiles.add(new File(f));
+            }
+            runner.setGoldLabelProvider(
+                    Step9EstimatedLabelsExtractor.createGoldLabelProvider(csvFiles));
+        }
+
+        List<Step> checkpoints = parseSteps(System.getProperty("pipeline.checkpoints"));
+        if (!checkpoints.isEmpty()) {
+            if (args.length < 4) {
+                throw new IllegalArgumentException("Checkpoints require a checkpoint dir");
+            }
+            runner.setCheckpoints(checkpoints, new File(args[3]),
+                    Boolean.getBoolean("pipeline.snapshots"));
+        }
+
+        runner.run(input);
+    }
+
+    private static List<Step> parseSteps(String steps)
+    {
+        List<Step> result = new ArrayList<>();
+        if (steps != null) {
+            for (String step : steps.split(",")) {
+                if (!step.trim().isEmpty()) {
+                    result.add(Step.valueOf(step.trim()));
+                }
+            }
+        }
+        return result;
+    }
+}
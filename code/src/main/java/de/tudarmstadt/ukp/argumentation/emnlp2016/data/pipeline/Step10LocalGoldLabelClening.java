@@ -330,14 +330,24 @@ public class Step10LocalGoldLabelClening
         return label.startsWith("o8") || label.startsWith("o9");
     }
 
+    /**
+     * Applies all filters to the reason units of the data
+     *
+     * @param data map (file name, list of argument pairs)
+     */
+    public static void cleanGoldLabels(Map<String, List<AnnotatedArgumentPair>> data)
+    {
+        filterNotExplanationReasonUnits(data);
+        filterWrongPolarityLabels(data);
+        filterContradictionsOnArguments(data);
+    }
+
     public static void main(String[] args)
             throws IOException
     {
         File inputDir = new File(args[0]);
         Map<String, List<AnnotatedArgumentPair>> data = IOHelper.loadAnnotatedPais(inputDir);
-        filterNotExplanationReasonUnits(data);
-        filterWrongPolarityLabels(data);
-        filterContradictionsOnArguments(data);
+        cleanGoldLabels(data);
 
         // save data
         File outputDir = new File(args[1]);
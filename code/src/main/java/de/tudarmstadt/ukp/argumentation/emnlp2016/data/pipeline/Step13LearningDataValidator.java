@@ -23,6 +23,8 @@ import com.github.mustachejava.DefaultMustacheFactory;
 import com.github.mustachejava.Mustache;
 import com.github.mustachejava.MustacheFactory;
 import de.tudarmstadt.ukp.argumentation.emnlp2016.data.mace.MACE;
+import de.tudarmstadt.ukp.argumentation.emnlp2016.data.mace.MACEOptions;
+import de.tudarmstadt.ukp.argumentation.emnlp2016.data.mace.MACEResult;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
@@ -31,8 +33,6 @@ import de.tudarmstadt.ukp.argumentation.emnlp2016.data.sampling.MTurkOutputReade
 import de.tudarmstadt.ukp.argumentation.emnlp2016.data.sampling.XStreamTools;
 
 import java.io.*;
-import java.nio.file.Files;
-import java.nio.file.Path;
 import java.util.*;
 
 /**
@@ -388,18 +388,24 @@ public class Step13LearningDataValidator
         // map (item, map(worker, value))
         SortedMap<String, SortedMap<String, String>> mapItemWorkerResult = new TreeMap<>();
 
+        // parse the column names once; item id is the answer name up to the first dot
+        MTurkAnswerSchema schema = MTurkAnswerSchema.compile(reader.getColumnNames());
+        String[] itemIds = new String[schema.size()];
+        for (int i = 0; i < schema.size(); i++) {
+            if (!"Answer.feedback".equals(schema.getColumnName(i))) {
+                itemIds[i] = schema.getAnswerName(i).split("\\.")[0];
+            }
+        }
+
         for (Map<String, String> row : reader) {
             // worker id
             String workerid = row.get("workerid");
 
-            for (Map.Entry<String, String> entry : row.entrySet()) {
-                System.out.println(entry);
-
-                String key = entry.getKey();
-                if (key.startsWith("Answer.") && !"Answer.feedback".equals(key)) {
+            for (int i = 0; i < schema.size(); i++) {
+                String value = row.get(schema.getColumnName(i));
+                if (itemIds[i] != null && value != null) {
                     // get item id
-                    String id = key.split("\\.")[1];
-                    String value = entry.getValue();
+                    String id = itemIds[i];
 
                     // update results
                     if (!mapItemWorkerResult.containsKey(id)) {
@@ -437,25 +443,20 @@ public class Step13LearningDataValidator
 
     }
 
-    private static String prepareCSV(SortedMap<String, SortedMap<String, String>> annotations,
-            List<String> workerIDs)
+    private static String[][] prepareMatrix(
+            SortedMap<String, SortedMap<String, String>> annotations, List<String> workerIDs)
     {
         // for each item we need an array of annotations, i.e.
         // label1,,,label1,label2,label1,,,
         // whose size is number of annotators and annotators are identified by position (array index)
+        String[][] result = new String[annotations.size()][];
 
-        // storing the resulting lines
-        List<String> result = new ArrayList<>();
-
-        for (Map.Entry<String, SortedMap<String, String>> entry : annotations.entrySet()) {
-            // for storing individual assignments
+        int itemIndex = 0;
+        for (SortedMap<String, String> item : annotations.values()) {
+            // for storing individual assignments; null for missing ones
             String[] assignmentsArray = new String[workerIDs.size()];
-            // fill with empty strings
-            Arrays.fill(assignmentsArray, "");
-
-            for (Map.Entry<String, String> assignment : entry.getValue().entrySet()) {
-                // do we want to include this annotation at all?
 
+            for (Map.Entry<String, String> assignment : item.entrySet()) {
                 // get the worker index
                 int workerIndex = Collections.binarySearch(workerIDs, assignment.getKey());
 
@@ -463,23 +464,16 @@ public class Step13LearningDataValidator
                 assignmentsArray[workerIndex] = assignment.getValue();
             }
 
-            // concatenate with comma
-            String line = StringUtils.join(assignmentsArray, ",");
+            System.out.println(StringUtils.join(assignmentsArray, ","));
 
-            System.out.println(line);
-
-            result.add(line);
+            result[itemIndex++] = assignmentsArray;
         }
 
-        // add empty line at the end
-        result.add("");
-
-        return StringUtils.join(result, "\n");
+        return result;
     }
 
     public static MACEOutputContainerValidation estimateGoldLabels(
             SortedMap<String, SortedMap<String, String>> mapItemWorkerResult, double threshold)
-            throws IOException
     {
 
         // get sorted turkers
@@ -491,50 +485,37 @@ public class Step13LearningDataValidator
         List<String> turkerIDs = new ArrayList<>(turkerIDsSet);
         System.out.println(turkerIDs);
 
-        // save CSV and run MACE
-        String preparedCSV = prepareCSV(mapItemWorkerResult, turkerIDs);
-
-        Path tmpDir = Files.createTempDirectory("mace");
-        File maceInputFile = new File(tmpDir.toFile(), "input.csv");
-        FileUtils.writeStringToFile(maceInputFile, preparedCSV, "utf-8");
-
-        File outputPredictions = new File(tmpDir.toFile(), "predictions.txt");
-        File outputCompetence = new File(tmpDir.toFile(), "competence.txt");
-
         // generate control gold label with probability 0.5
         List<Boolean> controlVector = new ArrayList<>();
-        File controls = new File(tmpDir.toFile(), "controls.csv");
-        PrintWriter pw = new PrintWriter(controls);
+        String[] controls = new String[mapItemWorkerResult.size()];
         for (int i = 0; i < mapItemWorkerResult.size(); i++) {
             if (RANDOM.nextDouble() < 0.5) {
-                pw.println("0");
+                controls[i] = "0";
                 controlVector.add(true);
             }
             else {
-                pw.println("");
                 controlVector.add(false);
             }
         }
-        pw.close();
 
         // run MACE
-        MACE.main(new String[] { "--iterations", "500", "--threshold", String.valueOf(threshold),
-                "--restarts", "50", "--outputPredictions", outputPredictions.getAbsolutePath(),
-                "--outputCompetence", outputCompetence.getAbsolutePath(), "--controls", controls.getAbsolutePath(),
-                maceInputFile.getAbsolutePath() });
-
-        // read back the predictions and competence
-        List<String> predictions = FileUtils.readLines(outputPredictions, "utf-8");
+        MACEOptions options = new MACEOptions();
+        options.setIterations(500);
+        options.setRestarts(50);
+        options.setThreshold(threshold);
+        options.setControls(controls);
+        MACEResult maceResult = new MACE(prepareMatrix(mapItemWorkerResult, turkerIDs))
+                .run(options);
 
         // check the output
-        if (predictions.size() != mapItemWorkerResult.size()) {
+        String[] predictions = maceResult.getPredictions();
+        if (predictions.length != mapItemWorkerResult.size()) {
             throw new IllegalStateException(
-                    "Wrong size of the predicted file; expected " + mapItemWorkerResult.size()
-                            + " lines but was " + predictions.size());
+                    "Wrong number of predictions; expected " + mapItemWorkerResult.size()
+                            + " but was " + predictions.length);
         }
 
-        String competenceRaw = FileUtils.readFileToString(outputCompetence, "utf-8");
-        String[] competence = competenceRaw.split("\t");
+        double[] competence = maceResult.getCompetences();
         if (competence.length != turkerIDs.size()) {
             throw new IllegalStateException(
                     "Expected " + turkerIDs.size() + " competence number, got "
@@ -546,22 +527,20 @@ public class Step13LearningDataValidator
         for (int i = 0; i < competence.length; i++) {
             // get worker ID
             String worker = turkerIDs.get(i);
-            // and competence
-            Double c = Double.valueOf(competence[i]);
 
-            competences.put(worker, c);
+            competences.put(worker, competence[i]);
         }
 
         SortedMap<String, String> goldLabels = new TreeMap<>();
 
-        // both lists have the same order
-        Iterator<String> predictionsIterator = predictions.iterator();
+        // both have the same order
+        int predictionIndex = 0;
         for (String id : mapItemWorkerResult.keySet()) {
-            String predictedLabelLine = predictionsIterator.next().trim();
+            String predictedLabel = predictions[predictionIndex++];
 
-            // if the line is empty, the label was not estimated (see threshold param in MACE)
-            if (!predictedLabelLine.isEmpty()) {
-                goldLabels.put(id, predictedLabelLine);
+            // if the label is empty, it was not estimated (see threshold param in MACE)
+            if (!predictedLabel.isEmpty()) {
+                goldLabels.put(id, predictedLabel);
             }
         }
 
@@ -570,9 +549,6 @@ public class Step13LearningDataValidator
         result.setGoldLabelPredictions(goldLabels);
         result.setControlVector(controlVector);
 
-        // clean up temporary files
-        FileUtils.deleteDirectory(tmpDir.toFile());
-
         return result;
     }
 
@@ -40,6 +40,7 @@ import org.apache.uima.jcas.JCas;
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.util.*;
 
@@ -597,7 +598,7 @@ public class Step3ReasonUnitProducer
             throws Exception
     {
         String inputDir = args[0];
-        File outputDir = new File(args[1]);
+        final File outputDir = new File(args[1]);
 
         if (!outputDir.exists()) {
             outputDir.mkdirs();
@@ -609,7 +610,7 @@ public class Step3ReasonUnitProducer
         // see Step1
         BZip2CompressorInputStream bz2in = new BZip2CompressorInputStream(
                 new FileInputStream("reasons-edu.txt.bz2"));
-        LinkedHashMap<String, List<ReasonUnit>> reasonUnits = preprocessReasonUnits(bz2in);
+        final LinkedHashMap<String, List<ReasonUnit>> reasonUnits = preprocessReasonUnits(bz2in);
 
         // for generating ConvArgStrict use this
         //        String prefix = "no-eq_DescendingScoreArgumentPairListSorter";
@@ -622,44 +623,53 @@ public class Step3ReasonUnitProducer
         //            }
         //        }
 
-        for (File file : files) {
-            List<AnnotatedArgumentPair> argumentPairs = (List<AnnotatedArgumentPair>) XStreamTools
-                    .getXStream().fromXML(file);
-            for (AnnotatedArgumentPair argumentPair : argumentPairs) {
-                // create new assignments by copying the old ones
-                List<MTurkAssignment> copyAssignments = new ArrayList<>();
-                for (MTurkAssignment assignment : argumentPair.getMTurkAssignments()) {
-                    MTurkAssignmentWithReasonUnits copy = new MTurkAssignmentWithReasonUnits(
-                            assignment);
-                    copyAssignments.add(copy);
-                }
-                // and set the new list
-                argumentPair.setMTurkAssignments(copyAssignments);
-
-                // and now add the reasons
-                for (MTurkAssignment assignment : argumentPair.getMTurkAssignments()) {
-                    if (!(assignment instanceof MTurkAssignmentWithReasonUnits)) {
-                        throw new IllegalStateException();
+        // the files are independent, the reason units are only read
+        IOHelper.processFiles(files, new IOHelper.FileTask<Void>()
+        {
+            @Override
+            public Void process(File file)
+                    throws IOException
+            {
+                List<AnnotatedArgumentPair> argumentPairs = (List<AnnotatedArgumentPair>)
+                        XStreamTools.getXStream().fromXML(file);
+                for (AnnotatedArgumentPair argumentPair : argumentPairs) {
+                    // create new assignments by copying the old ones
+                    List<MTurkAssignment> copyAssignments = new ArrayList<>();
+                    for (MTurkAssignment assignment : argumentPair.getMTurkAssignments()) {
+                        MTurkAssignmentWithReasonUnits copy =
+                                new MTurkAssignmentWithReasonUnits(assignment);
+                        copyAssignments.add(copy);
                     }
+                    // and set the new list
+                    argumentPair.setMTurkAssignments(copyAssignments);
+
+                    // and now add the reasons
+                    for (MTurkAssignment assignment : argumentPair.getMTurkAssignments()) {
+                        if (!(assignment instanceof MTurkAssignmentWithReasonUnits)) {
+                            throw new IllegalStateException();
+                        }
 
-                    MTurkAssignmentWithReasonUnits a = (MTurkAssignmentWithReasonUnits) assignment;
+                        MTurkAssignmentWithReasonUnits a =
+                                (MTurkAssignmentWithReasonUnits) assignment;
 
-                    // get the id
-                    String uniqueID = ReasonReader.extractUniqueID(argumentPair, a);
+                        // get the id
+                        String uniqueID = ReasonReader.extractUniqueID(argumentPair, a);
 
-                    // look-up in the prepared map
-                    List<ReasonUnit> assignmentReasonUnits = reasonUnits.get(uniqueID);
+                        // look-up in the prepared map
+                        List<ReasonUnit> assignmentReasonUnits = reasonUnits.get(uniqueID);
 
-                    // and add the reasons
-                    if (assignmentReasonUnits != null) {
-                        a.getReasonUnits().addAll(assignmentReasonUnits);
+                        // and add the reasons
+                        if (assignmentReasonUnits != null) {
+                            a.getReasonUnits().addAll(assignmentReasonUnits);
+                        }
                     }
                 }
-            }
 
-            File outputFile = new File(outputDir, file.getName());
-            XStreamTools.toXML(argumentPairs, outputFile);
-        }
+                File outputFile = new File(outputDir, file.getName());
+                XStreamTools.toXML(argumentPairs, outputFile);
+                return null;
+            }
+        });
 
         // save the to file
         //        XStreamTools.toXML(reasonUnits, new File("/tmp/reasons-preprocessed.xml"));
@@ -19,13 +19,16 @@
 package de.tudarmstadt.ukp.argumentation.emnlp2016.data.pipeline;
 
 import de.tudarmstadt.ukp.argumentation.emnlp2016.data.sampling.AnnotatedArgumentPair;
+import de.tudarmstadt.ukp.argumentation.emnlp2016.data.sampling.AnnotatedArgumentPairReader;
+import de.tudarmstadt.ukp.argumentation.emnlp2016.data.sampling.AnnotatedArgumentPairWriter;
 import de.tudarmstadt.ukp.argumentation.emnlp2016.data.sampling.IOHelper;
 import de.tudarmstadt.ukp.argumentation.emnlp2016.data.sampling.MTurkAssignment;
-import de.tudarmstadt.ukp.argumentation.emnlp2016.data.sampling.XStreamTools;
 
 import java.io.File;
-import java.util.Collection;
+import java.io.IOException;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * @author Ivan Habernal
@@ -33,34 +36,110 @@ import java.util.List;
 public class Step5ReasonUnitIDCreator
 
 {
-    public static void extractAllReasons(File inputDir, File outputDir)
+    public static void extractAllReasons(File inputDir, final File outputDir)
             throws Exception
     {
-        Collection<File> files = IOHelper.listXmlFiles(inputDir);
+        List<File> files = IOHelper.listXmlFiles(inputDir);
 
-        int counter = 0;
+        // first pass: number of reason units in each file, so that the files can be numbered
+        // in parallel with the same IDs as one after the other
+        List<Integer> reasonUnitCounts = IOHelper.processFiles(files,
+                new IOHelper.FileTask<Integer>()
+                {
+                    @Override
+                    public Integer process(File file)
+                            throws IOException
+                    {
+                        int result = 0;
+                        try (AnnotatedArgumentPairReader reader = new AnnotatedArgumentPairReader(
+                                file)) {
+                            for (AnnotatedArgumentPair argumentPair : reader) {
+                                result += countReasonUnits(argumentPair);
+                            }
+                        }
+                        return result;
+                    }
+                });
 
-        for (File file : files) {
-            List argumentPairs = (List) XStreamTools.getXStream().fromXML(file);
-            for (Object o : argumentPairs) {
-                AnnotatedArgumentPair argumentPair = (AnnotatedArgumentPair) o;
-                // and now the reasons
-                for (MTurkAssignment assignment : argumentPair.getMTurkAssignments()) {
-                    MTurkAssignmentWithReasonUnits a = (MTurkAssignmentWithReasonUnits) assignment;
+        // first ID of each file
+        final Map<File, Integer> firstIds = new HashMap<>();
+        int counter = 0;
+        for (int i = 0; i < files.size(); i++) {
+            firstIds.put(files.get(i), counter);
+            counter += reasonUnitCounts.get(i);
+        }
 
-                    for (int i = 0; i < a.getReasonUnits().size(); i++) {
-                        ReasonUnit reasonUnit = a.getReasonUnits().get(i);
+        IOHelper.processFiles(files, new IOHelper.FileTask<Void>()
+        {
+            @Override
+            public Void process(File file)
+                    throws IOException
+            {
+                File outputFile = new File(outputDir, file.getName());
+                int counter = firstIds.get(file);
 
-                        reasonUnit.setId(String.valueOf(counter));
+                // one pair at a time
+                try (AnnotatedArgumentPairReader reader = new AnnotatedArgumentPairReader(file);
+                        AnnotatedArgumentPairWriter writer = new AnnotatedArgumentPairWriter(
+                                outputFile)) {
+                    for (AnnotatedArgumentPair argumentPair : reader) {
+                        counter = createIds(argumentPair, counter);
 
-                        counter++;
+                        writer.write(argumentPair);
                     }
                 }
+                return null;
             }
+        });
+    }
 
-            File outputFile = new File(outputDir, file.getName());
-            XStreamTools.toXML(argumentPairs, outputFile);
+    /**
+     * Numbers the reason units of all pairs in memory, in the order of the map
+     *
+     * @param data map (file name, list of argument pairs)
+     */
+    public static void extractAllReasons(Map<String, List<AnnotatedArgumentPair>> data)
+    {
+        int counter = 0;
+
+        for (List<AnnotatedArgumentPair> argumentPairs : data.values()) {
+            for (AnnotatedArgumentPair argumentPair : argumentPairs) {
+                counter = createIds(argumentPair, counter);
+            }
+        }
+    }
+
+    private static int countReasonUnits(AnnotatedArgumentPair argumentPair)
+    {
+        int result = 0;
+        for (MTurkAssignment assignment : argumentPair.getMTurkAssignments()) {
+            result += ((MTurkAssignmentWithReasonUnits) assignment).getReasonUnits().size();
+        }
+        return result;
+    }
+
+    /**
+     * Numbers the reason units of the pair
+     *
+     * @param argumentPair argument pair
+     * @param counter      ID of the first reason unit
+     * @return ID of the next reason unit
+     */
+    private static int createIds(AnnotatedArgumentPair argumentPair, int counter)
+    {
+        // and now the reasons
+        for (MTurkAssignment assignment : argumentPair.getMTurkAssignments()) {
+            MTurkAssignmentWithReasonUnits a = (MTurkAssignmentWithReasonUnits) assignment;
+
+            for (int i = 0; i < a.getReasonUnits().size(); i++) {
+                ReasonUnit reasonUnit = a.getReasonUnits().get(i);
+
+                reasonUnit.setId(String.valueOf(counter));
+
+                counter++;
+            }
         }
+        return counter;
     }
 
     public static void main(String[] args)
@@ -19,119 +19,294 @@
 package de.tudarmstadt.ukp.argumentation.emnlp2016.data.pipeline;
 
 import de.tudarmstadt.ukp.argumentation.emnlp2016.data.sampling.AnnotatedArgumentPair;
+import de.tudarmstadt.ukp.argumentation.emnlp2016.data.sampling.AnnotatedArgumentPairReader;
+import de.tudarmstadt.ukp.argumentation.emnlp2016.data.sampling.AnnotatedArgumentPairWriter;
 import de.tudarmstadt.ukp.argumentation.emnlp2016.data.sampling.IOHelper;
 import de.tudarmstadt.ukp.argumentation.emnlp2016.data.sampling.MTurkAssignment;
-import de.tudarmstadt.ukp.argumentation.emnlp2016.data.sampling.XStreamTools;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
-import java.util.TreeMap;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
 
 /**
  * @author Ivan Habernal
  */
 public class Step6ReasonUnitForAnnotationProducer
 {
-    private static void prepareData(File inputDir, File outputDir)
-            throws IOException
+    /**
+     * Texts for annotation and competences of the original workers of the reason units of a
+     * file that are not ignored, in the order of the file
+     */
+    private static class FileReasonUnits
     {
-        // reason unit text (modified); all scores of the original workers
-        Map<String, List<Double>> allReasonUnitTextsAndCompetences = new TreeMap<>();
+        final List<String> texts = new ArrayList<>();
+        final List<Double> competences = new ArrayList<>();
+    }
 
+    private static void prepareData(File inputDir, final File outputDir)
+            throws IOException
+    {
         List<File> files = new ArrayList<>(IOHelper.listXmlFiles(inputDir));
 
-        for (File file : files) {
-            List argumentPairs = (List) XStreamTools.getXStream().fromXML(file);
-            for (Object o : argumentPairs) {
-                AnnotatedArgumentPair argumentPair = (AnnotatedArgumentPair) o;
-                // and now the reasons
-                for (MTurkAssignment assignment : argumentPair.getMTurkAssignments()) {
-                    MTurkAssignmentWithReasonUnits a = (MTurkAssignmentWithReasonUnits) assignment;
-
-                    for (int i = 0; i < a.getReasonUnits().size(); i++) {
-                        ReasonUnit reasonUnit = a.getReasonUnits().get(i);
-
-                        String text = modifyReasonUnitText(reasonUnit.getReasonUnitText());
-
-                        if (text == null) {
-                            // too short!
-                            reasonUnit.setIgnored(true);
-                        }
-                        else {
-                            // check if seen already
-                            if (!allReasonUnitTextsAndCompetences.containsKey(text)) {
-                                allReasonUnitTextsAndCompetences.put(text, new ArrayList<Double>());
-                                // unseen reason unit, annotation candidate
-
-                                reasonUnit.setDuplicate(false);
-                            }
-                            else {
-                                reasonUnit.setDuplicate(true);
-                            }
-
-                            // and add the score to get the average
-                            double workerCompetence = assignment.getTurkCompetence();
-                            allReasonUnitTextsAndCompetences.get(text).add(workerCompetence);
-
-                            // set text
-                            reasonUnit.setTextForAnnotation(text);
-                        }
-
-                        if (reasonUnit.getTarget() == null) {
-                            throw new IllegalStateException(reasonUnit.getId());
-                        }
+        // first pass: texts for annotation; whether a text is a duplicate depends on all
+        // previous files, so it is decided once all files have been read
+        List<FileReasonUnits> fileReasonUnits = IOHelper.processFiles(files,
+                new IOHelper.FileTask<FileReasonUnits>()
+                {
+                    @Override
+                    public FileReasonUnits process(File file)
+                            throws IOException
+                    {
+                        return prepareFile(file, new File(outputDir, file.getName()));
                     }
+                });
+
+        // reason unit text (modified); all scores of the original workers
+        List<BitSet> firstOccurrenceList = new ArrayList<>();
+        final Map<String, List<Double>> allReasonUnitTextsAndCompetences = findFirstOccurrences(
+                fileReasonUnits, firstOccurrenceList);
+
+        final Map<File, BitSet> firstOccurrences = new LinkedHashMap<>();
+        for (int i = 0; i < files.size(); i++) {
+            firstOccurrences.put(new File(outputDir, files.get(i).getName()),
+                    firstOccurrenceList.get(i));
+        }
+
+        // now the second pass over the data
+        List<File> filesSecondPass = new ArrayList<>(firstOccurrences.keySet());
+
+        IOHelper.processFiles(filesSecondPass, new IOHelper.FileTask<Void>()
+        {
+            @Override
+            public Void process(File file)
+                    throws IOException
+            {
+                completeFile(file, firstOccurrences.get(file), allReasonUnitTextsAndCompetences);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Prepares the reason units of all pairs in memory for annotation; duplicates are
+     * determined in the order of the map
+     *
+     * @param data map (file name, list of argument pairs)
+     */
+    public static void prepareData(Map<String, List<AnnotatedArgumentPair>> data)
+    {
+        List<FileReasonUnits> fileReasonUnits = new ArrayList<>();
+        for (List<AnnotatedArgumentPair> argumentPairs : data.values()) {
+            FileReasonUnits reasonUnits = new FileReasonUnits();
+            for (AnnotatedArgumentPair argumentPair : argumentPairs) {
+                prepareReasonUnits(argumentPair, reasonUnits);
+            }
+            fileReasonUnits.add(reasonUnits);
+        }
+
+        List<BitSet> firstOccurrences = new ArrayList<>();
+        Map<String, List<Double>> allReasonUnitTextsAndCompetences = findFirstOccurrences(
+                fileReasonUnits, firstOccurrences);
+
+        int i = 0;
+        for (List<AnnotatedArgumentPair> argumentPairs : data.values()) {
+            BitSet firstOccurrence = firstOccurrences.get(i++);
+            int index = 0;
+            for (AnnotatedArgumentPair argumentPair : argumentPairs) {
+                index = completeReasonUnits(argumentPair, firstOccurrence, index,
+                        allReasonUnitTextsAndCompetences);
+            }
+        }
+    }
+
+    /**
+     * Collects the competences of the original workers of each text and finds the first
+     * occurrence of each text (in the order of files), which is not a duplicate
+     *
+     * @param fileReasonUnits  texts and competences of each file
+     * @param firstOccurrences filled with the indices of the first occurrences in each file
+     * @return text, competences of all its original workers
+     */
+    private static Map<String, List<Double>> findFirstOccurrences(
+            List<FileReasonUnits> fileReasonUnits, List<BitSet> firstOccurrences)
+    {
+        // reason unit text (modified); all scores of the original workers
+        Map<String, List<Double>> result = new TreeMap<>();
+
+        for (FileReasonUnits reasonUnits : fileReasonUnits) {
+            BitSet firstOccurrence = new BitSet(reasonUnits.texts.size());
+
+            for (int k = 0; k < reasonUnits.texts.size(); k++) {
+                String text = reasonUnits.texts.get(k);
+
+                // check if seen already
+                if (!result.containsKey(text)) {
+                    result.put(text, new ArrayList<Double>());
+                    // unseen reason unit, annotation candidate
+                    firstOccurrence.set(k);
                 }
+
+                // and add the score to get the average
+                result.get(text).add(reasonUnits.competences.get(k));
             }
 
-            // save the file
-            File outputFile = new File(outputDir, file.getName());
-            XStreamTools.toXML(argumentPairs, outputFile);
+            firstOccurrences.add(firstOccurrence);
         }
 
-        // now the second pass over the data
-        List<File> filesSecondPass = new ArrayList<>(IOHelper.listXmlFiles(outputDir));
-
-        for (File file : filesSecondPass) {
-            List argumentPairs = (List) XStreamTools.getXStream().fromXML(file);
-            for (Object o : argumentPairs) {
-                AnnotatedArgumentPair argumentPair = (AnnotatedArgumentPair) o;
-                // and now the reasons
-                for (MTurkAssignment assignment : argumentPair.getMTurkAssignments()) {
-                    MTurkAssignmentWithReasonUnits a = (MTurkAssignmentWithReasonUnits) assignment;
-
-                    for (int i = 0; i < a.getReasonUnits().size(); i++) {
-                        ReasonUnit reasonUnit = a.getReasonUnits().get(i);
-
-                        if (!reasonUnit.isIgnored() && !reasonUnit.isDuplicate()) {
-                            String text = reasonUnit.getTextForAnnotation();
-
-                            // compute average
-                            List<Double> competences = allReasonUnitTextsAndCompetences.get(text);
-
-                            if (competences.isEmpty()) {
-                                throw new IllegalStateException();
-                            }
-
-                            // make average
-                            double avg = 0.0;
-                            for (Double d : competences) {
-                                avg += d;
-                            }
-                            avg = avg / (double) competences.size();
-
-                            reasonUnit.setAverageCompetenceOfOriginalWorkers(avg);
-                        }
-                    }
+        return result;
+    }
+
+    /**
+     * Sets the texts for annotation and marks too short reason units as ignored
+     *
+     * @param file       input file
+     * @param outputFile output file
+     * @return texts and competences of the reason units which are not ignored
+     * @throws IOException exception
+     */
+    private static FileReasonUnits prepareFile(File file, File outputFile)
+            throws IOException
+    {
+        FileReasonUnits result = new FileReasonUnits();
+
+        // one pair at a time
+        try (AnnotatedArgumentPairReader reader = new AnnotatedArgumentPairReader(file);
+                AnnotatedArgumentPairWriter writer = new AnnotatedArgumentPairWriter(
+                        outputFile)) {
+            for (AnnotatedArgumentPair argumentPair : reader) {
+                prepareReasonUnits(argumentPair, result);
+
+                writer.write(argumentPair);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Sets the texts for annotation of the reason units of the pair and marks too short ones
+     * as ignored
+     *
+     * @param argumentPair argument pair
+     * @param reasonUnits  texts and competences of the reason units which are not ignored are
+     *                     added here
+     */
+    private static void prepareReasonUnits(AnnotatedArgumentPair argumentPair,
+            FileReasonUnits reasonUnits)
+    {
+        // and now the reasons
+        for (MTurkAssignment assignment : argumentPair.getMTurkAssignments()) {
+            MTurkAssignmentWithReasonUnits a = (MTurkAssignmentWithReasonUnits) assignment;
+
+            for (int i = 0; i < a.getReasonUnits().size(); i++) {
+                ReasonUnit reasonUnit = a.getReasonUnits().get(i);
+
+                String text = modifyReasonUnitText(reasonUnit.getReasonUnitText());
+
+                if (text == null) {
+                    // too short!
+                    reasonUnit.setIgnored(true);
+                }
+                else {
+                    double workerCompetence = assignment.getTurkCompetence();
+                    reasonUnits.texts.add(text);
+                    reasonUnits.competences.add(workerCompetence);
+
+                    // set text
+                    reasonUnit.setTextForAnnotation(text);
                 }
+
+                if (reasonUnit.getTarget() == null) {
+                    throw new IllegalStateException(reasonUnit.getId());
+                }
+            }
+        }
+    }
+
+    /**
+     * Marks duplicates and sets the average competence of the original workers to the other
+     * reason units; the file is rewritten in place
+     *
+     * @param file                             file written by {@link #prepareFile(File, File)}
+     * @param firstOccurrence                  indices (among the reason units which are not
+     *                                         ignored) of the first occurrences of their text
+     * @param allReasonUnitTextsAndCompetences text, competences of all its original workers
+     * @throws IOException exception
+     */
+    private static void completeFile(File file, BitSet firstOccurrence,
+            Map<String, List<Double>> allReasonUnitTextsAndCompetences)
+            throws IOException
+    {
+        // the new version replaces the file when complete
+        File tmpFile = new File(file.getParentFile(), file.getName() + ".tmp");
+
+        int index = 0;
+        try (AnnotatedArgumentPairReader reader = new AnnotatedArgumentPairReader(file);
+                AnnotatedArgumentPairWriter writer = new AnnotatedArgumentPairWriter(tmpFile)) {
+            for (AnnotatedArgumentPair argumentPair : reader) {
+                index = completeReasonUnits(argumentPair, firstOccurrence, index,
+                        allReasonUnitTextsAndCompetences);
+
+                writer.write(argumentPair);
             }
+        }
+
+        Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Marks duplicates among the reason units of the pair and sets the average competence of
+     * the original workers to the other ones
+     *
+     * @param argumentPair                     argument pair
+     * @param firstOccurrence                  see {@link #completeFile(File, BitSet, Map)}
+     * @param index                            index of the first reason unit of the pair which
+     *                                         is not ignored
+     * @param allReasonUnitTextsAndCompetences text, competences of all its original workers
+     * @return index of the next reason unit
+     */
+    private static int completeReasonUnits(AnnotatedArgumentPair argumentPair,
+            BitSet firstOccurrence, int index,
+            Map<String, List<Double>> allReasonUnitTextsAndCompetences)
+    {
+        // and now the reasons
+        for (MTurkAssignment assignment : argumentPair.getMTurkAssignments()) {
+            MTurkAssignmentWithReasonUnits a = (MTurkAssignmentWithReasonUnits) assignment;
 
-            File outputFile = new File(outputDir, file.getName());
-            XStreamTools.toXML(argumentPairs, outputFile);
+            for (int i = 0; i < a.getReasonUnits().size(); i++) {
+                ReasonUnit reasonUnit = a.getReasonUnits().get(i);
+
+                if (reasonUnit.isIgnored()) {
+                    continue;
+                }
+
+                reasonUnit.setDuplicate(!firstOccurrence.get(index));
+                index++;
+
+                if (!reasonUnit.isDuplicate()) {
+                    String text = reasonUnit.getTextForAnnotation();
+
+                    // compute average
+                    List<Double> competences = allReasonUnitTextsAndCompetences.get(text);
+
+                    if (competences.isEmpty()) {
+                        throw new IllegalStateException();
+                    }
+
+                    // make average
+                    double avg = 0.0;
+                    for (Double d : competences) {
+                        avg += d;
+                    }
+                    avg = avg / (double) competences.size();
+
+                    reasonUnit.setAverageCompetenceOfOriginalWorkers(avg);
+                }
+            }
         }
+        return index;
     }
 
     /**
@@ -35,6 +35,7 @@ public class Step8HITChecker
             throws IOException {
         MTurkGoldLabelProvider labelProvider = new MTurkGoldLabelProvider(Collections.singletonList(file), 1.0, false);
         labelProvider.setIgnoreRejected(true);
+        labelProvider.setResultCache(MACEResultCache.getDefault());
 
         System.out.println(StringUtils.join(labelProvider.getFeedbacks().entrySet(), "\n"));
 
@@ -43,6 +44,11 @@ public class Step8HITChecker
     public static void showBestWorkers(File file) throws IOException {
         MTurkGoldLabelProvider labelProvider = new MTurkGoldLabelProvider(Collections.singletonList(file), 1.0, false);
         labelProvider.setIgnoreRejected(true);
+        labelProvider.setResultCache(MACEResultCache.getDefault());
+
+        // competence intervals only on request (-Dmturk.bootstrap.resamples=200); each
+        // resample refits MACE
+        labelProvider.setBootstrap(Integer.getInteger("mturk.bootstrap.resamples", 0));
 
 
 //        System.out.println("Worst ====================================");
@@ -19,6 +19,8 @@
 package de.tudarmstadt.ukp.argumentation.emnlp2016.data.pipeline;
 
 import de.tudarmstadt.ukp.argumentation.emnlp2016.data.sampling.AnnotatedArgumentPair;
+import de.tudarmstadt.ukp.argumentation.emnlp2016.data.sampling.AnnotatedArgumentPairReader;
+import de.tudarmstadt.ukp.argumentation.emnlp2016.data.sampling.AnnotatedArgumentPairWriter;
 import de.tudarmstadt.ukp.argumentation.emnlp2016.data.sampling.IOHelper;
 import de.tudarmstadt.ukp.argumentation.emnlp2016.data.sampling.MTurkAssignment;
 import de.tudarmstadt.ukp.argumentation.emnlp2016.data.sampling.MTurkReasonUnitAssignment;
@@ -26,6 +28,7 @@ import de.tudarmstadt.ukp.argumentation.emnlp2016.data.sampling.MTurkReasonUnitA
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -35,100 +38,269 @@ import java.util.Map;
  */
 public class Step9EstimatedLabelsExtractor
 {
-    public static void addGoldLabels(File inputDir, File outputDir,
-            GoldLabelProvider goldLabelProvider)
-            throws IOException
+    /**
+     * EM iterations when MACE starts from the model of the previous batches
+     */
+    private static final int WARM_START_ITERATIONS = 20;
+
+    /**
+     * Gold labels and assignments of the reason units to be annotated (neither ignored nor
+     * duplicates), fetched at once
+     */
+    private static class EstimatedLabels
     {
-        Map<String, List<AnnotatedArgumentPair>> annotatedPairs = IOHelper
-                .loadAnnotatedPais(inputDir);
-
-        Map<String, List<MTurkReasonUnitAssignment>> mapUnitTextAssignments = new HashMap<>();
-        Map<String, String> mapUnitTextGoldLabel = new HashMap<>();
-
-        int total = 0;
+        final String[] goldLabels;
+        final List<List<MTurkReasonUnitAssignment>> unitAssignments;
+
+        final Map<String, List<MTurkReasonUnitAssignment>> mapUnitTextAssignments =
+                new HashMap<>();
+        final Map<String, String> mapUnitTextGoldLabel = new HashMap<>();
+
+        EstimatedLabels(List<ReasonUnit> reasonUnits, GoldLabelProvider goldLabelProvider)
+        {
+            int[] reasonUnitIds = new int[reasonUnits.size()];
+            for (int i = 0; i < reasonUnitIds.length; i++) {
+                reasonUnitIds[i] = Integer.valueOf(reasonUnits.get(i).getId());
+            }
 
-        for (Map.Entry<String, List<AnnotatedArgumentPair>> entry : annotatedPairs.entrySet()) {
-            for (AnnotatedArgumentPair argumentPair : entry.getValue()) {
-                // and now the reasons
-                for (MTurkAssignment assignment : argumentPair.getMTurkAssignments()) {
-                    MTurkAssignmentWithReasonUnits a = (MTurkAssignmentWithReasonUnits) assignment;
+            goldLabels = goldLabelProvider.provideGoldLabels(reasonUnitIds);
+            unitAssignments = goldLabelProvider.getMTurkReasonUnitAssignments(reasonUnitIds);
 
-                    for (int i = 0; i < a.getReasonUnits().size(); i++) {
-                        ReasonUnit reasonUnit = a.getReasonUnits().get(i);
+            int total = 0;
+            for (int i = 0; i < reasonUnitIds.length; i++) {
+                if (goldLabels[i] != null) {
+                    total++;
+                }
 
-                        if (!reasonUnit.isIgnored() && !reasonUnit.isDuplicate()) {
-                            // get gold label
-                            Integer reasonUnitId = Integer.valueOf(reasonUnit.getId());
-                            String goldLabel = goldLabelProvider.provideGoldLabel(reasonUnitId);
+                // add to global map
+                String text = reasonUnits.get(i).getTextForAnnotation();
+                mapUnitTextAssignments.put(text, unitAssignments.get(i));
+                mapUnitTextGoldLabel.put(text, goldLabels[i]);
+            }
 
-                            // add gold label and all annotations
-                            reasonUnit.setEstimatedGoldLabel(goldLabel);
-                            List<MTurkReasonUnitAssignment> assignments = reasonUnit.getAssignments();
+            System.out.println("Total " + total + " reason units annotated");
+        }
 
-                            if (goldLabel != null) {
-                                total++;
-                            }
+        /**
+         * Adds gold labels and all annotations to the reason units of the pair, also to
+         * duplicates
+         *
+         * @param argumentPair argument pair
+         * @param index        one element, the index of the next reason unit to be annotated;
+         *                     advanced past the reason units of the pair
+         * @return number of reason units of the pair with a gold label (including duplicates)
+         */
+        int addGoldLabels(AnnotatedArgumentPair argumentPair, int[] index)
+        {
+            int result = 0;
+
+            for (ReasonUnit reasonUnit : getReasonUnits(argumentPair)) {
+                if (reasonUnit.isIgnored()) {
+                    continue;
+                }
 
-                            if (assignments == null) {
-                                throw new IllegalStateException();
-                            }
+                if (reasonUnit.getAssignments() == null) {
+                    throw new IllegalStateException();
+                }
 
-                            List<MTurkReasonUnitAssignment> mTurkReasonUnitAssignments = goldLabelProvider
-                                    .getMTurkReasonUnitAssignments(reasonUnitId);
+                if (!reasonUnit.isDuplicate()) {
+                    reasonUnit.setEstimatedGoldLabel(goldLabels[index[0]]);
+                    reasonUnit.getAssignments().addAll(unitAssignments.get(index[0]));
+                    index[0]++;
+                }
+                else {
+                    // get gold label
+                    String goldLabel = mapUnitTextGoldLabel
+                            .get(reasonUnit.getTextForAnnotation());
 
-                            assignments.addAll(mTurkReasonUnitAssignments);
+                    List<MTurkReasonUnitAssignment> mTurkReasonUnitAssignments =
+                            mapUnitTextAssignments.get(reasonUnit.getTextForAnnotation());
 
-                            // add to global map
-                            String unitText = reasonUnit.getTextForAnnotation();
-                            mapUnitTextAssignments.put(unitText, mTurkReasonUnitAssignments);
-                            mapUnitTextGoldLabel.put(unitText, goldLabel);
+                    // add gold label and all annotations
+                    reasonUnit.setEstimatedGoldLabel(goldLabel);
 
-                        }
+                    if (mTurkReasonUnitAssignments != null) {
+                        reasonUnit.getAssignments().addAll(mTurkReasonUnitAssignments);
                     }
                 }
+
+                if (reasonUnit.getEstimatedGoldLabel() != null) {
+                    result++;
+                }
             }
+
+            return result;
         }
+    }
 
-        System.out.println("Total " + total + " reason units annotated");
+    /**
+     * Adds gold labels and MTurk assignments to the reason units; the files are streamed twice,
+     * so only one argument pair per file is kept in memory at a time. The files are processed
+     * in parallel (see {@link IOHelper#processFiles}).
+     *
+     * @param inputDir          input dir with XMLs
+     * @param outputDir         output dir
+     * @param goldLabelProvider gold labels and assignments
+     * @throws IOException exception
+     */
+    public static void addGoldLabels(File inputDir, final File outputDir,
+            GoldLabelProvider goldLabelProvider)
+            throws IOException
+    {
+        // in the order of file names
+        List<File> files = new ArrayList<>(IOHelper.listXmlFiles(inputDir));
+        Collections.sort(files);
+
+        // first pass: collect the reason units to be annotated, their labels and assignments
+        // are fetched at once
+        List<List<ReasonUnit>> fileReasonUnits = IOHelper.processFiles(files,
+                new IOHelper.FileTask<List<ReasonUnit>>()
+                {
+                    @Override
+                    public List<ReasonUnit> process(File file)
+                            throws IOException
+                    {
+                        List<ReasonUnit> result = new ArrayList<>();
+                        try (AnnotatedArgumentPairReader reader = new AnnotatedArgumentPairReader(
+                                file)) {
+                            for (AnnotatedArgumentPair argumentPair : reader) {
+                                collectReasonUnitsToAnnotate(argumentPair, result);
+                            }
+                        }
+                        return result;
+                    }
+                });
+
+        // index of the first reason unit of each file
+        final Map<File, Integer> firstIndices = new HashMap<>();
+        List<ReasonUnit> reasonUnits = new ArrayList<>();
+        for (int i = 0; i < files.size(); i++) {
+            firstIndices.put(files.get(i), reasonUnits.size());
+            reasonUnits.addAll(fileReasonUnits.get(i));
+        }
 
+        final EstimatedLabels estimatedLabels = new EstimatedLabels(reasonUnits,
+                goldLabelProvider);
+
+        // second pass: add gold labels and all annotations, also for duplicates; the reason
+        // units come in the same order as in the first pass
+        List<Integer> annotated = IOHelper.processFiles(files, new IOHelper.FileTask<Integer>()
+        {
+            @Override
+            public Integer process(File file)
+                    throws IOException
+            {
+                int[] index = new int[] { firstIndices.get(file) };
+                int result = 0;
+
+                File outputFile = new File(outputDir, file.getName());
+                try (AnnotatedArgumentPairReader reader = new AnnotatedArgumentPairReader(file);
+                        AnnotatedArgumentPairWriter writer = new AnnotatedArgumentPairWriter(
+                                outputFile)) {
+                    for (AnnotatedArgumentPair argumentPair : reader) {
+                        result += estimatedLabels.addGoldLabels(argumentPair, index);
+
+                        writer.write(argumentPair);
+                    }
+                }
+                return result;
+            }
+        });
 
-        // second pass for duplicates
-        for (Map.Entry<String, List<AnnotatedArgumentPair>> entry : annotatedPairs.entrySet()) {
-            for (AnnotatedArgumentPair argumentPair : entry.getValue()) {
-                // and now the reasons
-                for (MTurkAssignment assignment : argumentPair.getMTurkAssignments()) {
-                    MTurkAssignmentWithReasonUnits a = (MTurkAssignmentWithReasonUnits) assignment;
+        int total = 0;
+        for (int count : annotated) {
+            total += count;
+        }
 
-                    for (int i = 0; i < a.getReasonUnits().size(); i++) {
-                        ReasonUnit reasonUnit = a.getReasonUnits().get(i);
+        System.out.println("Including duplicates " + total);
+    }
 
-                        if (!reasonUnit.isIgnored() && reasonUnit.isDuplicate()) {
-                            // get gold label
-                            String goldLabel = mapUnitTextGoldLabel.get(reasonUnit.getTextForAnnotation());
+    /**
+     * Adds gold labels and MTurk assignments to the reason units of all pairs in memory
+     *
+     * @param data              map (file name, list of argument pairs)
+     * @param goldLabelProvider gold labels and assignments
+     */
+    public static void addGoldLabels(Map<String, List<AnnotatedArgumentPair>> data,
+            GoldLabelProvider goldLabelProvider)
+    {
+        List<ReasonUnit> reasonUnits = new ArrayList<>();
+        for (List<AnnotatedArgumentPair> argumentPairs : data.values()) {
+            for (AnnotatedArgumentPair argumentPair : argumentPairs) {
+                collectReasonUnitsToAnnotate(argumentPair, reasonUnits);
+            }
+        }
 
-                            List<MTurkReasonUnitAssignment> mTurkReasonUnitAssignments = mapUnitTextAssignments
-                                    .get(reasonUnit.getTextForAnnotation());
+        EstimatedLabels estimatedLabels = new EstimatedLabels(reasonUnits, goldLabelProvider);
 
-                            // add gold label and all annotations
-                            reasonUnit.setEstimatedGoldLabel(goldLabel);
+        int total = 0;
+        int[] index = new int[1];
+        for (List<AnnotatedArgumentPair> argumentPairs : data.values()) {
+            for (AnnotatedArgumentPair argumentPair : argumentPairs) {
+                total += estimatedLabels.addGoldLabels(argumentPair, index);
+            }
+        }
 
-                            if (mTurkReasonUnitAssignments != null) {
-                                reasonUnit.getAssignments().addAll(mTurkReasonUnitAssignments);
-                            }
+        System.out.println("Including duplicates " + total);
+    }
 
-                            if (goldLabel != null) {
-                                total++;
-                            }
-                        }
-                    }
-                }
+    /**
+     * Adds the reason units of the pair which are neither ignored nor duplicates
+     *
+     * @param argumentPair argument pair
+     * @param result       list to add to
+     */
+    private static void collectReasonUnitsToAnnotate(AnnotatedArgumentPair argumentPair,
+            List<ReasonUnit> result)
+    {
+        for (ReasonUnit reasonUnit : getReasonUnits(argumentPair)) {
+            if (!reasonUnit.isIgnored() && !reasonUnit.isDuplicate()) {
+                result.add(reasonUnit);
             }
         }
+    }
 
-        System.out.println("Including duplicates " + total);
+    /**
+     * Returns the reason units of all assignments of the pair
+     *
+     * @param argumentPair argument pair
+     * @return reason units in the order of assignments
+     */
+    private static List<ReasonUnit> getReasonUnits(AnnotatedArgumentPair argumentPair)
+    {
+        List<ReasonUnit> result = new ArrayList<>();
+        for (MTurkAssignment assignment : argumentPair.getMTurkAssignments()) {
+            result.addAll(((MTurkAssignmentWithReasonUnits) assignment).getReasonUnits());
+        }
+        return result;
+    }
 
+    /**
+     * Creates the provider of gold labels estimated from the MTurk result files
+     *
+     * @param csvFiles MTurk result files
+     * @return provider
+     * @throws IOException exception
+     */
+    static MTurkGoldLabelProvider createGoldLabelProvider(List<File> csvFiles)
+            throws IOException
+    {
+        MTurkGoldLabelProvider result;
+
+        // optional store of the already parsed files (-Dmturk.store.dir=...); only new or
+        // changed files are parsed
+        String storeDir = System.getProperty("mturk.store.dir");
+        if (storeDir != null) {
+            MTurkSegmentStore segmentStore = new MTurkSegmentStore(new File(storeDir));
+            segmentStore.ingest(csvFiles, true);
+            result = new MTurkGoldLabelProvider(segmentStore, csvFiles, 0.95);
+        }
+        else {
+            result = new MTurkGoldLabelProvider(csvFiles, 0.95, true);
+        }
+        result.setResultCache(MACEResultCache.getDefault());
 
-        IOHelper.saveAnnotatedPairs(annotatedPairs, outputDir);
+        return result;
     }
 
     public static void main(String[] args)
@@ -147,8 +319,19 @@ public class Step9EstimatedLabelsExtractor
         }
 
         //        GoldLabelProvider goldLabelProvider = new MockGoldLabelProvider();
-        GoldLabelProvider goldLabelProvider = new MTurkGoldLabelProvider(csvFiles, 0.95, true);
+        MTurkGoldLabelProvider goldLabelProvider = createGoldLabelProvider(csvFiles);
+
+        // optional MACE model of the previous batches; updated with the new ones
+        File maceStateFile = args.length > 3 ? new File(args[3]) : null;
+        if (maceStateFile != null && maceStateFile.exists()) {
+            goldLabelProvider.setWarmStart(MTurkGoldLabelProvider.loadMACEState(maceStateFile),
+                    WARM_START_ITERATIONS);
+        }
 
         addGoldLabels(inputDir, outputDir, goldLabelProvider);
+
+        if (maceStateFile != null) {
+            MTurkGoldLabelProvider.saveMACEState(goldLabelProvider.getMACEState(), maceStateFile);
+        }
     }
 }
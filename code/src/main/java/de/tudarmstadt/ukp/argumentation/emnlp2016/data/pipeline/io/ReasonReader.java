@@ -29,7 +29,7 @@ import org.apache.uima.fit.descriptor.ConfigurationParameter;
 import org.apache.uima.jcas.JCas;
 import org.apache.uima.resource.ResourceInitializationException;
 import org.apache.uima.util.Progress;
-import de.tudarmstadt.ukp.argumentation.emnlp2016.data.sampling.XStreamTools;
+import de.tudarmstadt.ukp.argumentation.emnlp2016.data.sampling.AnnotatedArgumentPairReader;
 
 import java.io.File;
 import java.io.IOException;
@@ -86,22 +86,26 @@ public class ReasonReader
         }
 
         for (File file : files) {
-            List<AnnotatedArgumentPair> argumentPairs = (List<AnnotatedArgumentPair>) XStreamTools
-                    .getXStream().fromXML(file);
-            for (AnnotatedArgumentPair argumentPair : argumentPairs) {
-                for (MTurkAssignment assignment : argumentPair.getMTurkAssignments()) {
-                    String reason = assignment.getReason();
-
-                    // assignment IDs are not unique
-                    String id = extractUniqueID(argumentPair, assignment);
-
-                    // only non-equal reasons
-                    if (!"equal".equals(assignment.getValue())) {
-                        // add ID and reason
-                        assignmentIDReasonMap.put(id, reason);
+            // only the reasons are kept, not the pairs
+            try (AnnotatedArgumentPairReader reader = new AnnotatedArgumentPairReader(file)) {
+                for (AnnotatedArgumentPair argumentPair : reader) {
+                    for (MTurkAssignment assignment : argumentPair.getMTurkAssignments()) {
+                        String reason = assignment.getReason();
+
+                        // assignment IDs are not unique
+                        String id = extractUniqueID(argumentPair, assignment);
+
+                        // only non-equal reasons
+                        if (!"equal".equals(assignment.getValue())) {
+                            // add ID and reason
+                            assignmentIDReasonMap.put(id, reason);
+                        }
                     }
                 }
             }
+            catch (IOException e) {
+                throw new ResourceInitializationException(e);
+            }
         }
     }
 
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2016
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.tudarmstadt.ukp.argumentation.emnlp2016.data.sampling;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.*;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads the argument pairs of an XML file (a list of pairs written by {@link XStreamTools} or
+ * {@link AnnotatedArgumentPairWriter}) one at a time, using an XStream object stream; only the
+ * current pair is kept in memory. Can be iterated once. If an {@link ArgumentTable} is given,
+ * the arguments of the pairs are replaced by its shared instances.
+ */
+public class AnnotatedArgumentPairReader
+        implements Iterable<AnnotatedArgumentPair>, Closeable
+{
+    private final InputStream inputStream;
+    private final ObjectInputStream objectInputStream;
+    private final ArgumentTable argumentTable;
+
+    private AnnotatedArgumentPair next;
+    private boolean finished;
+    private boolean iterated;
+
+    /**
+     * Opens the file and reads the root element
+     *
+     * @param file XML file
+     * @throws IOException exception
+     */
+    public AnnotatedArgumentPairReader(File file)
+            throws IOException
+    {
+        this(file, null);
+    }
+
+    /**
+     * Opens the file and reads the root element
+     *
+     * @param file          XML file
+     * @param argumentTable table the arguments are interned into, or null
+     * @throws IOException exception
+     */
+    public AnnotatedArgumentPairReader(File file, ArgumentTable argumentTable)
+            throws IOException
+    {
+        this.argumentTable = argumentTable;
+        inputStream = new BufferedInputStream(new FileInputStream(file));
+        try {
+            objectInputStream = XStreamTools.getXStream().createObjectInputStream(inputStream);
+        }
+        catch (IOException | RuntimeException e) {
+            IOUtils.closeQuietly(inputStream);
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the next pair
+     *
+     * @return pair or null at the end of the file
+     * @throws IOException exception
+     */
+    public AnnotatedArgumentPair read()
+            throws IOException
+    {
+        if (finished) {
+            return null;
+        }
+
+        try {
+            AnnotatedArgumentPair result = (AnnotatedArgumentPair) objectInputStream.readObject();
+            if (argumentTable != null) {
+                result.setArg1(argumentTable.intern(result.getArg1()));
+                result.setArg2(argumentTable.intern(result.getArg2()));
+            }
+            return result;
+        }
+        catch (EOFException e) {
+            finished = true;
+            return null;
+        }
+        catch (ClassNotFoundException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public Iterator<AnnotatedArgumentPair> iterator()
+    {
+        if (iterated) {
+            throw new IllegalStateException("Pairs can be iterated only once");
+        }
+        iterated = true;
+
+        return new Iterator<AnnotatedArgumentPair>()
+        {
+            @Override
+            public boolean hasNext()
+            {
+                if (next == null && !finished) {
+                    try {
+                        next = read();
+                    }
+                    catch (IOException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+                return next != null;
+            }
+
+            @Override
+            public AnnotatedArgumentPair next()
+            {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                AnnotatedArgumentPair result = next;
+                next = null;
+                return result;
+            }
+
+            @Override
+            public void remove()
+            {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    @Override
+    public void close()
+            throws IOException
+    {
+        try {
+            objectInputStream.close();
+        }
+        finally {
+            inputStream.close();
+        }
+    }
+}
@@ -0,0 +1,659 @@
+/*
+ * Copyright 2016
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.tudarmstadt.ukp.argumentation.emnlp2016.data.sampling;
+
+import de.tudarmstadt.ukp.argumentation.emnlp2016.data.createdebate.Argument;
+import de.tudarmstadt.ukp.argumentation.emnlp2016.data.createdebate.DebateMetaData;
+import de.tudarmstadt.ukp.argumentation.emnlp2016.data.pipeline.MTurkAssignmentWithReasonUnits;
+import de.tudarmstadt.ukp.argumentation.emnlp2016.data.pipeline.ReasonUnit;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * Compact binary snapshot of an annotated corpus (file name, list of argument pairs), as
+ * loaded by {@link IOHelper#loadAnnotatedPais(File)}. It holds the same data as the XML files
+ * but loads much faster; XML remains the interchange format, snapshots are meant as a local
+ * cache between pipeline steps (see the converters in {@link IOHelper}).
+ * <p>
+ * Layout: magic and version (big-endian ints), string table (count, then length and UTF-8
+ * bytes of each distinct string), argument table (count, then each distinct argument, see
+ * {@link ArgumentTable}), then the files (count, then name and pairs of each file; the pairs
+ * refer to their arguments by index + 1 into the argument table). All other numbers are
+ * varints (signed ones zig-zag encoded), strings are indices into the string table (0 for
+ * null, index + 1 otherwise), dates are epoch milliseconds, and lists and nullable objects
+ * are prefixed with their size + 1 or a presence byte. Every distinct text and every argument
+ * is stored once; the loaded pairs share the instances of their arguments.
+ */
+public class AnnotatedArgumentPairSnapshot
+{
+    /**
+     * File extension of snapshots
+     */
+    public static final String EXTENSION = "snapshot";
+
+    private static final int MAGIC = 0x41415053;
+
+    private static final int VERSION = 2;
+
+    private static final int TYPE_ANNOTATED_PAIR = 0;
+    private static final int TYPE_GENERATED_PAIR = 1;
+
+    private static final int TYPE_ASSIGNMENT = 0;
+    private static final int TYPE_ASSIGNMENT_WITH_REASON_UNITS = 1;
+
+    /**
+     * Writes the snapshot; the file is replaced only once it has been written completely
+     *
+     * @param data map (file name, list of argument pairs)
+     * @param file output file
+     * @throws IOException exception
+     */
+    public static void write(Map<String, List<AnnotatedArgumentPair>> data, File file)
+            throws IOException
+    {
+        ArgumentTable argumentTable = new ArgumentTable();
+        for (List<AnnotatedArgumentPair> argumentPairs : data.values()) {
+            for (AnnotatedArgumentPair argumentPair : argumentPairs) {
+                argumentTable.intern(argumentPair.getArg1());
+                argumentTable.intern(argumentPair.getArg2());
+            }
+        }
+
+        Encoder body = new Encoder();
+        body.writeVarInt(argumentTable.size());
+        for (Argument argument : argumentTable.getArguments()) {
+            writeArgument(argument, body);
+        }
+
+        body.writeVarInt(data.size());
+        for (Map.Entry<String, List<AnnotatedArgumentPair>> entry : data.entrySet()) {
+            body.writeString(entry.getKey());
+            body.writeVarInt(entry.getValue().size());
+            for (AnnotatedArgumentPair argumentPair : entry.getValue()) {
+                writePair(argumentPair, argumentTable, body);
+            }
+        }
+
+        File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+
+            Encoder strings = new Encoder();
+            strings.writeVarInt(body.strings.size());
+            for (String string : body.strings) {
+                byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+                strings.writeVarInt(bytes.length);
+                strings.write(bytes);
+            }
+            out.write(strings.buffer, 0, strings.size);
+            out.write(body.buffer, 0, body.size);
+        }
+        finally {
+            out.close();
+        }
+
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads the snapshot
+     *
+     * @param file snapshot file
+     * @return map (file name, list of argument pairs) sorted by file name
+     * @throws IOException exception, also if the file is not a snapshot of this version
+     */
+    public static Map<String, List<AnnotatedArgumentPair>> read(File file)
+            throws IOException
+    {
+        byte[] bytes = Files.readAllBytes(file.toPath());
+
+        DataInputStream header = new DataInputStream(new ByteArrayInputStream(bytes));
+        if (bytes.length < 8 || header.readInt() != MAGIC) {
+            throw new IOException("Not a snapshot file: " + file);
+        }
+        int version = header.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported snapshot version " + version + ": " + file);
+        }
+
+        Decoder in = new Decoder(bytes, 8);
+        try {
+            in.strings = new String[in.readVarInt()];
+            for (int i = 0; i < in.strings.length; i++) {
+                int length = in.readVarInt();
+                in.strings[i] = new String(bytes, in.position, length, StandardCharsets.UTF_8);
+                in.position += length;
+            }
+
+            Argument[] arguments = new Argument[in.readVarInt()];
+            for (int i = 0; i < arguments.length; i++) {
+                arguments[i] = readArgument(in);
+            }
+
+            Map<String, List<AnnotatedArgumentPair>> result = new TreeMap<>();
+            int numFiles = in.readVarInt();
+            for (int i = 0; i < numFiles; i++) {
+                String fileName = in.readString();
+                int numPairs = in.readVarInt();
+                List<AnnotatedArgumentPair> argumentPairs = new ArrayList<>(numPairs);
+                for (int j = 0; j < numPairs; j++) {
+                    argumentPairs.add(readPair(in, arguments));
+                }
+                result.put(fileName, argumentPairs);
+            }
+
+            if (in.position != bytes.length) {
+                throw new IOException("Trailing data in snapshot file: " + file);
+            }
+
+            return result;
+        }
+        catch (IndexOutOfBoundsException e) {
+            throw new IOException("Corrupted snapshot file: " + file, e);
+        }
+    }
+
+    /**
+     * Converts between the XML files and a snapshot: {@code toSnapshot inputDir snapshotFile}
+     * or {@code toXml snapshotFile outputDir}
+     *
+     * @param args arguments
+     * @throws IOException exception
+     */
+    public static void main(String[] args)
+            throws IOException
+    {
+        if (args.length == 3 && "toSnapshot".equals(args[0])) {
+            IOHelper.convertXmlToSnapshot(new File(args[1]), new File(args[2]));
+        }
+        else if (args.length == 3 && "toXml".equals(args[0])) {
+            IOHelper.convertSnapshotToXml(new File(args[1]), new File(args[2]));
+        }
+        else {
+            System.err.println("Usage: toSnapshot inputDir snapshotFile | toXml snapshotFile "
+                    + "outputDir");
+        }
+    }
+
+    private static void writePair(AnnotatedArgumentPair argumentPair,
+            ArgumentTable argumentTable, Encoder out)
+    {
+        if (argumentPair.getClass() == GeneratedArgumentPair.class) {
+            out.writeVarInt(TYPE_GENERATED_PAIR);
+        }
+        else if (argumentPair.getClass() == AnnotatedArgumentPair.class) {
+            out.writeVarInt(TYPE_ANNOTATED_PAIR);
+        }
+        else {
+            throw new IllegalArgumentException(
+                    "Unsupported argument pair class " + argumentPair.getClass());
+        }
+
+        out.writeString(argumentPair.getId());
+        for (Argument argument : Arrays.asList(argumentPair.getArg1(), argumentPair.getArg2())) {
+            out.writeVarInt(argument == null ? 0 : argumentTable.indexOf(argument) + 1);
+        }
+
+        DebateMetaData debateMetaData = argumentPair.getDebateMetaData();
+        out.writeBoolean(debateMetaData != null);
+        if (debateMetaData != null) {
+            out.writeString(debateMetaData.getTitle());
+            out.writeString(debateMetaData.getDescription());
+            out.writeString(debateMetaData.getUrl());
+        }
+
+        out.writeString(argumentPair.getGoldLabel());
+
+        List<MTurkAssignment> assignments = argumentPair.getMTurkAssignments();
+        out.writeListSize(assignments);
+        if (assignments != null) {
+            for (MTurkAssignment assignment : assignments) {
+                writeAssignment(assignment, out);
+            }
+        }
+    }
+
+    private static AnnotatedArgumentPair readPair(Decoder in, Argument[] arguments)
+            throws IOException
+    {
+        int type = in.readVarInt();
+        AnnotatedArgumentPair result;
+        if (type == TYPE_GENERATED_PAIR) {
+            result = new GeneratedArgumentPair();
+        }
+        else if (type == TYPE_ANNOTATED_PAIR) {
+            result = new AnnotatedArgumentPair();
+        }
+        else {
+            throw new IOException("Unknown argument pair type " + type);
+        }
+
+        result.setId(in.readString());
+        int arg1 = in.readVarInt();
+        result.setArg1(arg1 == 0 ? null : arguments[arg1 - 1]);
+        int arg2 = in.readVarInt();
+        result.setArg2(arg2 == 0 ? null : arguments[arg2 - 1]);
+
+        if (in.readBoolean()) {
+            DebateMetaData debateMetaData = new DebateMetaData();
+            debateMetaData.setTitle(in.readString());
+            debateMetaData.setDescription(in.readString());
+            debateMetaData.setUrl(in.readString());
+            result.setDebateMetaData(debateMetaData);
+        }
+
+        result.setGoldLabel(in.readString());
+
+        int numAssignments = in.readListSize();
+        List<MTurkAssignment> assignments = null;
+        if (numAssignments >= 0) {
+            assignments = new ArrayList<>(numAssignments);
+            for (int i = 0; i < numAssignments; i++) {
+                assignments.add(readAssignment(in));
+            }
+        }
+        result.setMTurkAssignments(assignments);
+
+        return result;
+    }
+
+    private static void writeArgument(Argument argument, Encoder out)
+    {
+        out.writeString(argument.getAuthor());
+        out.writeInteger(argument.getVoteUpCount());
+        out.writeSignedVarLong(argument.getVoteDownCount());
+        out.writeString(argument.getStance());
+        out.writeString(argument.getText());
+        out.writeString(argument.getParentId());
+        out.writeString(argument.getId());
+        out.writeString(argument.getOriginalHTML());
+        out.writeDate(argument.getTimestamp());
+    }
+
+    private static Argument readArgument(Decoder in)
+    {
+        Argument result = new Argument();
+        result.setAuthor(in.readString());
+        result.setVoteUpCount(in.readInteger());
+        result.setVoteDownCount((int) in.readSignedVarLong());
+        result.setStance(in.readString());
+        result.setText(in.readString());
+        result.setParentId(in.readString());
+        result.setId(in.readString());
+        result.setOriginalHTML(in.readString());
+        result.setTimestamp(in.readDate());
+        return result;
+    }
+
+    private static void writeAssignment(MTurkAssignment assignment, Encoder out)
+    {
+        if (assignment.getClass() == MTurkAssignmentWithReasonUnits.class) {
+            out.writeVarInt(TYPE_ASSIGNMENT_WITH_REASON_UNITS);
+        }
+        else if (assignment.getClass() == MTurkAssignment.class) {
+            out.writeVarInt(TYPE_ASSIGNMENT);
+        }
+        else {
+            throw new IllegalArgumentException(
+                    "Unsupported assignment class " + assignment.getClass());
+        }
+
+        out.writeString(assignment.getTurkID());
+        out.writeString(assignment.getHitID());
+        out.writeDate(assignment.getAssignmentAcceptTime());
+        out.writeDate(assignment.getAssignmentSubmitTime());
+        out.writeString(assignment.getValue());
+        out.writeString(assignment.getReason());
+        out.writeString(assignment.getHitComment());
+        out.writeString(assignment.getAssignmentId());
+        out.writeInteger(assignment.getTurkRank());
+        out.writeDouble(assignment.getTurkCompetence());
+        out.writeString(assignment.getWorkerStance());
+
+        if (assignment instanceof MTurkAssignmentWithReasonUnits) {
+            List<ReasonUnit> reasonUnits = ((MTurkAssignmentWithReasonUnits) assignment)
+                    .getReasonUnits();
+            out.writeListSize(reasonUnits);
+            if (reasonUnits != null) {
+                for (ReasonUnit reasonUnit : reasonUnits) {
+                    writeReasonUnit(reasonUnit, out);
+                }
+            }
+        }
+    }
+
+    private static MTurkAssignment readAssignment(Decoder in)
+            throws IOException
+    {
+        int type = in.readVarInt();
+        MTurkAssignment result;
+        if (type == TYPE_ASSIGNMENT_WITH_REASON_UNITS) {
+            result = new MTurkAssignmentWithReasonUnits();
+        }
+        else if (type == TYPE_ASSIGNMENT) {
+            result = new MTurkAssignment();
+        }
+        else {
+            throw new IOException("Unknown assignment type " + type);
+        }
+
+        // the setters reject null values which XStream might have left in place
+        String turkID = in.readString();
+        if (turkID != null) {
+            result.setTurkID(turkID);
+        }
+        String hitID = in.readString();
+        if (hitID != null) {
+            result.setHitID(hitID);
+        }
+        Date acceptTime = in.readDate();
+        if (acceptTime != null) {
+            result.setAssignmentAcceptTime(acceptTime);
+        }
+        Date submitTime = in.readDate();
+        if (submitTime != null) {
+            result.setAssignmentSubmitTime(submitTime);
+        }
+        String value = in.readString();
+        if (value != null) {
+            result.setValue(value);
+        }
+        String reason = in.readString();
+        if (reason != null) {
+            result.setReason(reason);
+        }
+        result.setHitComment(in.readString());
+        String assignmentId = in.readString();
+        if (assignmentId != null) {
+            result.setAssignmentId(assignmentId);
+        }
+        result.setTurkRank(in.readInteger());
+        Double turkCompetence = in.readDouble();
+        if (turkCompetence != null) {
+            result.setTurkCompetence(turkCompetence);
+        }
+        result.setWorkerStance(in.readString());
+
+        if (result instanceof MTurkAssignmentWithReasonUnits) {
+            int numReasonUnits = in.readListSize();
+            List<ReasonUnit> reasonUnits = null;
+            if (numReasonUnits >= 0) {
+                reasonUnits = new ArrayList<>(numReasonUnits);
+                for (int i = 0; i < numReasonUnits; i++) {
+                    reasonUnits.add(readReasonUnit(in));
+                }
+            }
+            ((MTurkAssignmentWithReasonUnits) result).setReasonUnits(reasonUnits);
+        }
+
+        return result;
+    }
+
+    private static void writeReasonUnit(ReasonUnit reasonUnit, Encoder out)
+    {
+        ReasonUnit.Target target = reasonUnit.getTarget();
+        out.writeVarInt(target == null ? 0 : target.ordinal() + 1);
+        out.writeString(reasonUnit.getReasonUnitText());
+        out.writeString(reasonUnit.getId());
+        out.writeDouble(reasonUnit.getAverageCompetenceOfOriginalWorkers());
+        out.writeString(reasonUnit.getTextForAnnotation());
+        out.writeString(reasonUnit.getEstimatedGoldLabel());
+        out.writeBoolean(reasonUnit.isIgnored());
+        out.writeBoolean(reasonUnit.isDuplicate());
+        out.writeBoolean(reasonUnit.isFiltered());
+
+        List<MTurkReasonUnitAssignment> assignments = reasonUnit.getAssignments();
+        out.writeVarInt(assignments.size());
+        for (MTurkReasonUnitAssignment assignment : assignments) {
+            out.writeString(assignment.getTurkID());
+            out.writeString(assignment.getHitID());
+            out.writeString(assignment.getAssignmentId());
+            out.writeDate(assignment.getAssignmentAcceptTime());
+            out.writeDate(assignment.getAssignmentSubmitTime());
+            out.writeString(assignment.getValue());
+            out.writeString(assignment.getHitComment());
+            out.writeDouble(assignment.getTurkCompetence());
+        }
+    }
+
+    private static ReasonUnit readReasonUnit(Decoder in)
+    {
+        ReasonUnit result = new ReasonUnit();
+
+        int target = in.readVarInt();
+        if (target > 0) {
+            result.setTarget(ReasonUnit.Target.values()[target - 1]);
+        }
+        // appendText() as setReasonUnitText() rejects the empty text
+        String reasonUnitText = in.readString();
+        if (reasonUnitText != null) {
+            result.appendText(reasonUnitText);
+        }
+        result.setId(in.readString());
+        result.setAverageCompetenceOfOriginalWorkers(in.readDouble());
+        result.setTextForAnnotation(in.readString());
+        result.setEstimatedGoldLabel(in.readString());
+        result.setIgnored(in.readBoolean());
+        result.setDuplicate(in.readBoolean());
+        result.setFiltered(in.readBoolean());
+
+        int numAssignments = in.readVarInt();
+        List<MTurkReasonUnitAssignment> assignments = new ArrayList<>(numAssignments);
+        for (int i = 0; i < numAssignments; i++) {
+            MTurkReasonUnitAssignment assignment = new MTurkReasonUnitAssignment(
+                    in.readString(), in.readString(), in.readString(), in.readDate(),
+                    in.readDate(), in.readString());
+            assignment.setHitComment(in.readString());
+            assignment.setTurkCompetence(in.readDouble());
+            assignments.add(assignment);
+        }
+        result.setAssignments(assignments);
+
+        return result;
+    }
+
+    /**
+     * Growable byte buffer collecting the strings it refers to
+     */
+    private static class Encoder
+    {
+        byte[] buffer = new byte[1 << 16];
+        int size;
+
+        final Map<String, Integer> stringIndices = new HashMap<>();
+        final List<String> strings = new ArrayList<>();
+
+        void write(int b)
+        {
+            if (size == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+            buffer[size++] = (byte) b;
+        }
+
+        void write(byte[] bytes)
+        {
+            if (size + bytes.length > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + bytes.length));
+            }
+            System.arraycopy(bytes, 0, buffer, size, bytes.length);
+            size += bytes.length;
+        }
+
+        void writeVarInt(int value)
+        {
+            writeVarLong(value & 0xffffffffL);
+        }
+
+        void writeVarLong(long value)
+        {
+            while ((value & ~0x7fL) != 0) {
+                write((int) ((value & 0x7f) | 0x80));
+                value >>>= 7;
+            }
+            write((int) value);
+        }
+
+        void writeSignedVarLong(long value)
+        {
+            writeVarLong((value << 1) ^ (value >> 63));
+        }
+
+        void writeBoolean(boolean value)
+        {
+            write(value ? 1 : 0);
+        }
+
+        void writeString(String string)
+        {
+            if (string == null) {
+                writeVarInt(0);
+                return;
+            }
+
+            Integer index = stringIndices.get(string);
+            if (index == null) {
+                index = strings.size();
+                stringIndices.put(string, index);
+                strings.add(string);
+            }
+            writeVarInt(index + 1);
+        }
+
+        void writeListSize(List<?> list)
+        {
+            writeVarInt(list == null ? 0 : list.size() + 1);
+        }
+
+        void writeInteger(Integer value)
+        {
+            writeBoolean(value != null);
+            if (value != null) {
+                writeSignedVarLong(value);
+            }
+        }
+
+        void writeDouble(Double value)
+        {
+            writeBoolean(value != null);
+            if (value != null) {
+                long bits = Double.doubleToRawLongBits(value);
+                for (int shift = 56; shift >= 0; shift -= 8) {
+                    write((int) (bits >>> shift));
+                }
+            }
+        }
+
+        void writeDate(Date date)
+        {
+            writeBoolean(date != null);
+            if (date != null) {
+                writeSignedVarLong(date.getTime());
+            }
+        }
+    }
+
+    private static class Decoder
+    {
+        final byte[] buffer;
+        int position;
+
+        String[] strings;
+
+        Decoder(byte[] buffer, int position)
+        {
+            this.buffer = buffer;
+            this.position = position;
+        }
+
+        long readVarLong()
+        {
+            long result = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = buffer[position++];
+                result |= (long) (b & 0x7f) << shift;
+                shift += 7;
+            }
+            while (b < 0);
+            return result;
+        }
+
+        int readVarInt()
+        {
+            return (int) readVarLong();
+        }
+
+        long readSignedVarLong()
+        {
+            long value = readVarLong();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        boolean readBoolean()
+        {
+            return buffer[position++] != 0;
+        }
+
+        String readString()
+        {
+            int index = readVarInt();
+            return index == 0 ? null : strings[index - 1];
+        }
+
+        /**
+         * @return list size or -1 for null
+         */
+        int readListSize()
+        {
+            return readVarInt() - 1;
+        }
+
+        Integer readInteger()
+        {
+            return readBoolean() ? (int) readSignedVarLong() : null;
+        }
+
+        Double readDouble()
+        {
+            if (!readBoolean()) {
+                return null;
+            }
+            long bits = 0;
+            for (int i = 0; i < 8; i++) {
+                bits = (bits << 8) | (buffer[position++] & 0xff);
+            }
+            return Double.longBitsToDouble(bits);
+        }
+
+        Date readDate()
+        {
+            return readBoolean() ? new Date(readSignedVarLong()) : null;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2016
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.tudarmstadt.ukp.argumentation.emnlp2016.data.sampling;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.*;
+
+/**
+ * Writes argument pairs to an XML file one at a time, using an XStream object stream; the
+ * file is the same as if the list of all pairs was written by
+ * {@link XStreamTools#toXML(Object, File)}, so it can be read by either way.
+ */
+public class AnnotatedArgumentPairWriter
+        implements Closeable
+{
+    /**
+     * Root element of a serialized list
+     */
+    private static final String ROOT = "list";
+
+    private final OutputStream outputStream;
+    private final ObjectOutputStream objectOutputStream;
+
+    private int count;
+
+    /**
+     * Creates the file and writes the root element
+     *
+     * @param file XML file
+     * @throws IOException exception
+     */
+    public AnnotatedArgumentPairWriter(File file)
+            throws IOException
+    {
+        outputStream = new BufferedOutputStream(new FileOutputStream(file));
+        try {
+            objectOutputStream = XStreamTools.getXStream()
+                    .createObjectOutputStream(new OutputStreamWriter(outputStream, "utf-8"),
+                            ROOT);
+        }
+        catch (IOException | RuntimeException e) {
+            IOUtils.closeQuietly(outputStream);
+            throw e;
+        }
+    }
+
+    public void write(AnnotatedArgumentPair argumentPair)
+            throws IOException
+    {
+        objectOutputStream.writeObject(argumentPair);
+        count++;
+    }
+
+    /**
+     * @return number of pairs written so far
+     */
+    public int getCount()
+    {
+        return count;
+    }
+
+    /**
+     * Writes the end of the root element and closes the file
+     *
+     * @throws IOException exception
+     */
+    @Override
+    public void close()
+            throws IOException
+    {
+        try {
+            objectOutputStream.close();
+        }
+        finally {
+            outputStream.close();
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2016
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.tudarmstadt.ukp.argumentation.emnlp2016.data.sampling;
+
+import de.tudarmstadt.ukp.argumentation.emnlp2016.data.createdebate.Argument;
+
+import java.util.*;
+
+/**
+ * Table of the distinct arguments of a corpus, keyed by {@link Argument#getId()}. XStream
+ * writes a copy of an argument (with its text and original HTML) in every pair it takes part
+ * in; interning the pairs' arguments replaces the copies by a single shared instance. Arguments
+ * are never modified once a corpus is loaded, so the instances can be shared safely.
+ * <p>
+ * An argument with the same id but a different content than the one in the table (which does
+ * not happen in a consistent corpus) is kept as another entry rather than being merged.
+ * Not thread-safe.
+ */
+public class ArgumentTable
+{
+    /**
+     * Arguments in the order they were added
+     */
+    private final List<Argument> arguments = new ArrayList<>();
+
+    /**
+     * Id -> index of the argument (or the first of the arguments) with this id
+     */
+    private final Map<String, Integer> indices = new HashMap<>();
+
+    /**
+     * Indices of further arguments that share an id with a different content
+     */
+    private final Map<String, List<Integer>> conflictingIndices = new HashMap<>();
+
+    /**
+     * Returns the shared instance equal to the given argument, adding the argument to the
+     * table if there is none
+     *
+     * @param argument argument (may be null)
+     * @return shared instance or null
+     */
+    public Argument intern(Argument argument)
+    {
+        if (argument == null) {
+            return null;
+        }
+        return arguments.get(indexOf(argument));
+    }
+
+    /**
+     * Replaces both arguments of each pair by the shared instances
+     *
+     * @param argumentPairs pairs
+     */
+    public void internArguments(Collection<? extends ArgumentPair> argumentPairs)
+    {
+        for (ArgumentPair argumentPair : argumentPairs) {
+            argumentPair.setArg1(intern(argumentPair.getArg1()));
+            argumentPair.setArg2(intern(argumentPair.getArg2()));
+        }
+    }
+
+    /**
+     * Returns the index of the shared instance equal to the given argument, adding the
+     * argument to the table if there is none
+     *
+     * @param argument argument
+     * @return index into {@link #getArguments()}
+     */
+    public int indexOf(Argument argument)
+    {
+        String id = argument.getId();
+        Integer index = indices.get(id);
+        if (index == null) {
+            indices.put(id, arguments.size());
+            arguments.add(argument);
+            return arguments.size() - 1;
+        }
+        if (sameContent(arguments.get(index), argument)) {
+            return index;
+        }
+
+        List<Integer> conflicting = conflictingIndices.get(id);
+        if (conflicting == null) {
+            conflicting = new ArrayList<>();
+            conflictingIndices.put(id, conflicting);
+        }
+        for (int otherIndex : conflicting) {
+            if (sameContent(arguments.get(otherIndex), argument)) {
+                return otherIndex;
+            }
+        }
+        conflicting.add(arguments.size());
+        arguments.add(argument);
+        return arguments.size() - 1;
+    }
+
+    /**
+     * Returns the argument with the given id
+     *
+     * @param id argument id
+     * @return argument or null if there is none
+     */
+    public Argument get(String id)
+    {
+        Integer index = indices.get(id);
+        return index == null ? null : arguments.get(index);
+    }
+
+    /**
+     * Returns all arguments in the order they were added
+     *
+     * @return read-only list
+     */
+    public List<Argument> getArguments()
+    {
+        return Collections.unmodifiableList(arguments);
+    }
+
+    public int size()
+    {
+        return arguments.size();
+    }
+
+    private static boolean sameContent(Argument a, Argument b)
+    {
+        return a == b || (Objects.equals(a.getId(), b.getId())
+                && Objects.equals(a.getAuthor(), b.getAuthor())
+                && Objects.equals(a.getVoteUpCount(), b.getVoteUpCount())
+                && a.getVoteDownCount() == b.getVoteDownCount()
+                && Objects.equals(a.getStance(), b.getStance())
+                && Objects.equals(a.getText(), b.getText())
+                && Objects.equals(a.getParentId(), b.getParentId())
+                && Objects.equals(a.getOriginalHTML(), b.getOriginalHTML())
+                && Objects.equals(a.getTimestamp(), b.getTimestamp()));
+    }
+}
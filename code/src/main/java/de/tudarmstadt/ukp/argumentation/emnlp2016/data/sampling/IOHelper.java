@@ -24,12 +24,30 @@ import de.tudarmstadt.ukp.argumentation.emnlp2016.data.createdebate.DebateMetaDa
 import java.io.File;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * @author Ivan Habernal
  */
 public class IOHelper
 {
+    /**
+     * System property with the maximal number of files processed in parallel (default: number
+     * of processors)
+     */
+    public static final String THREADS_PROPERTY = "pipeline.threads";
+
+    /**
+     * Work done for a single file by {@link #processFiles(Collection, FileTask)}
+     *
+     * @param <T> result type
+     */
+    public interface FileTask<T>
+    {
+        T process(File file)
+                throws IOException;
+    }
+
     public static String createFileName(DebateMetaData metaData, String stance)
     {
         return metaData.getTitle().toLowerCase().replaceAll("\\W+", "-") + "_" + stance
@@ -89,24 +107,56 @@ public class IOHelper
     }
 
     /**
-     * Loads argument pairs
+     * Loads argument pairs; pairs with the same argument share its instance (see
+     * {@link ArgumentTable})
      *
-     * @param inputDir input dir with XMLs
+     * @param inputDir input dir with XMLs, or a snapshot file (see
+     *                 {@link AnnotatedArgumentPairSnapshot})
      * @return map (file name, list of argument pairs)
      * @throws IOException exception
      */
-    @SuppressWarnings("unchecked") public static Map<String, List<AnnotatedArgumentPair>> loadAnnotatedPais(
+    public static Map<String, List<AnnotatedArgumentPair>> loadAnnotatedPais(
             File inputDir)
             throws IOException
     {
-        Map<String, List<AnnotatedArgumentPair>> result = new TreeMap<>();
+        if (inputDir.isFile()) {
+            return loadAnnotatedPairsSnapshot(inputDir);
+        }
+
+        return new TreeMap<>(loadAnnotatedPairs(listXmlFiles(inputDir)));
+    }
 
-        for (File file : listXmlFiles(inputDir)) {
-            // collect all reason units from this topic
-            List<AnnotatedArgumentPair> argumentPairs = (List<AnnotatedArgumentPair>) XStreamTools
-                    .getXStream().fromXML(file);
+    /**
+     * Loads argument pairs of the given files; pairs with the same argument share its
+     * instance (see {@link ArgumentTable})
+     *
+     * @param files XML files
+     * @return map (file name, list of argument pairs) in the order of the files
+     * @throws IOException exception
+     */
+    @SuppressWarnings("unchecked")
+    public static LinkedHashMap<String, List<AnnotatedArgumentPair>> loadAnnotatedPairs(
+            List<File> files)
+            throws IOException
+    {
+        List<List<AnnotatedArgumentPair>> loaded = processFiles(files,
+                new FileTask<List<AnnotatedArgumentPair>>()
+                {
+                    @Override
+                    public List<AnnotatedArgumentPair> process(File file)
+                            throws IOException
+                    {
+                        // collect all reason units from this topic
+                        return (List<AnnotatedArgumentPair>) XStreamTools.getXStream()
+                                .fromXML(file);
+                    }
+                });
 
-            result.put(file.getName(), argumentPairs);
+        LinkedHashMap<String, List<AnnotatedArgumentPair>> result = new LinkedHashMap<>();
+        ArgumentTable argumentTable = new ArgumentTable();
+        for (int i = 0; i < files.size(); i++) {
+            argumentTable.internArguments(loaded.get(i));
+            result.put(files.get(i).getName(), loaded.get(i));
         }
 
         return result;
@@ -123,11 +173,157 @@ public class IOHelper
             File outputDir)
             throws IOException
     {
+        final Map<File, List<AnnotatedArgumentPair>> outputFiles = new LinkedHashMap<>();
         for (Map.Entry<String, List<AnnotatedArgumentPair>> entry : data.entrySet()) {
-            String fileName = entry.getKey();
-            // save the file
-            File outputFile = new File(outputDir, fileName);
-            XStreamTools.toXML(entry.getValue(), outputFile);
+            outputFiles.put(new File(outputDir, entry.getKey()), entry.getValue());
+        }
+
+        processFiles(outputFiles.keySet(), new FileTask<Void>()
+        {
+            @Override
+            public Void process(File outputFile)
+                    throws IOException
+            {
+                // save the file
+                XStreamTools.toXML(outputFiles.get(outputFile), outputFile);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Applies the task to the files; at most {@link #getNumberOfThreads(int)} files are
+     * processed at once. The results are in the order of the files, so a step produces the same
+     * output as if the files were processed one after the other, provided the tasks do not
+     * share any mutable state.
+     *
+     * @param files files
+     * @param task  task, called concurrently
+     * @param <T>   result type
+     * @return results in the order of the files
+     * @throws IOException exception of the first failed file (in the order of the files)
+     */
+    public static <T> List<T> processFiles(Collection<File> files, final FileTask<T> task)
+            throws IOException
+    {
+        List<T> result = new ArrayList<>(files.size());
+
+        int threads = getNumberOfThreads(files.size());
+        if (threads == 1) {
+            for (File file : files) {
+                result.add(task.process(file));
+            }
+            return result;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<T>> futures = new ArrayList<>();
+            for (final File file : files) {
+                futures.add(executor.submit(new Callable<T>()
+                {
+                    @Override
+                    public T call()
+                            throws IOException
+                    {
+                        return task.process(file);
+                    }
+                }));
+            }
+
+            for (Future<T> future : futures) {
+                result.add(future.get());
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+        finally {
+            executor.shutdownNow();
         }
+
+        return result;
+    }
+
+    /**
+     * Number of threads for processing the given number of files, bounded by the
+     * {@link #THREADS_PROPERTY} system property or the number of processors
+     *
+     * @param numFiles number of files
+     * @return number of threads (at least 1)
+     */
+    public static int getNumberOfThreads(int numFiles)
+    {
+        int threads = Integer.getInteger(THREADS_PROPERTY,
+                Runtime.getRuntime().availableProcessors());
+        return Math.max(1, Math.min(numFiles, threads));
+    }
+
+    /**
+     * Loads argument pairs from a snapshot file
+     *
+     * @param snapshotFile snapshot file
+     * @return map (file name, list of argument pairs)
+     * @throws IOException exception
+     */
+    public static Map<String, List<AnnotatedArgumentPair>> loadAnnotatedPairsSnapshot(
+            File snapshotFile)
+            throws IOException
+    {
+        return AnnotatedArgumentPairSnapshot.read(snapshotFile);
+    }
+
+    /**
+     * Saves pairs of all files to a single snapshot file
+     *
+     * @param data         map (file name, list (pairs))
+     * @param snapshotFile snapshot file
+     * @throws IOException exception
+     */
+    public static void saveAnnotatedPairsSnapshot(Map<String, List<AnnotatedArgumentPair>> data,
+            File snapshotFile)
+            throws IOException
+    {
+        AnnotatedArgumentPairSnapshot.write(data, snapshotFile);
+    }
+
+    /**
+     * Converts all XML files of the input dir into a single snapshot file
+     *
+     * @param inputDir     input dir with XMLs
+     * @param snapshotFile snapshot file
+     * @throws IOException exception
+     */
+    public static void convertXmlToSnapshot(File inputDir, File snapshotFile)
+            throws IOException
+    {
+        saveAnnotatedPairsSnapshot(loadAnnotatedPais(inputDir), snapshotFile);
+    }
+
+    /**
+     * Converts a snapshot file back to XML files in the output dir
+     *
+     * @param snapshotFile snapshot file
+     * @param outputDir    output dir
+     * @throws IOException exception
+     */
+    public static void convertSnapshotToXml(File snapshotFile, File outputDir)
+            throws IOException
+    {
+        if (!outputDir.exists()) {
+            outputDir.mkdirs();
+        }
+
+        saveAnnotatedPairs(loadAnnotatedPairsSnapshot(snapshotFile), outputDir);
     }
 }
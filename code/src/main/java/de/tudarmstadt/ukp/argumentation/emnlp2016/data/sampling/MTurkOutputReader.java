@@ -25,21 +25,37 @@ import java.util.*;
  * Reader for the tab-separated output from Mechanical Turk. As the output is not a standard
  * CSV file, it requires a special treatment by parsing. This class provides iterating over
  * entries as a map (column name, value)
+ * <p>
+ * By default, all records are loaded in the constructor. In streaming mode, only the headers
+ * are read up front and each iteration reads the files again, one record at a time (see
+ * {@link MTurkRecordReader}), so the memory does not grow with the size of the files.
+ * Otherwise, the files are parsed concurrently and the records are merged in the order of the
+ * files. A streaming iteration that is not read to the end keeps a file open until
+ * {@link #close()} is called.
  *
  * @author Ivan Habernal
  */
 public class MTurkOutputReader
-        implements Iterable<Map<String, String>>
+        implements Iterable<Map<String, String>>, Closeable
 {
 
-    private static final boolean DEBUG = false;
-
-    private List<Map<String, String>> records = new ArrayList<>();
+    private final List<Map<String, String>> records;
 
     private final Set<String> columnNames = new TreeSet<>();
 
     private final Map<File, String> hitTypeIdForFile = new HashMap<>();
 
+    private final Set<String> requiredFields;
+
+    private final boolean readOnlyAcceptedOrRejected;
+
+    private final File[] files;
+
+    /**
+     * Streaming iterators with an open file
+     */
+    private final Set<StreamingIterator> openIterators = new HashSet<>();
+
     /**
      * Loads and parses the MTurk output files
      *
@@ -52,84 +68,68 @@ public class MTurkOutputReader
             boolean readOnlyAcceptedOrRejected, File... files)
             throws IOException
     {
-        Set<String> requiredFields = new HashSet<>(Arrays.asList("hitid", "hittypeid"));
-        requiredFields.addAll(additionalRequiredFields);
-
-        for (File file : files) {
-            InputStreamReader in = new InputStreamReader(new FileInputStream(file), "utf-8");
-            BufferedReader br = new BufferedReader(in);
-
-            List<String> lines = new ArrayList<>();
-
-            String line = br.readLine();
-
-            StringBuilder incompleteLine = new StringBuilder();
-            while (line != null) {
-                String trim = line.trim();
-                // this is a "correct" line, ending with [tab]"xxx" (but not [tab]")
-                if (trim.endsWith("\"") && !trim.endsWith("\t\"")) {
-                    incompleteLine.append(trim);
-                    lines.add(incompleteLine.toString().trim());
-
-                    incompleteLine = new StringBuilder();
-                }
-                else {
-                    incompleteLine.append(" ").append(trim);
-                }
-
-                line = br.readLine();
-            }
-
-            if (DEBUG) {
-                for (String s : lines) {
-                    System.out.println("=" + s.substring(0, 20) + "..." + s
-                            .substring(s.length() - 20, s.length()) + "=");
-                }
-            }
-
-            System.out.println("Loaded " + lines.size() + " lines from " + file);
-
-            String header = lines.get(0);
-            SortedMap<Integer, String> headerMapping = extractHeaderMapping(header);
-
-            columnNames.addAll(headerMapping.values());
-
-            List<Map<String, String>> extractRecords = extractRecords(
-                    lines.subList(1, lines.size()), headerMapping, requiredFields, file);
+        this(additionalRequiredFields, readOnlyAcceptedOrRejected, false, files);
+    }
 
-            // update hit type id for this file
-            String hitTypeId = null;
-            for (Map<String, String> record : extractRecords) {
-                String typeId = record.get("hittypeid");
-                if (hitTypeId == null) {
-                    hitTypeId = typeId;
-                }
-                else if (!hitTypeId.equals(typeId)) {
-                    System.err.println("Several hitTypeIds found in file " + file);
-                }
+    /**
+     * Parses the MTurk output files, either all at once or while iterating
+     *
+     * @param additionalRequiredFields   fields in records that must be present (not null)
+     * @param readOnlyAcceptedOrRejected If set to false, all HITs regardless of the status will
+     *                                   be processed (including Submitted, etc.)
+     * @param streaming                  if true, records are not kept in memory but read from
+     *                                   the files in each iteration; the iterator does not
+     *                                   support removal and {@link #getHitTypeIdForFile()} is
+     *                                   filled in as the files are iterated
+     * @param files                      files or several files
+     * @throws IOException I/O exception
+     */
+    public MTurkOutputReader(Set<String> additionalRequiredFields,
+            boolean readOnlyAcceptedOrRejected, boolean streaming, File... files)
+            throws IOException
+    {
+        this.requiredFields = new HashSet<>(Arrays.asList("hitid", "hittypeid"));
+        this.requiredFields.addAll(additionalRequiredFields);
+        this.readOnlyAcceptedOrRejected = readOnlyAcceptedOrRejected;
+        this.files = files.clone();
+
+        if (streaming) {
+            records = null;
+
+            // only the headers
+            for (File file : files) {
+                MTurkRecordReader reader = new MTurkRecordReader(file);
+                columnNames.addAll(Arrays.asList(reader.getColumnNames()));
+                reader.close();
             }
-            hitTypeIdForFile.put(file, hitTypeId);
-
-            System.out.println("Extracted " + extractRecords.size() + " assignments from " + file);
-
-            // all all records that are not duplicate (HIT ID, and worker ID)
-            List<Map<String, String>> recordsToBeAdded = new ArrayList<>();
-            for (Map<String, String> newRecord : extractRecords) {
-                boolean approved = "Approved".equals(newRecord.get("assignmentstatus"));
-                boolean rejected = "Rejected".equals(newRecord.get("assignmentstatus"));
-
-                // we load only approved or rejected assignments by default
-                if (!(approved || rejected) && readOnlyAcceptedOrRejected) {
-                    System.err.println("Skipping unexpected assignmentstatus: " + newRecord
-                            .get("assignmentstatus") + ", HIT: " + newRecord.get("hitid"));
-                }
-                else {
-                    recordsToBeAdded.add(newRecord);
-                }
-
+        }
+        else {
+            records = new ArrayList<>();
+
+            // parse the files concurrently, merge them in the given order
+            List<FileRecords> fileRecordsList = IOHelper.processFiles(Arrays.asList(files),
+                    new IOHelper.FileTask<FileRecords>()
+                    {
+                        @Override
+                        public FileRecords process(File file)
+                                throws IOException
+                        {
+                            FileRecords fileRecords = new FileRecords(file);
+                            try {
+                                fileRecords.readAll();
+                            }
+                            finally {
+                                fileRecords.close();
+                            }
+                            return fileRecords;
+                        }
+                    });
+
+            for (FileRecords fileRecords : fileRecordsList) {
+                columnNames.addAll(Arrays.asList(fileRecords.columns));
+                hitTypeIdForFile.put(fileRecords.file, fileRecords.hitTypeId);
+                records.addAll(fileRecords.records);
             }
-            records.addAll(recordsToBeAdded);
-            //            records.addAll(extractRecords);
         }
     }
 
@@ -182,131 +182,263 @@ public class MTurkOutputReader
     }
 
     /**
-     * Extracts the records
+     * Iterator over the records
      *
-     * @param lines         lines
-     * @param headerMapping mapping from position to column name
-     * @param file          CSV MTurk file
-     * @return list of records
+     * @return iterator
      */
-    private static List<Map<String, String>> extractRecords(List<String> lines,
-            Map<Integer, String> headerMapping, Set<String> requiredFields, File file)
+    @Override
+    public Iterator<Map<String, String>> iterator()
     {
-        List<Map<String, String>> result = new ArrayList<>(lines.size());
+        if (records != null) {
+            return records.iterator();
+        }
 
-        for (String line : lines) {
-            List<String> stripLine = readAndStripLine(line);
+        return new StreamingIterator();
+    }
+
+    /**
+     * Closes the files of unfinished streaming iterations
+     *
+     * @throws IOException I/O exception
+     */
+    @Override
+    public void close()
+            throws IOException
+    {
+        for (StreamingIterator iterator : new ArrayList<>(openIterators)) {
+            iterator.closeCurrent();
+        }
+    }
+
+    /**
+     * List of entries from MTurk CSV that can be ignored
+     */
+    private final static String[] UNIMPORTANT_ENTRIES = new String[] { "hitlifetime",
+            "Answer.Submit HIT", "annotation", "description", "reviewstatus", "numcomplete",
+            "keywords", "reward", "numavailable", "assignmentduration", "assignments",
+            "autoapprovaltime", "hitstatus", "title", "autoapprovaldelay", "numpending",
+            "creationtime" };
 
-            Map<String, String> record = new HashMap<>();
+    /**
+     * Records of a single file: checks the required fields, drops unimportant entries (such as
+     * "hitlifetime", "numpending", "title", etc.) and skips assignments with unexpected status.
+     * Does not modify the reader, so several files can be read at the same time.
+     */
+    private class FileRecords
+            implements Closeable
+    {
+        private final File file;
+        private final MTurkRecordReader reader;
+        private final String[] columns;
+
+        /**
+         * [i] whether column i is kept in the records
+         */
+        private final boolean[] important;
+
+        private final String[] requiredColumnNames;
+        private final int[] requiredColumns;
+        private final int hitTypeIdColumn;
+        private final int statusColumn;
+        private final int hitIdColumn;
+
+        private String hitTypeId;
+        private int extracted;
+
+        /**
+         * all records, see {@link #readAll()}
+         */
+        private List<Map<String, String>> records;
+
+        FileRecords(File file)
+                throws IOException
+        {
+            this.file = file;
+            this.reader = new MTurkRecordReader(file);
+            this.columns = reader.getColumnNames();
+
+            List<String> columnList = Arrays.asList(columns);
+            Set<String> unimportant = new HashSet<>(Arrays.asList(UNIMPORTANT_ENTRIES));
+            important = new boolean[columns.length];
+            for (int i = 0; i < columns.length; i++) {
+                important[i] = !unimportant.contains(columns[i]);
+            }
 
-            for (int i = 0; i < stripLine.size(); i++) {
-                String entry = stripLine.get(i).trim();
+            requiredColumnNames = requiredFields.toArray(new String[requiredFields.size()]);
+            requiredColumns = new int[requiredColumnNames.length];
+            for (int i = 0; i < requiredColumns.length; i++) {
+                requiredColumns[i] = columnList.indexOf(requiredColumnNames[i]);
+            }
 
-                // ignore empty records
-                if (!entry.isEmpty()) {
-                    String columnName = headerMapping.get(i);
+            hitTypeIdColumn = columnList.indexOf("hittypeid");
+            statusColumn = columnList.indexOf("assignmentstatus");
+            hitIdColumn = columnList.indexOf("hitid");
+        }
 
-                    record.put(columnName, entry);
+        /**
+         * @return next record or null at the end of the file
+         */
+        Map<String, String> next()
+                throws IOException
+        {
+            String[] cells;
+            while ((cells = reader.next()) != null) {
+                extracted++;
+
+                // sanity check - some fields are required
+                for (int i = 0; i < requiredColumns.length; i++) {
+                    if (requiredColumns[i] < 0 || cells[requiredColumns[i]] == null) {
+                        throw new IllegalStateException(
+                                "Field " + requiredColumnNames[i] + " is missing in record "
+                                        + toMap(cells, false) + " in file " + file
+                                        .getAbsoluteFile());
+                    }
                 }
-            }
 
-            // sanity check - some fields are required
-            for (String requiredField : requiredFields) {
-                if (!record.keySet().contains(requiredField)) {
-                    throw new IllegalStateException(
-                            "Field " + requiredField + " is missing in record " + record
-                                    + " in file " + file.getAbsoluteFile());
+                // update hit type id for this file
+                String typeId = hitTypeIdColumn >= 0 ? cells[hitTypeIdColumn] : null;
+                if (hitTypeId == null) {
+                    hitTypeId = typeId;
                 }
+                else if (!hitTypeId.equals(typeId)) {
+                    System.err.println("Several hitTypeIds found in file " + file);
+                }
+
+                String status = statusColumn >= 0 ? cells[statusColumn] : null;
+                boolean approved = "Approved".equals(status);
+                boolean rejected = "Rejected".equals(status);
 
-                if (record.get(requiredField) == null) {
-                    throw new IllegalStateException(
-                            "Required field " + requiredField + " is null in file " + file
-                                    .getAbsoluteFile());
+                // we load only approved or rejected assignments by default
+                if (!(approved || rejected) && readOnlyAcceptedOrRejected) {
+                    System.err.println("Skipping unexpected assignmentstatus: " + status
+                            + ", HIT: " + cells[hitIdColumn]);
+                }
+                else {
+                    return toMap(cells, true);
                 }
             }
 
-            // we can filter out unimportant entries
-            SortedMap<String, String> filteredRecord = removeUnimportantEntriesFromRow(record);
+            System.out.println("Loaded " + (reader.getRecordCount() + 1) + " lines from " + file);
+            System.out.println("Extracted " + extracted + " assignments from " + file);
 
-            result.add(filteredRecord);
+            return null;
         }
 
-        return result;
-    }
-
-    /**
-     * Extracts mapping from the first line (header) = (position, name)
-     *
-     * @param headerLine first line
-     * @return mapping
-     */
-    private static SortedMap<Integer, String> extractHeaderMapping(String headerLine)
-    {
-        List<String> list = readAndStripLine(headerLine);
-
-        SortedMap<Integer, String> result = new TreeMap<>();
+        /**
+         * Reads all records into {@link #records}
+         */
+        void readAll()
+                throws IOException
+        {
+            records = new ArrayList<>();
+            Map<String, String> record;
+            while ((record = next()) != null) {
+                records.add(record);
+            }
+        }
 
-        for (int i = 0; i < list.size(); i++) {
-            result.put(i, list.get(i));
+        /**
+         * Creates a map (column name, value) of the non-empty cells
+         */
+        private SortedMap<String, String> toMap(String[] cells, boolean onlyImportant)
+        {
+            SortedMap<String, String> result = new TreeMap<>();
+            for (int i = 0; i < cells.length; i++) {
+                if (cells[i] != null && (important[i] || !onlyImportant)) {
+                    result.put(columns[i], cells[i]);
+                }
+            }
+            return result;
         }
 
-        return result;
+        @Override
+        public void close()
+                throws IOException
+        {
+            reader.close();
+        }
     }
 
     /**
-     * Reads a single line, splits by tabulator, and trims the content; also removes opening anc
-     * closing parentheses and normalizes double parentheses in the content
-     *
-     * @param line line
-     * @return list of cells
+     * Reads the files one record at a time; the current file is closed at its end or when
+     * reading it fails
      */
-    private static List<String> readAndStripLine(String line)
+    private class StreamingIterator
+            implements Iterator<Map<String, String>>
     {
-        List<String> result = new ArrayList<>();
-
-        for (String entry : line.split("\t")) {
-            result.add(
-                    entry.replaceAll("^\"", "").replaceAll("\"$", "").replace("\"\"", "\"").trim());
+        private int fileIndex;
+        private FileRecords current;
+        private Map<String, String> nextRecord;
+
+        @Override
+        public boolean hasNext()
+        {
+            try {
+                while (nextRecord == null) {
+                    if (current == null) {
+                        if (fileIndex == files.length) {
+                            return false;
+                        }
+                        current = new FileRecords(files[fileIndex++]);
+                        openIterators.add(this);
+                    }
+
+                    nextRecord = current.next();
+                    if (nextRecord == null) {
+                        hitTypeIdForFile.put(current.file, current.hitTypeId);
+                        closeCurrent();
+                    }
+                }
+                return true;
+            }
+            catch (IOException e) {
+                closeQuietly();
+                throw new RuntimeException(e);
+            }
+            catch (RuntimeException e) {
+                // missing required field or unknown label
+                closeQuietly();
+                throw e;
+            }
         }
 
-        return result;
-    }
-
-    /**
-     * Iterator over the records
-     *
-     * @return iterator
-     */
-    @Override
-    public Iterator<Map<String, String>> iterator()
-    {
-        return records.iterator();
-    }
+        void closeCurrent()
+                throws IOException
+        {
+            if (current != null) {
+                openIterators.remove(this);
+                FileRecords fileRecords = current;
+                current = null;
+                fileRecords.close();
+            }
+        }
 
-    /**
-     * List of entries from MTurk CSV that can be ignored
-     */
-    private final static String[] UNIMPORTANT_ENTRIES = new String[] { "hitlifetime",
-            "Answer.Submit HIT", "annotation", "description", "reviewstatus", "numcomplete",
-            "keywords", "reward", "numavailable", "assignmentduration", "assignments",
-            "autoapprovaltime", "hitstatus", "title", "autoapprovaldelay", "numpending",
-            "creationtime" };
+        private void closeQuietly()
+        {
+            try {
+                closeCurrent();
+            }
+            catch (IOException e) {
+                // the original exception is thrown
+            }
+        }
 
-    /**
-     * Creates a new map without keys such as "hitlifetime", "numpending", "title", etc.)
-     *
-     * @param row map, remains unchanged
-     * @return a new instance of a map
-     */
-    private static SortedMap<String, String> removeUnimportantEntriesFromRow(
-            Map<String, String> row)
-    {
-        SortedMap<String, String> result = new TreeMap<>(row);
+        @Override
+        public Map<String, String> next()
+        {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
 
-        for (String keyToBeRemoved : UNIMPORTANT_ENTRIES) {
-            result.remove(keyToBeRemoved);
+            Map<String, String> result = nextRecord;
+            nextRecord = null;
+            return result;
         }
 
-        return result;
+        @Override
+        public void remove()
+        {
+            throw new UnsupportedOperationException("Records are not kept in streaming mode");
+        }
     }
 }
@@ -0,0 +1,371 @@
+/*
+ * Copyright 2016
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.tudarmstadt.ukp.argumentation.emnlp2016.data.sampling;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streaming reader for the tab-separated output from Mechanical Turk. Cell values may contain
+ * line breaks, so physical lines are stitched into records: a record ends with a line that
+ * ends with a quote which is not the opening quote of an empty cell ({@code [tab]"}). The
+ * file is read char by char and only the current record is kept in memory.
+ * <p>
+ * Cells are returned with the surrounding quotes removed, doubled quotes unescaped and
+ * whitespace trimmed; empty cells are null.
+ * <p>
+ * The reader keeps the byte offset after the last record that ended with a line break (see
+ * {@link #getOffset()}), so that a file which is still being appended to can be read again
+ * from there, see {@link #MTurkRecordReader(File, String[], long)}.
+ *
+ * @author Ivan Habernal
+ */
+public class MTurkRecordReader
+        implements Closeable
+{
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final Reader reader;
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private int position;
+    private int limit;
+
+    /**
+     * the current physical line and the record being assembled
+     */
+    private final StringBuilder line = new StringBuilder();
+    private final StringBuilder record = new StringBuilder();
+    private final StringBuilder cell = new StringBuilder();
+
+    private final String[] columnNames;
+
+    private int recordCount;
+
+    /**
+     * UTF-8 bytes of the chars consumed so far, counted from the start of the file
+     */
+    private long bytesRead;
+
+    /**
+     * whether the last physical line ended with a line break
+     */
+    private boolean lineTerminated;
+
+    private long offset;
+
+    /**
+     * Opens the file and reads the header
+     *
+     * @param file MTurk output file
+     * @throws IOException I/O exception, also if the file has no header
+     */
+    public MTurkRecordReader(File file)
+            throws IOException
+    {
+        this.reader = new InputStreamReader(new FileInputStream(file), "utf-8");
+
+        List<String> header = new ArrayList<>();
+        if (!nextRecord()) {
+            close();
+            throw new IOException("No header found in " + file);
+        }
+        splitRecord(header);
+
+        // trailing empty columns are not columns
+        int size = header.size();
+        while (size > 0 && header.get(size - 1).isEmpty()) {
+            size--;
+        }
+        columnNames = header.subList(0, size).toArray(new String[size]);
+    }
+
+    /**
+     * Opens the file at the given byte offset, without reading the header
+     *
+     * @param file        MTurk output file
+     * @param columnNames column names from the header, see {@link #getColumnNames()}
+     * @param offset      offset of the first record, see {@link #getOffset()}
+     * @throws IOException I/O exception
+     */
+    public MTurkRecordReader(File file, String[] columnNames, long offset)
+            throws IOException
+    {
+        FileInputStream inputStream = new FileInputStream(file);
+        inputStream.getChannel().position(offset);
+        this.reader = new InputStreamReader(inputStream, "utf-8");
+        this.columnNames = columnNames.clone();
+        this.bytesRead = offset;
+        this.offset = offset;
+    }
+
+    /**
+     * Returns the column names from the header; the cells of each record are in this order
+     *
+     * @return array of names
+     */
+    public String[] getColumnNames()
+    {
+        return columnNames.clone();
+    }
+
+    /**
+     * Returns the number of records (without the header) read so far
+     *
+     * @return count
+     */
+    public int getRecordCount()
+    {
+        return recordCount;
+    }
+
+    /**
+     * Returns the byte offset after the last record (or the header) that ended with a line
+     * break; the file can be read again from there without missing or repeating complete
+     * records. Assumes valid UTF-8.
+     *
+     * @return offset from the start of the file
+     */
+    public long getOffset()
+    {
+        return offset;
+    }
+
+    /**
+     * Reads the next record
+     *
+     * @return cell values in the order of {@link #getColumnNames()}, null for empty cells; null
+     * at the end of the file
+     * @throws IOException I/O exception
+     */
+    public String[] next()
+            throws IOException
+    {
+        if (!nextRecord()) {
+            return null;
+        }
+
+        String[] result = new String[columnNames.length];
+
+        int start = 0;
+        int end = record.length();
+        int column = 0;
+        while (start <= end) {
+            int tab = start;
+            while (tab < end && record.charAt(tab) != '\t') {
+                tab++;
+            }
+
+            String value = stripCell(start, tab);
+            if (!value.isEmpty()) {
+                if (column >= columnNames.length) {
+                    throw new IllegalStateException(
+                            "Record " + (recordCount + 1) + " has more cells than the header: "
+                                    + record);
+                }
+                result[column] = value;
+            }
+
+            column++;
+            start = tab + 1;
+        }
+
+        recordCount++;
+        return result;
+    }
+
+    /**
+     * Splits the current record into stripped cells, including empty ones
+     */
+    private void splitRecord(List<String> result)
+    {
+        int start = 0;
+        int end = record.length();
+        while (start <= end) {
+            int tab = start;
+            while (tab < end && record.charAt(tab) != '\t') {
+                tab++;
+            }
+
+            result.add(stripCell(start, tab));
+            start = tab + 1;
+        }
+    }
+
+    /**
+     * Removes the opening and closing quote, unescapes doubled quotes and trims the cell
+     * [from, to) of the current record
+     */
+    private String stripCell(int from, int to)
+    {
+        if (from < to && record.charAt(from) == '"') {
+            from++;
+        }
+        if (from < to && record.charAt(to - 1) == '"') {
+            to--;
+        }
+
+        cell.setLength(0);
+        for (int i = from; i < to; i++) {
+            char c = record.charAt(i);
+            cell.append(c);
+            if (c == '"' && i + 1 < to && record.charAt(i + 1) == '"') {
+                i++;
+            }
+        }
+
+        return cell.toString().trim();
+    }
+
+    /**
+     * Stitches physical lines into the next record; an incomplete record at the end of the
+     * file is dropped
+     *
+     * @return false at the end of the file
+     */
+    private boolean nextRecord()
+            throws IOException
+    {
+        record.setLength(0);
+
+        while (nextLine()) {
+            // trim the line
+            int start = 0;
+            int end = line.length();
+            while (start < end && line.charAt(start) <= ' ') {
+                start++;
+            }
+            while (end > start && line.charAt(end - 1) <= ' ') {
+                end--;
+            }
+
+            // this is a "correct" line, ending with [tab]"xxx" (but not [tab]")
+            boolean complete = end > start && line.charAt(end - 1) == '"'
+                    && !(end - start > 1 && line.charAt(end - 2) == '\t');
+
+            if (!complete) {
+                record.append(' ');
+            }
+            record.append(line, start, end);
+
+            if (complete) {
+                trimRecord();
+                if (lineTerminated) {
+                    offset = bytesRead;
+                }
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Removes leading and trailing whitespace of the record
+     */
+    private void trimRecord()
+    {
+        int end = record.length();
+        while (end > 0 && record.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        record.setLength(end);
+
+        int start = 0;
+        while (start < end && record.charAt(start) <= ' ') {
+            start++;
+        }
+        record.delete(0, start);
+    }
+
+    /**
+     * Reads the next physical line (terminated by \n, \r or \r\n) into {@link #line}
+     *
+     * @return false at the end of the file
+     */
+    private boolean nextLine()
+            throws IOException
+    {
+        line.setLength(0);
+        lineTerminated = false;
+        boolean read = false;
+
+        while (true) {
+            if (position == limit) {
+                limit = reader.read(buffer, 0, buffer.length);
+                position = 0;
+                if (limit <= 0) {
+                    limit = 0;
+                    return read;
+                }
+            }
+
+            char c = buffer[position++];
+            bytesRead += utf8Length(c);
+            read = true;
+
+            if (c == '\n') {
+                lineTerminated = true;
+                return true;
+            }
+
+            if (c == '\r') {
+                lineTerminated = true;
+
+                // swallow the \n of \r\n
+                if (position == limit) {
+                    limit = reader.read(buffer, 0, buffer.length);
+                    position = 0;
+                    if (limit <= 0) {
+                        limit = 0;
+                        return true;
+                    }
+                }
+                if (buffer[position] == '\n') {
+                    position++;
+                    bytesRead++;
+                }
+                return true;
+            }
+
+            line.append(c);
+        }
+    }
+
+    /**
+     * Number of bytes of the char in UTF-8; each half of a surrogate pair counts 2
+     */
+    private static int utf8Length(char c)
+    {
+        if (c < 0x80) {
+            return 1;
+        }
+        if (c < 0x800 || Character.isSurrogate(c)) {
+            return 2;
+        }
+        return 3;
+    }
+
+    @Override
+    public void close()
+            throws IOException
+    {
+        reader.close();
+    }
+}
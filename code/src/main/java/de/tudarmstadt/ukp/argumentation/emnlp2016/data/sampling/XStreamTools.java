@@ -21,6 +21,7 @@ package de.tudarmstadt.ukp.argumentation.emnlp2016.data.sampling;
 import com.thoughtworks.xstream.XStream;
 import com.thoughtworks.xstream.io.xml.StaxDriver;
 import de.tudarmstadt.ukp.argumentation.emnlp2016.data.createdebate.Debate;
+import de.tudarmstadt.ukp.argumentation.emnlp2016.data.mace.MACEState;
 import de.tudarmstadt.ukp.argumentation.emnlp2016.data.pipeline.MTurkAssignmentWithReasonUnits;
 import de.tudarmstadt.ukp.argumentation.emnlp2016.data.pipeline.ReasonUnit;
 import org.apache.commons.io.IOUtils;
@@ -33,7 +34,14 @@ import java.io.*;
  */
 public class XStreamTools
 {
-    private static XStream xStream;
+    /**
+     * Holds the configured instance; the class is initialized (and the instance safely
+     * published to all threads) on the first call of {@link #getXStream()}
+     */
+    private static class Holder
+    {
+        static final XStream X_STREAM = createXStream();
+    }
 
     public static String toXML(Object object)
             throws IOException
@@ -56,22 +64,32 @@ public class XStreamTools
         return xStream.fromXML(new StringReader(xml));
     }
 
+    /**
+     * Returns the shared instance; it is configured once and can be used by several threads
+     * at the same time
+     *
+     * @return XStream
+     */
     public static XStream getXStream()
     {
-        if (xStream == null) {
-            xStream = new XStream(new StaxDriver());
-            xStream.alias("argument", Argument.class);
-            xStream.alias("debate", Debate.class);
-            xStream.alias("argumentPair", ArgumentPair.class);
-            xStream.alias("annotatedArgumentPair", AnnotatedArgumentPair.class);
-            xStream.alias("mTurkAssignment", MTurkAssignment.class);
-            xStream.alias("mTurkAssignmentWithReasonUnits", MTurkAssignmentWithReasonUnits.class);
-            xStream.alias("reasonUnit", ReasonUnit.class);
-            xStream.alias("mTurkReasonUnitAssignment", MTurkReasonUnitAssignment.class);
+        return Holder.X_STREAM;
+    }
+
+    private static XStream createXStream()
+    {
+        XStream xStream = new XStream(new StaxDriver());
+        xStream.alias("argument", Argument.class);
+        xStream.alias("debate", Debate.class);
+        xStream.alias("argumentPair", ArgumentPair.class);
+        xStream.alias("annotatedArgumentPair", AnnotatedArgumentPair.class);
+        xStream.alias("mTurkAssignment", MTurkAssignment.class);
+        xStream.alias("mTurkAssignmentWithReasonUnits", MTurkAssignmentWithReasonUnits.class);
+        xStream.alias("reasonUnit", ReasonUnit.class);
+        xStream.alias("mTurkReasonUnitAssignment", MTurkReasonUnitAssignment.class);
+        xStream.alias("maceState", MACEState.class);
 
-            // no references for duplicate objects
-            xStream.setMode(XStream.NO_REFERENCES);
-        }
+        // no references for duplicate objects
+        xStream.setMode(XStream.NO_REFERENCES);
 
         return xStream;
     }
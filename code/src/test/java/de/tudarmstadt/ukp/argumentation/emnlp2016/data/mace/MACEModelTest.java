@@ -0,0 +1,109 @@
+/*
+***************************************************************************
+NTP License
+https://opensource.org/licenses/NTP
+      USC/ISI MACE Multi-Annotator Competence Estimation
+      USC Information Sciences Institute
+      4676 Admiralty Way
+      Marina del Rey, CA 90292-6695
+      USA
+      Original Version: Natural Language Group, April 2013
+      Current Version:  Natural Language Group, April 2013
+  Copyright (c) 2013 by the University of Southern California
+  All rights reserved.
+  Permission to use, copy, modify, and distribute this software and its
+  documentation in source and binary forms for any purpose and without
+  fee is hereby granted, provided that both the above copyright notice
+  and this permission notice appear in all copies, and that any
+  documentation, advertising materials, and other materials related to
+  such distribution and use acknowledge that the software was developed
+  in part by the University of Southern California, Information
+  Sciences Institute.  The name of the University may not be used to
+  endorse or promote products derived from this software without
+  specific prior written permission.
+  THE UNIVERSITY OF SOUTHERN CALIFORNIA makes no representations about
+  the suitability of this software for any purpose.  THIS SOFTWARE IS
+  PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED WARRANTIES,
+  INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF
+  MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+  Other copyrights might apply to parts of this software and are so
+  noted when applicable.
+***************************************************************************
+*/
+package de.tudarmstadt.ukp.argumentation.emnlp2016.data.mace;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * The deterministic parallel E-step must give bit for bit the same model as the sequential one
+ */
+public class MACEModelTest
+{
+    private static final int ITERATIONS = 10;
+
+    /**
+     * random annotations of 4 labels by 7 annotators, some of them missing; more instances than
+     * an E-step chunk, so the parallel E-step has several blocks
+     */
+    private static MACE createData()
+    {
+        Random random = new Random(42);
+        String[] labels = { "a", "b", "c", "d" };
+
+        String[][] annotations = new String[1000][7];
+        for (int d = 0; d < annotations.length; d++) {
+            String truth = labels[random.nextInt(labels.length)];
+            for (int a = 0; a < annotations[d].length; a++) {
+                if (random.nextDouble() < 0.3) {
+                    continue;
+                }
+                annotations[d][a] = random.nextDouble() < 0.1 * (a + 1) ?
+                        labels[random.nextInt(labels.length)] :
+                        truth;
+            }
+        }
+        return new MACE(annotations);
+    }
+
+    @Test
+    public void deterministicParallelEStepEqualsSequential()
+    {
+        MACE data = createData();
+
+        int[] controls = new int[data.numInstances];
+        Arrays.fill(controls, -1);
+        for (int d = 0; d < controls.length; d += 10) {
+            controls[d] = d % data.numLabels;
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            MACEModel sequential = new MACEModel(data, new Random(1), null, 1, false, false);
+            MACEModel parallel = new MACEModel(data, new Random(1), pool, 4, true, false);
+            sequential.initialize(0.5, 0.5, 0.5);
+            parallel.initialize(0.5, 0.5, 0.5);
+
+            double smoothing = 0.01 / data.numLabels;
+            for (int t = 0; t < ITERATIONS; t++) {
+                sequential.EStep(controls);
+                parallel.EStep(controls);
+                assertEquals(sequential.logMarginalLikelhood, parallel.logMarginalLikelhood, 0.0);
+
+                sequential.MStep(smoothing);
+                parallel.MStep(smoothing);
+                assertArrayEquals(sequential.thetas, parallel.thetas, 0.0);
+                assertArrayEquals(sequential.strategies, parallel.strategies, 0.0);
+            }
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+}
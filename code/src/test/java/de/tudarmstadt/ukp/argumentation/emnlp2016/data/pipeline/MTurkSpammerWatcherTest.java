@@ -0,0 +1,168 @@
+/*
+ * Copyright 2016
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.tudarmstadt.ukp.argumentation.emnlp2016.data.pipeline;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.math.stat.descriptive.StatisticalSummary;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Incremental processing of growing MTurk exports with {@link MTurkSpammerWatcher}
+ */
+public class MTurkSpammerWatcherTest
+{
+    private static final String HEADER = "\"hitid\"\t\"hittypeid\"\t\"assignmentid\"\t"
+            + "\"workerid\"\t\"assignmentstatus\"\t\"assignmentaccepttime\"\t"
+            + "\"assignmentsubmittime\"\t\"Answer.1000_q1\"\t\"Answer.1000_q2\"\t"
+            + "\"Answer.1001_q1\"\t\"Answer.1001_q2\"\r\n";
+
+    private static final String[] LABELS = { "o7_1", "o7_2", "o8_1" };
+
+    /**
+     * A submitted assignment labeling both items; o4_1 is not an allowed label
+     */
+    private static String row(String hitId, String assignmentId, String workerId,
+            int submitTime, String label1000, String label1001)
+    {
+        return "\"" + hitId + "\"\t\"T1\"\t\"" + assignmentId + "\"\t\"" + workerId
+                + "\"\t\"Submitted\"\t\"Tue Mar 01 05:00:00 PST 2016\"\t\""
+                + String.format(Locale.ENGLISH, "Tue Mar 01 05:%02d:%02d PST 2016",
+                submitTime / 60, submitTime % 60)
+                + "\"\t\"o1_q1_o4_1\"\t\"o5_q2_" + label1000
+                + "\"\t\"o1_q1_o4_1\"\t\"o5_q2_" + label1001 + "\"\r\n";
+    }
+
+    /**
+     * A submitted assignment with two allowed labels for item 1000
+     */
+    private static String inconsistentRow(String hitId, String assignmentId, String workerId)
+    {
+        return "\"" + hitId + "\"\t\"T1\"\t\"" + assignmentId + "\"\t\"" + workerId
+                + "\"\t\"Submitted\"\t\"Tue Mar 01 05:00:00 PST 2016\"\t"
+                + "\"Tue Mar 01 05:00:05 PST 2016\"\t\"o1_q1_o1_2\"\t\"o5_q2_o7_1\"\t"
+                + "\"o1_q1_o4_1\"\t\"o5_q2_o7_1\"\r\n";
+    }
+
+    private static MTurkSpammerWatcher createWatcher()
+            throws IOException
+    {
+        File directory = Files.createTempDirectory("watcher").toFile();
+        directory.deleteOnExit();
+        File rejectionFile = new File(directory, "rejections.csv");
+        rejectionFile.deleteOnExit();
+
+        return new MTurkSpammerWatcher(rejectionFile, null, 2, 0.5, 60);
+    }
+
+    private static File createExport(String content)
+            throws IOException
+    {
+        File file = File.createTempFile("mturk", ".csv");
+        file.deleteOnExit();
+        FileUtils.writeStringToFile(file, content, "utf-8");
+        return file;
+    }
+
+    @Test
+    public void inconsistentRowDoesNotHideLaterRows()
+            throws Exception
+    {
+        File file = createExport(HEADER
+                + row("H1", "A1", "W1", 100, "o7_1", "o7_2")
+                + inconsistentRow("H2", "A2", "W2")
+                + row("H3", "A3", "W3", 120, "o7_1", "o7_2"));
+
+        MTurkSpammerWatcher watcher = createWatcher();
+        watcher.process(file);
+
+        assertNotNull(watcher.getSubmitTimeStatistics("W1"));
+        assertNull(watcher.getSubmitTimeStatistics("W2"));
+        assertNotNull(watcher.getSubmitTimeStatistics("W3"));
+
+        // only the appended record is read
+        FileUtils.writeStringToFile(file, row("H4", "A4", "W4", 90, "o7_1", "o8_1"), "utf-8",
+                true);
+        watcher.process(file);
+
+        assertNull(watcher.getSubmitTimeStatistics("W2"));
+        StatisticalSummary statistics = watcher.getSubmitTimeStatistics("W4");
+        assertNotNull(statistics);
+        assertEquals(1, statistics.getN());
+        assertEquals(90.0, statistics.getMean(), 0.0);
+    }
+
+    @Test
+    public void appendedChunksGiveSameStatistics()
+            throws Exception
+    {
+        Random random = new Random(0);
+        StringBuilder content = new StringBuilder(HEADER);
+        for (int i = 0; i < 60; i++) {
+            String workerId = "W" + random.nextInt(8);
+            if (i % 15 == 7) {
+                content.append(inconsistentRow("H" + i, "A" + i, workerId));
+            }
+            else {
+                content.append(row("H" + i, "A" + i, workerId, 5 + random.nextInt(200),
+                        LABELS[random.nextInt(LABELS.length)],
+                        LABELS[random.nextInt(LABELS.length)]));
+            }
+        }
+
+        MTurkSpammerWatcher expected = createWatcher();
+        expected.process(createExport(content.toString()));
+
+        // the export grows in random chunks, cutting records anywhere
+        SortedSet<Integer> ends = new TreeSet<>();
+        while (ends.size() < 20) {
+            ends.add(HEADER.length() + random.nextInt(content.length() - HEADER.length()));
+        }
+        ends.add(content.length());
+
+        MTurkSpammerWatcher actual = createWatcher();
+        File file = createExport(HEADER);
+        actual.process(file);
+        for (int end : ends) {
+            FileUtils.writeStringToFile(file, content.substring(0, end), "utf-8");
+            actual.process(file);
+        }
+
+        for (int i = 0; i < 8; i++) {
+            String workerId = "W" + i;
+            assertEquals(Double.valueOf(expected.getAgreement(workerId)),
+                    Double.valueOf(actual.getAgreement(workerId)));
+
+            StatisticalSummary expectedStatistics = expected.getSubmitTimeStatistics(workerId);
+            StatisticalSummary actualStatistics = actual.getSubmitTimeStatistics(workerId);
+            assertEquals(expectedStatistics == null, actualStatistics == null);
+            if (expectedStatistics != null) {
+                assertEquals(expectedStatistics.getN(), actualStatistics.getN());
+                assertEquals(expectedStatistics.getMean(), actualStatistics.getMean(), 0.0);
+            }
+        }
+        assertEquals(expected.getFlaggedWorkers(), actual.getFlaggedWorkers());
+    }
+}
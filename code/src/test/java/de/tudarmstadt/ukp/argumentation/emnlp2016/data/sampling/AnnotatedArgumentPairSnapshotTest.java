@@ -0,0 +1,172 @@
+/*
+ * Copyright 2016
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.tudarmstadt.ukp.argumentation.emnlp2016.data.sampling;
+
+import de.tudarmstadt.ukp.argumentation.emnlp2016.data.createdebate.Argument;
+import de.tudarmstadt.ukp.argumentation.emnlp2016.data.createdebate.DebateMetaData;
+import de.tudarmstadt.ukp.argumentation.emnlp2016.data.pipeline.MTurkAssignmentWithReasonUnits;
+import de.tudarmstadt.ukp.argumentation.emnlp2016.data.pipeline.ReasonUnit;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * XML files converted to a snapshot and back must be the same as before
+ */
+public class AnnotatedArgumentPairSnapshotTest
+{
+    private static Argument createArgument(String id, boolean complete)
+    {
+        Argument result = new Argument();
+        result.setId(id);
+        if (complete) {
+            result.setAuthor("author of " + id);
+            result.setVoteUpCount(3);
+            result.setVoteDownCount(-2);
+            result.setStance("stance");
+            result.setText("Text of " + id + " with \"quotes\", <tags> & ünïcödé");
+            result.setParentId("parent");
+            result.setOriginalHTML("<p>" + id + "</p>");
+            result.setTimestamp(new Date(1400000000123L));
+        }
+        return result;
+    }
+
+    private static MTurkAssignment createAssignment(MTurkAssignment result, String id)
+    {
+        result.setTurkID("W" + id);
+        result.setHitID("H" + id);
+        result.setAssignmentId("A" + id);
+        result.setAssignmentAcceptTime(new Date(1400000000000L));
+        result.setAssignmentSubmitTime(new Date(1400000060000L));
+        result.setValue("a1");
+        result.setReason("reason " + id);
+        result.setHitComment("comment");
+        result.setTurkRank(1);
+        result.setTurkCompetence(0.75);
+        result.setWorkerStance("stance");
+        return result;
+    }
+
+    /**
+     * Two files; null fields, shared arguments, both pair types and both assignment types,
+     * reason units with and without assignments
+     */
+    private static Map<String, List<AnnotatedArgumentPair>> createData()
+    {
+        Argument shared = createArgument("arg1", true);
+
+        // all nullable fields null
+        AnnotatedArgumentPair emptyPair = new AnnotatedArgumentPair();
+        emptyPair.setId("p1");
+        emptyPair.setArg1(shared);
+        emptyPair.setArg2(createArgument("arg2", false));
+
+        GeneratedArgumentPair generatedPair = new GeneratedArgumentPair();
+        generatedPair.setId("p2");
+        generatedPair.setArg1(shared);
+        generatedPair.setArg2(createArgument("arg3", true));
+        DebateMetaData debateMetaData = new DebateMetaData();
+        debateMetaData.setTitle("title");
+        generatedPair.setDebateMetaData(debateMetaData);
+        generatedPair.setGoldLabel("a1");
+        MTurkAssignment sparseAssignment = new MTurkAssignment();
+        sparseAssignment.setTurkID("W3");
+        sparseAssignment.setValue("a2");
+        generatedPair.setMTurkAssignments(new ArrayList<>(Arrays.asList(
+                createAssignment(new MTurkAssignment(), "1"), sparseAssignment)));
+
+        ReasonUnit reasonUnit = new ReasonUnit();
+        reasonUnit.setTarget(ReasonUnit.Target.a2);
+        reasonUnit.setReasonUnitText("because it is true");
+        reasonUnit.setId("ru1");
+        reasonUnit.setAverageCompetenceOfOriginalWorkers(0.5);
+        reasonUnit.setTextForAnnotation("Argument Y is true");
+        reasonUnit.setEstimatedGoldLabel("o5_1");
+        reasonUnit.setDuplicate(true);
+        reasonUnit.setFiltered(true);
+        MTurkReasonUnitAssignment reasonUnitAssignment = new MTurkReasonUnitAssignment("W4",
+                "H4", "A4", new Date(1400000000000L), new Date(1400000030000L), "o5_1");
+        reasonUnitAssignment.setHitComment("comment");
+        reasonUnitAssignment.setTurkCompetence(0.9);
+        reasonUnit.getAssignments().add(reasonUnitAssignment);
+
+        ReasonUnit emptyReasonUnit = new ReasonUnit();
+        emptyReasonUnit.setIgnored(true);
+
+        MTurkAssignmentWithReasonUnits withReasonUnits = (MTurkAssignmentWithReasonUnits)
+                createAssignment(new MTurkAssignmentWithReasonUnits(), "2");
+        withReasonUnits.setReasonUnits(new ArrayList<>(Arrays.asList(reasonUnit,
+                emptyReasonUnit)));
+        MTurkAssignmentWithReasonUnits withoutReasonUnits = (MTurkAssignmentWithReasonUnits)
+                createAssignment(new MTurkAssignmentWithReasonUnits(), "3");
+        withoutReasonUnits.setReasonUnits(null);
+
+        AnnotatedArgumentPair reasonPair = new AnnotatedArgumentPair();
+        reasonPair.setId("p3");
+        reasonPair.setArg1(createArgument("arg4", true));
+        reasonPair.setArg2(createArgument("arg5", true));
+        reasonPair.setMTurkAssignments(new ArrayList<MTurkAssignment>(
+                Arrays.asList(withReasonUnits, withoutReasonUnits)));
+
+        Map<String, List<AnnotatedArgumentPair>> result = new TreeMap<>();
+        result.put("a.xml", new ArrayList<>(Arrays.asList(emptyPair, generatedPair)));
+        result.put("b.xml", new ArrayList<>(Collections.singletonList(reasonPair)));
+        return result;
+    }
+
+    @Test
+    public void xmlSnapshotXmlRoundTrip()
+            throws Exception
+    {
+        File tmp = Files.createTempDirectory("snapshot").toFile();
+        try {
+            File xmlDir = new File(tmp, "xml");
+            File snapshotFile = new File(tmp, "corpus." + AnnotatedArgumentPairSnapshot.EXTENSION);
+            File convertedDir = new File(tmp, "converted");
+            xmlDir.mkdirs();
+            convertedDir.mkdirs();
+
+            IOHelper.saveAnnotatedPairs(createData(), xmlDir);
+            IOHelper.convertXmlToSnapshot(xmlDir, snapshotFile);
+            IOHelper.convertSnapshotToXml(snapshotFile, convertedDir);
+
+            for (String name : Arrays.asList("a.xml", "b.xml")) {
+                assertEquals(name,
+                        FileUtils.readFileToString(new File(xmlDir, name), "utf-8"),
+                        FileUtils.readFileToString(new File(convertedDir, name), "utf-8"));
+            }
+            assertEquals(2, convertedDir.list().length);
+
+            // the pairs of a snapshot share the instances of their arguments
+            List<AnnotatedArgumentPair> pairs = IOHelper.loadAnnotatedPairsSnapshot(snapshotFile)
+                    .get("a.xml");
+            assertSame(pairs.get(0).getArg1(), pairs.get(1).getArg1());
+            assertEquals(GeneratedArgumentPair.class, pairs.get(1).getClass());
+        }
+        finally {
+            FileUtils.deleteDirectory(tmp);
+        }
+    }
+}
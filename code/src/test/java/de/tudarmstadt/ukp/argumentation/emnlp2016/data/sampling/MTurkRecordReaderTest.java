@@ -0,0 +1,128 @@
+/*
+ * Copyright 2016
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.tudarmstadt.ukp.argumentation.emnlp2016.data.sampling;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Parsing of MTurk exports with {@link MTurkRecordReader}, directly and through
+ * {@link MTurkOutputReader} in eager and streaming mode
+ */
+public class MTurkRecordReaderTest
+{
+    private static final String HEADER = "\"hitid\"\t\"hittypeid\"\t\"assignmentid\"\t"
+            + "\"workerid\"\t\"assignmentstatus\"\t\"Answer.feedback\"\t\"Answer.q\"\t\r\n";
+
+    /**
+     * CRLF line endings; a multi-line cell with doubled quotes, an empty quoted cell, a cell
+     * starting with a line break ([tab]" at the end of the line), an empty unquoted cell and a
+     * submitted assignment
+     */
+    private static final String EXPORT_1 = HEADER
+            + "\"H1\"\t\"T1\"\t\"A1\"\t\"W1\"\t\"Approved\"\t\"first line\r\n"
+            + "second \"\"quoted\"\" line\"\t\"x\"\r\n"
+            + "\"H2\"\t\"T1\"\t\"A2\"\t\"W2\"\t\"Approved\"\t\"\"\t\"y\"\r\n"
+            + "\"H3\"\t\"T1\"\t\"A3\"\t\"W3\"\t\"Rejected\"\t\"\r\n"
+            + "starts on the next line\"\t\"z\"\r\n"
+            + "\"H4\"\t\"T1\"\t\"A4\"\t\"W4\"\t\"Submitted\"\t\t\"w\"\r\n";
+
+    private static final String EXPORT_2 = HEADER
+            + "\"H5\"\t\"T2\"\t\"A5\"\t\"W1\"\t\"Approved\"\t\"a\r\nb\r\nc\"\t\"x\"\r\n";
+
+    private static File createExport(String content)
+            throws IOException
+    {
+        File file = File.createTempFile("mturk", ".csv");
+        file.deleteOnExit();
+        FileUtils.writeStringToFile(file, content, "utf-8");
+        return file;
+    }
+
+    @Test
+    public void readRecords()
+            throws Exception
+    {
+        File file = createExport(EXPORT_1);
+
+        MTurkRecordReader reader = new MTurkRecordReader(file);
+        try {
+            assertArrayEquals(new String[] { "hitid", "hittypeid", "assignmentid", "workerid",
+                    "assignmentstatus", "Answer.feedback", "Answer.q" }, reader.getColumnNames());
+
+            // like the original reader, the last line of a record is appended without a space
+            assertArrayEquals(new String[] { "H1", "T1", "A1", "W1", "Approved",
+                    "first linesecond \"quoted\" line", "x" }, reader.next());
+            assertArrayEquals(new String[] { "H2", "T1", "A2", "W2", "Approved", null, "y" },
+                    reader.next());
+            assertArrayEquals(new String[] { "H3", "T1", "A3", "W3", "Rejected",
+                    "starts on the next line", "z" }, reader.next());
+            assertArrayEquals(new String[] { "H4", "T1", "A4", "W4", "Submitted", null, "w" },
+                    reader.next());
+            assertNull(reader.next());
+            assertEquals(4, reader.getRecordCount());
+        }
+        finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void eagerAndStreamingModesAgree()
+            throws Exception
+    {
+        File file1 = createExport(EXPORT_1);
+        File file2 = createExport(EXPORT_2);
+
+        for (boolean readOnlyAcceptedOrRejected : new boolean[] { true, false }) {
+            MTurkOutputReader eager = new MTurkOutputReader(new HashSet<String>(),
+                    readOnlyAcceptedOrRejected, false, file1, file2);
+            MTurkOutputReader streaming = new MTurkOutputReader(new HashSet<String>(),
+                    readOnlyAcceptedOrRejected, true, file1, file2);
+
+            List<Map<String, String>> eagerRecords = new ArrayList<>();
+            for (Map<String, String> record : eager) {
+                eagerRecords.add(record);
+            }
+            List<Map<String, String>> streamingRecords = new ArrayList<>();
+            for (Map<String, String> record : streaming) {
+                streamingRecords.add(record);
+            }
+
+            assertEquals(readOnlyAcceptedOrRejected ? 4 : 5, eagerRecords.size());
+            assertEquals(eagerRecords, streamingRecords);
+            assertEquals("a bc", eagerRecords.get(eagerRecords.size() - 1)
+                    .get("Answer.feedback"));
+
+            assertEquals(eager.getColumnNames(), streaming.getColumnNames());
+
+            Map<File, String> expectedHitTypeIds = new HashMap<>();
+            expectedHitTypeIds.put(file1, "T1");
+            expectedHitTypeIds.put(file2, "T2");
+            assertEquals(expectedHitTypeIds, eager.getHitTypeIdForFile());
+            assertEquals(expectedHitTypeIds, streaming.getHitTypeIdForFile());
+        }
+    }
+}